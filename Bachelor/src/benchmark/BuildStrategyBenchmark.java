@@ -0,0 +1,116 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import embedding.WatermarkCreator;
+import encoding.Encode;
+
+/**
+ * Compares unrolled and table-driven build methods of <code>WatermarkCreator</code>. For several watermark sizes and numbers of subgraphs,
+ * it reports the size of the class file, the size of the largest method and the average times for loading the class, for linking and
+ * initializing it, which includes verification, and for the first call of every build method. Each copy of the class is loaded by a new
+ * class loader, so that none of these steps are cached.<br>
+ * Usage: <tt>BuildStrategyBenchmark [outputDirectory [w1 w2 ...]]</tt>
+ * @author Kaspar
+ *
+ */
+public class BuildStrategyBenchmark {
+	private static final String CLASS_NAME = "bench.Watermark";
+	private static final int COPIES = 100;
+	private static final int[] NO_OF_SUBGRAPHS = {1, 8};
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private BuildStrategyBenchmark() {}
+	
+	public static void main(String[] args) throws Exception{
+		String outputDirectory = (args.length > 0) ? args[0] : "bench";
+		long[] ws = {1000, 1000000000L, Long.MAX_VALUE / 3};
+		if (args.length > 1){
+			ws = new long[args.length-1];
+			for (int i = 1; i < args.length; i++){
+				ws[i-1] = Long.parseLong(args[i]);
+			}
+		}
+		System.out.println("w\tvertices\tk\tstrategy\tclass bytes\tlargest method bytes\tload us\tlink+init us\tfirst calls us");
+		for (long w : ws){
+			DirectedGraph<Integer,DefaultEdge> graph = Encode.encodeWToRPG(w);
+			for (int k : NO_OF_SUBGRAPHS){
+				for (int strategy = 0; strategy < 2; strategy++){
+					boolean tableDriven = (strategy == 1);
+					File folder = new File(outputDirectory+File.separator+w+"_"+k+"_"+strategy);
+					WatermarkCreator creator = new WatermarkCreator(CLASS_NAME, graph, k);
+					creator.setTableDriven(tableDriven);
+					int noOfBuildMethods = creator.create();
+					creator.dump(folder.getPath());
+					File classFile = new File(folder, CLASS_NAME.replace('.', File.separatorChar)+".class");
+					// Warm up the class loading machinery itself before measuring
+					measure(folder, noOfBuildMethods);
+					double[] times = measure(folder, noOfBuildMethods);
+					System.out.println(w+"\t"+graph.vertexSet().size()+"\t"+k+"\t"+(tableDriven ? "table" : "unrolled")+"\t"+classFile.length()+"\t"
+							+largestMethod(classFile)+"\t"+times[0]+"\t"+times[1]+"\t"+times[2]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the code length of the largest method in a class file.
+	 * @param classFile The class file.
+	 * @return The number of bytes of the largest method.
+	 */
+	private static int largestMethod(File classFile) throws IOException{
+		JavaClass clazz = new ClassParser(classFile.getPath()).parse();
+		int result = 0;
+		for (org.apache.bcel.classfile.Method method : clazz.getMethods()){
+			if (method.getCode() != null){
+				result = Math.max(result, method.getCode().getCode().length);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Loads, initializes and calls all build methods of <code>COPIES</code> copies of the watermark class.
+	 * @param classPath The directory that the watermark class was saved to.
+	 * @param noOfBuildMethods The number of build methods in the class.
+	 * @return The average times in microseconds for loading, for linking and initializing and for the first call of all build methods.
+	 */
+	private static double[] measure(File classPath, int noOfBuildMethods) throws Exception{
+		URL[] urls = new URL[] { classPath.toURI().toURL() };
+		long load = 0;
+		long init = 0;
+		long call = 0;
+		for (int i = 0; i < COPIES; i++){
+			ClassLoader loader = new URLClassLoader(urls);
+			long start = System.nanoTime();
+			Class<?> clazz = Class.forName(CLASS_NAME, false, loader);
+			long loaded = System.nanoTime();
+			Class.forName(CLASS_NAME, true, loader);
+			long initialized = System.nanoTime();
+			Method[] builds = new Method[noOfBuildMethods];
+			for (int j = 0; j < noOfBuildMethods; j++){
+				builds[j] = clazz.getMethod("buildG"+j);
+			}
+			long beforeCalls = System.nanoTime();
+			for (Method build : builds){
+				build.invoke(null);
+			}
+			long called = System.nanoTime();
+			load += loaded - start;
+			init += initialized - loaded;
+			call += called - beforeCalls;
+		}
+		return new double[] { load / 1000.0 / COPIES, init / 1000.0 / COPIES, call / 1000.0 / COPIES };
+	}
+}
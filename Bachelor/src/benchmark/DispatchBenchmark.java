@@ -0,0 +1,131 @@
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.sun.jdi.request.EventRequest;
+
+import tracing.MarkTraceThread;
+import tracing.TraceVMLauncher;
+import tracing.TracePoint;
+import util.ConfigParser;
+import util.InToOutThread;
+
+/**
+ * Measures how much tracing under the debugger slows down a program, depending on how breakpoints are dispatched. The program of the
+ * config is run without a debugger, then traced with breakpoints that suspend the whole VM and are processed on a single thread, which is
+ * how tracing used to work, then with breakpoints that only suspend their own thread and finally with those processed by several workers.
+ * The wall-clock time of each run includes the start of the VM. The trace points of each variant are compared to those of the first traced
+ * one, since the dispatch must not change which trace points are found.<br>
+ * <code>example.ThreadedMarkHost</code> with <tt>config/dispatch.txt</tt> shows the difference for a multi-threaded program.<br>
+ * Usage: <tt>DispatchBenchmark configFile [workers [runs]]</tt>
+ * @author Kaspar
+ *
+ */
+public class DispatchBenchmark {
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private DispatchBenchmark() {}
+	
+	public static void main(String[] args) throws Exception{
+		if (args.length < 1){
+			System.out.println("Please enter the config file name as the first argument.");
+			return;
+		}
+		ConfigParser parser = new ConfigParser(args[0]);
+		int noOfWorkers = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+		String classPath = parser.classPath();
+		String mainClass = parser.mainClass();
+		String arguments = parser.arguments();
+		String markMethod = parser.markMethod();
+		
+		double plain = measurePlain(classPath, mainClass, arguments, runs);
+		System.out.println("variant\tmedian ms\tslowdown\ttrace points");
+		print("no debugger", plain, plain, -1);
+		Set<TracePoint> reference = null;
+		int[][] variants = {{EventRequest.SUSPEND_ALL, 1}, {EventRequest.SUSPEND_EVENT_THREAD, 1}, {EventRequest.SUSPEND_EVENT_THREAD, noOfWorkers}};
+		String[] names = {"suspend all, 1 worker", "suspend thread, 1 worker", "suspend thread, "+noOfWorkers+" workers"};
+		for (int v = 0; v < variants.length; v++){
+			double[] times = new double[runs];
+			Set<TracePoint> tracePoints = null;
+			for (int r = 0; r < runs; r++){
+				long start = System.nanoTime();
+				TraceVMLauncher launcher = new TraceVMLauncher(classPath, mainClass, arguments, markMethod, variants[v][0], variants[v][1]);
+				MarkTraceThread mtt = launcher.getTraceThread();
+				mtt.join();
+				times[r] = (System.nanoTime() - start) / 1e6;
+				tracePoints = new HashSet<TracePoint>(mtt.getTracePoints());
+			}
+			double median = median(times);
+			print(names[v], median, plain, tracePoints.size());
+			if (reference == null){
+				reference = tracePoints;
+			} else if (!reference.equals(tracePoints)){
+				System.out.println("WARNING: "+names[v]+" found different trace points than "+names[0]);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the program without a debugger.
+	 * @param classPath The class path of the program.
+	 * @param mainClass The main class.
+	 * @param arguments The arguments to the main method, separated by spaces.
+	 * @param runs The number of runs.
+	 * @return The median wall-clock time of a run in milliseconds.
+	 */
+	private static double measurePlain(String classPath, String mainClass, String arguments, int runs) throws Exception{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.add("-cp");
+		command.add(classPath+File.pathSeparator+System.getProperty("java.class.path"));
+		command.add(mainClass);
+		if (!arguments.trim().isEmpty()){
+			command.addAll(Arrays.asList(arguments.trim().split("\\s+")));
+		}
+		double[] times = new double[runs];
+		for (int r = 0; r < runs; r++){
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command).start();
+			Thread errThread = new InToOutThread(process.getErrorStream(), System.err);
+			Thread outThread = new InToOutThread(process.getInputStream(), System.out);
+			errThread.start();
+			outThread.start();
+			process.waitFor();
+			times[r] = (System.nanoTime() - start) / 1e6;
+			errThread.join();
+			outThread.join();
+		}
+		return median(times);
+	}
+	
+	/**
+	 * Returns the median of some values.
+	 * @param values The values, which are sorted by this method.
+	 * @return The median.
+	 */
+	private static double median(double[] values){
+		Arrays.sort(values);
+		int n = values.length;
+		return ((n % 2) == 1) ? values[n/2] : (values[n/2 - 1] + values[n/2]) / 2;
+	}
+	
+	/**
+	 * Prints the results of a variant as a tab-separated line.
+	 * @param variant The name of the variant.
+	 * @param median The median time of a run in milliseconds.
+	 * @param plain The median time of a run without a debugger in milliseconds.
+	 * @param noOfTracePoints The number of trace points found or -1 if the variant does not trace.
+	 */
+	private static void print(String variant, double median, double plain, int noOfTracePoints){
+		String tracePoints = (noOfTracePoints < 0) ? "-" : Integer.toString(noOfTracePoints);
+		System.out.println(variant+"\t"+String.format("%.1f", median)+"\t"+String.format("%.2fx", median / plain)+"\t"+tracePoints);
+	}
+}
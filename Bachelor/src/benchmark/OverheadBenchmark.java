@@ -0,0 +1,297 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import tracing.IntTracePoint;
+import tracing.NoArgTracePoint;
+import tracing.StringTracePoint;
+import tracing.TracePoint;
+import util.ConfigParser;
+import embedding.Embedder;
+import embedding.WatermarkCreator;
+import encoding.Encode;
+import example.Main;
+
+/**
+ * Measures the runtime overhead that watermarking adds at the call sites whose mark calls are replaced. The class path of the config is
+ * copied twice; one copy stays as it is, the other is watermarked just like <code>example.Main</code> does it, using the same options of
+ * the config. The main class has to provide one entry point per dispatch shape, each of which contains a single call site of that shape:
+ * <code>markNoArg()</code>, <code>markInt(int)</code> and <code>markString(String)</code>. A shape whose entry point is missing is skipped.<br>
+ * For every shape and both variants, the entry point is called repeatedly in this VM, cycling through the arguments that were traced for
+ * that shape, and the throughput, the latency percentiles and the allocated bytes per call are reported. A <code>NoArgTracePoint</code> is
+ * replaced by a plain call, while <code>IntTracePoint</code>s and <code>StringTracePoint</code>s at the same location become a chain of
+ * comparisons, so the shapes are reported separately. Both variants are measured in turn for a few rounds and the round with the highest
+ * throughput is reported for each. The latencies include the cost of <tt>System.nanoTime()</tt>, which is the same for
+ * both variants. <code>example.MarkHost</code> with <tt>config/overhead.txt</tt> covers all three shapes.<br>
+ * Usage: <tt>OverheadBenchmark configFile [outputDirectory [warmupCalls [measuredCalls]]]</tt>
+ * @author Kaspar
+ *
+ */
+public class OverheadBenchmark {
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final int ROUNDS = 3;
+	private static final int NO_ARG = 0;
+	private static final int INT_ARG = 1;
+	private static final int STRING_ARG = 2;
+	private static final String[] SHAPE_NAMES = {"no-arg", "int", "String"};
+	private static final String[] ENTRY_POINTS = {"markNoArg", "markInt", "markString"};
+	private static final MethodType[] ENTRY_POINT_TYPES = {MethodType.methodType(void.class), MethodType.methodType(void.class, int.class),
+			MethodType.methodType(void.class, String.class)};
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private OverheadBenchmark() {}
+	
+	public static void main(String[] args) throws Throwable{
+		if (args.length < 1){
+			System.out.println("Please enter the config file name as the first argument.");
+			return;
+		}
+		ConfigParser parser = new ConfigParser(args[0]);
+		String outputDirectory = (args.length > 1) ? args[1] : "bench";
+		int warmupCalls = (args.length > 2) ? Integer.parseInt(args[2]) : 200000;
+		int measuredCalls = (args.length > 3) ? Integer.parseInt(args[3]) : 1000000;
+		
+		File original = new File(outputDirectory, "original");
+		File watermarked = new File(outputDirectory, "watermarked");
+		copyDirectory(new File(parser.classPath()), original);
+		copyDirectory(new File(parser.classPath()), watermarked);
+		Embedder embedder = embed(parser, watermarked.getPath());
+		
+		List<Integer> intValues = new ArrayList<Integer>();
+		List<String> stringValues = new ArrayList<String>();
+		for (TracePoint trace : embedder.getTracePoints()){
+			if (trace instanceof IntTracePoint){
+				intValues.add(((IntTracePoint) trace).getValue());
+			} else if (trace instanceof StringTracePoint){
+				stringValues.add(((StringTracePoint) trace).getValue());
+			}
+		}
+		int[] ints = new int[intValues.size()];
+		for (int i = 0; i < ints.length; i++){
+			ints[i] = intValues.get(i);
+		}
+		String[] strings = stringValues.toArray(new String[stringValues.size()]);
+		
+		System.out.println("shape\tvariant\tcalls/s\tp50 ns\tp90 ns\tp99 ns\tp99.9 ns\tbytes/call");
+		for (int shape = NO_ARG; shape <= STRING_ARG; shape++){
+			if (((shape == INT_ARG) && (ints.length == 0)) || ((shape == STRING_ARG) && (strings.length == 0))){
+				System.out.println(SHAPE_NAMES[shape]+"\tno trace points of this shape were hit");
+				continue;
+			}
+			MethodHandle before = findEntryPoint(original, parser.mainClass(), shape);
+			MethodHandle after = findEntryPoint(watermarked, parser.mainClass(), shape);
+			if ((before == null) || (after == null)){
+				System.out.println(SHAPE_NAMES[shape]+"\tno entry point "+ENTRY_POINTS[shape]);
+				continue;
+			}
+			// The variants take turns, so that neither always runs with the JIT profile that the other one left behind
+			double[] beforeResults = null;
+			double[] afterResults = null;
+			for (int round = 0; round < ROUNDS; round++){
+				beforeResults = best(beforeResults, measure(before, shape, ints, strings, warmupCalls, measuredCalls));
+				afterResults = best(afterResults, measure(after, shape, ints, strings, warmupCalls, measuredCalls));
+			}
+			print(SHAPE_NAMES[shape], "original", beforeResults);
+			print(SHAPE_NAMES[shape], "watermarked", afterResults);
+			System.out.println(SHAPE_NAMES[shape]+"\tthroughput overhead: "+(100.0 * (beforeResults[0] - afterResults[0]) / beforeResults[0])+" %");
+		}
+	}
+	
+	/**
+	 * Watermarks the classes in a directory.
+	 * @param parser The config.
+	 * @param classPath The directory.
+	 * @return The Embedder, which has been run.
+	 */
+	private static Embedder embed(ConfigParser parser, String classPath) throws IOException{
+		DirectedGraph<Integer, DefaultEdge> graph = Encode.encodeWToRPG(parser.encodingNumber());
+		Embedder embedder = Main.createEmbedder(parser, classPath);
+		int noOfTracePoints = embedder.run();
+		if (noOfTracePoints == 0){
+			throw new IllegalStateException("No trace points hit, so there is nothing to measure.");
+		}
+		WatermarkCreator wmark = Main.createWatermarkCreator(parser, graph, noOfTracePoints);
+		int noOfBuildMethods = wmark.create();
+		wmark.dump(classPath);
+		embedder.dump(wmark.getClassName(), noOfBuildMethods);
+		if (parser.stripMarkCalls()){
+			embedder.stripMarkCalls();
+		}
+		
+		List<TracePoint> replaced = embedder.getTracePoints().subList(0, noOfBuildMethods);
+		int noArg = 0;
+		int intArg = 0;
+		int stringArg = 0;
+		for (TracePoint trace : replaced){
+			if (trace instanceof NoArgTracePoint){
+				noArg++;
+			} else if (trace instanceof IntTracePoint){
+				intArg++;
+			} else if (trace instanceof StringTracePoint){
+				stringArg++;
+			}
+		}
+		System.out.println(noOfBuildMethods+" build methods, replaced trace points: "+noArg+" without argument, "+intArg+" int, "+stringArg+" String");
+		return embedder;
+	}
+	
+	/**
+	 * Loads the main class from a directory and finds the entry point of a shape. The class is loaded by its own class loader, so the
+	 * statics of the watermark class survive between calls just as they would in a long-running program.
+	 * @param classPath The directory containing the classes.
+	 * @param mainClass The fully qualified name of the main class.
+	 * @param shape The shape, one of <tt>NO_ARG</tt>, <tt>INT_ARG</tt> and <tt>STRING_ARG</tt>.
+	 * @return The entry point or <tt>null</tt> if the main class has none for this shape.
+	 */
+	private static MethodHandle findEntryPoint(File classPath, String mainClass, int shape) throws Exception{
+		ClassLoader loader = new URLClassLoader(new URL[] { classPath.toURI().toURL() }, OverheadBenchmark.class.getClassLoader().getParent());
+		Class<?> clazz = Class.forName(mainClass, true, loader);
+		try {
+			return MethodHandles.publicLookup().findStatic(clazz, ENTRY_POINTS[shape], ENTRY_POINT_TYPES[shape]);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Calls an entry point repeatedly. First, the calls are only counted to get the throughput and the allocated bytes, then every call is
+	 * timed on its own to get the latency percentiles.
+	 * @param entryPoint The entry point.
+	 * @param shape The shape of the entry point.
+	 * @param ints The arguments for <tt>INT_ARG</tt>, which are used in turn.
+	 * @param strings The arguments for <tt>STRING_ARG</tt>, which are used in turn.
+	 * @param warmupCalls The number of calls before the measurement starts.
+	 * @param measuredCalls The number of calls that are measured.
+	 * @return The calls per second, the latency percentiles in nanoseconds and the average allocated bytes per call.
+	 */
+	private static double[] measure(MethodHandle entryPoint, int shape, int[] ints, String[] strings, int warmupCalls, int measuredCalls)
+			throws Throwable{
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < warmupCalls; i++){
+			call(entryPoint, shape, ints, strings, i);
+		}
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long totalStart = System.nanoTime();
+		for (int i = 0; i < measuredCalls; i++){
+			call(entryPoint, shape, ints, strings, i);
+		}
+		long totalEnd = System.nanoTime();
+		long allocatedAfter = threadBean.getThreadAllocatedBytes(threadId);
+		
+		long[] latencies = new long[measuredCalls];
+		long start;
+		for (int i = 0; i < measuredCalls; i++){
+			start = System.nanoTime();
+			call(entryPoint, shape, ints, strings, i);
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		double[] result = new double[PERCENTILES.length + 2];
+		result[0] = measuredCalls / ((totalEnd - totalStart) / 1e9);
+		for (int i = 0; i < PERCENTILES.length; i++){
+			int index = (int) Math.min(measuredCalls - 1, Math.ceil(PERCENTILES[i] / 100.0 * measuredCalls) - 1);
+			result[i+1] = latencies[Math.max(0, index)];
+		}
+		result[result.length-1] = (allocatedAfter - allocatedBefore) / (double) measuredCalls;
+		return result;
+	}
+	
+	/**
+	 * Returns the results of the round with the higher throughput.
+	 * @param best The best results so far or <tt>null</tt> if there are none.
+	 * @param results The results of the last round.
+	 * @return Either <code>best</code> or <code>results</code>.
+	 */
+	private static double[] best(double[] best, double[] results){
+		if ((best == null) || (results[0] > best[0])){
+			return results;
+		}
+		return best;
+	}
+	
+	/**
+	 * Calls an entry point once. <tt>invokeExact</tt> is used so that neither the arguments nor an argument array need to be allocated.
+	 * @param entryPoint The entry point.
+	 * @param shape The shape of the entry point.
+	 * @param ints The arguments for <tt>INT_ARG</tt>.
+	 * @param strings The arguments for <tt>STRING_ARG</tt>.
+	 * @param i The number of the call, which determines the argument.
+	 */
+	private static void call(MethodHandle entryPoint, int shape, int[] ints, String[] strings, int i) throws Throwable{
+		switch (shape){
+		case NO_ARG:
+			entryPoint.invokeExact();
+			break;
+		case INT_ARG:
+			entryPoint.invokeExact(ints[i % ints.length]);
+			break;
+		case STRING_ARG:
+			entryPoint.invokeExact(strings[i % strings.length]);
+			break;
+		}
+	}
+	
+	/**
+	 * Prints one line of results.
+	 * @param shape The name of the shape.
+	 * @param variant The name of the variant.
+	 * @param results The results as returned by <tt>measure</tt>.
+	 */
+	private static void print(String shape, String variant, double[] results){
+		StringBuffer buf = new StringBuffer(shape+"\t"+variant);
+		for (double result : results){
+			buf.append('\t');
+			buf.append(String.format("%.2f", result));
+		}
+		System.out.println(buf.toString());
+	}
+	
+	/**
+	 * Copies a directory with all its subdirectories.
+	 * @param source The directory to be copied.
+	 * @param target The copy.
+	 */
+	private static void copyDirectory(File source, File target) throws IOException{
+		target.mkdirs();
+		File[] files = source.listFiles();
+		if (files == null){
+			throw new IOException("Can not read the directory "+source);
+		}
+		byte[] buf = new byte[8192];
+		for (File file : files){
+			File copy = new File(target, file.getName());
+			if (file.isDirectory()){
+				copyDirectory(file, copy);
+				continue;
+			}
+			InputStream in = new FileInputStream(file);
+			OutputStream out = new FileOutputStream(copy);
+			int d;
+			while ((d = in.read(buf)) >= 0){
+				out.write(buf, 0, d);
+			}
+			in.close();
+			out.close();
+		}
+	}
+}
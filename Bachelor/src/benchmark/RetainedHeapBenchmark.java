@@ -0,0 +1,113 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import embedding.WatermarkCreator;
+import encoding.Encode;
+
+/**
+ * Measures how much heap stays in use after all build methods of a watermark class have been called, for several watermark sizes and
+ * for each generation mode of <code>WatermarkCreator</code>. Each class is loaded many times by separate class loaders, so that every
+ * copy has its own static fields, and the difference in used heap is averaged over all copies.<br>
+ * Usage: <tt>RetainedHeapBenchmark [outputDirectory [noOfSubgraphs [w1 w2 ...]]]</tt>
+ * @author Kaspar
+ *
+ */
+public class RetainedHeapBenchmark {
+	private static final String CLASS_NAME = "bench.Watermark";
+	private static final int COPIES = 200;
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private RetainedHeapBenchmark() {}
+	
+	public static void main(String[] args) throws Exception{
+		String outputDirectory = (args.length > 0) ? args[0] : "bench";
+		int k = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		long[] ws = {7, 1000, 1000000, 1000000000L, Long.MAX_VALUE / 3};
+		if (args.length > 2){
+			ws = new long[args.length-2];
+			for (int i = 2; i < args.length; i++){
+				ws[i-2] = Long.parseLong(args[i]);
+			}
+		}
+		System.out.println("w\tvertices\tdefault\treachable\tthreadSafe\tthreadSafe+reachable\t(bytes retained per watermark)");
+		for (long w : ws){
+			DirectedGraph<Integer,DefaultEdge> graph = Encode.encodeWToRPG(w);
+			StringBuffer line = new StringBuffer();
+			line.append(w+"\t"+graph.vertexSet().size());
+			for (int mode = 0; mode < 4; mode++){
+				boolean threadSafe = (mode >= 2);
+				boolean keepGraphReachable = (mode % 2 == 1);
+				File folder = new File(outputDirectory+File.separator+w+"_"+mode);
+				int noOfBuildMethods = generate(graph, k, threadSafe, keepGraphReachable, folder.getPath());
+				line.append("\t"+measure(folder, noOfBuildMethods));
+			}
+			System.out.println(line.toString());
+		}
+	}
+	
+	/**
+	 * Generates and saves a watermark class.
+	 * @return The number of build methods in the class.
+	 */
+	private static int generate(DirectedGraph<Integer,DefaultEdge> graph, int k, boolean threadSafe, boolean keepGraphReachable, String classPath)
+			throws IOException{
+		WatermarkCreator creator = new WatermarkCreator(CLASS_NAME, graph, k);
+		creator.setThreadSafe(threadSafe);
+		creator.setKeepGraphReachable(keepGraphReachable);
+		int noOfBuildMethods = creator.create();
+		creator.dump(classPath);
+		return noOfBuildMethods;
+	}
+	
+	/**
+	 * Loads <code>COPIES</code> copies of the watermark class, calls all of their build methods and returns the average retained heap per copy.
+	 * @param classPath The directory that the watermark class was saved to.
+	 * @param noOfBuildMethods The number of build methods in the class.
+	 * @return The average number of bytes that are still reachable after all build methods have been called.
+	 */
+	private static long measure(File classPath, int noOfBuildMethods) throws Exception{
+		URL[] urls = new URL[] { classPath.toURI().toURL() };
+		Class<?>[] classes = new Class<?>[COPIES];
+		for (int i = 0; i < COPIES; i++){
+			// Load, but do not initialize, so that static initializers are part of the measurement
+			classes[i] = Class.forName(CLASS_NAME, false, new URLClassLoader(urls));
+			classes[i].getMethods();
+		}
+		long before = usedHeap();
+		for (Class<?> clazz : classes){
+			for (int j = 0; j < noOfBuildMethods; j++){
+				Method build = clazz.getMethod("buildG"+j);
+				build.invoke(null);
+			}
+		}
+		long after = usedHeap();
+		// keep the classes, and with them the static fields, reachable until after the measurement
+		if (classes[COPIES-1] == null){
+			throw new IllegalStateException();
+		}
+		return (after - before) / COPIES;
+	}
+	
+	/**
+	 * Returns the used heap after running the garbage collector a few times.
+	 * @return The used heap in bytes.
+	 */
+	private static long usedHeap() throws InterruptedException{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++){
+			System.gc();
+			Thread.sleep(20);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -64,7 +64,7 @@ class ClassContainer extends ClassGen{
 	 * @param trace A TracePoint in a method in a MethodContainer in this instance.
 	 */
 	public void addTracePoint(TracePoint trace){
-		String wantedSig = Tools.methodSig(trace.getLoc());
+		String wantedSig = trace.getMethodSig();
 		Method method = sigToMethod.get(wantedSig);
 		MethodContainer methodCont = markedMethodsToContainers.get(method);
 		if(methodCont == null){
@@ -74,15 +74,22 @@ class ClassContainer extends ClassGen{
 	}
 	
 	/**
-	 * Processes the previously added TracePoints, adding calls to graph-building methods of the watermark class to the MethodContainers that were added. 
+	 * Processes the previously added TracePoints, adding calls to graph-building methods of the watermark class to the MethodContainers that were added.
+	 * @param report The report that the changed methods are added to or <tt>null</tt> if there is none.
 	 */
-	public void processTracePoints(){
+	public void processTracePoints(ImpactReport report){
 		for (Method method : markedMethodsToContainers.keySet()){
 			MethodContainer methodCont = markedMethodsToContainers.get(method);
 			methodCont.processTracePoints();
 			methodCont.setMaxStack();
 			methodCont.setMaxLocals();
-			replaceMethod(method, methodCont.getMethod());
+			Method newMethod = methodCont.getMethod();
+			if (report != null){
+				MethodImpact impact = new MethodImpact(getClassName(), method, newMethod);
+				impact.markSites.addAll(methodCont.getMarkSites());
+				report.addHostMethod(impact);
+			}
+			replaceMethod(method, newMethod);
 		}
 	}
 
@@ -0,0 +1,60 @@
+package embedding;
+
+import java.util.Arrays;
+
+/**
+ * A combination of edge flips and edge deletions that is applied to a watermark class, just like calls to <tt>WatermarkCreator.edgeFlip</tt>,
+ * <tt>WatermarkCreator.deleteListEdge</tt> and <tt>WatermarkCreator.deleteTreeEdge</tt> would. All flips are done first, then the deletions
+ * of list edges, then those of tree edges. The vertex indices are the same as for those methods.
+ * @author Kaspar
+ *
+ */
+public class EdgeAttack {
+	private final int[] flips;
+	private final int[] listEdgeDeletions;
+	private final int[] treeEdgeDeletions;
+
+	/**
+	 * Creates a new EdgeAttack.
+	 * @param flips The vertices whose edges are to be flipped, from 1 to n-2.
+	 * @param listEdgeDeletions The vertices whose list edges are to be deleted, from 1 to n-1.
+	 * @param treeEdgeDeletions The vertices whose tree edges are to be deleted, from 1 to n-2.
+	 */
+	public EdgeAttack(int[] flips, int[] listEdgeDeletions, int[] treeEdgeDeletions) {
+		this.flips = flips.clone();
+		this.listEdgeDeletions = listEdgeDeletions.clone();
+		this.treeEdgeDeletions = treeEdgeDeletions.clone();
+	}
+
+	/**
+	 * Returns the vertices whose edges are flipped.
+	 * @return The vertex indices.
+	 */
+	public int[] getFlips(){
+		return flips.clone();
+	}
+
+	/**
+	 * Returns the vertices whose list edges are deleted.
+	 * @return The vertex indices.
+	 */
+	public int[] getListEdgeDeletions(){
+		return listEdgeDeletions.clone();
+	}
+
+	/**
+	 * Returns the vertices whose tree edges are deleted.
+	 * @return The vertex indices.
+	 */
+	public int[] getTreeEdgeDeletions(){
+		return treeEdgeDeletions.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "flip "+Arrays.toString(flips)+", delete list "+Arrays.toString(listEdgeDeletions)+", delete tree "+Arrays.toString(treeEdgeDeletions);
+	}
+}
@@ -1,22 +1,28 @@
 package embedding;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.bcel.classfile.JavaClass;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
 
 import tracing.*;
 import util.TimeKeeper;
 
+import com.sun.jdi.request.EventRequest;
+
 /**
  * An instance of this class loads a class file and executes the class found therein, collecting the TracePoints and finally replacing the TracePoints
  * @author Kaspar
@@ -31,6 +37,17 @@ public class Embedder {
 	private final String _args;
 	private final String _markMethodName;
 	private final String _className;
+	private boolean agentTracing = false;
+	private boolean staticScan = false;
+	private boolean confirmReachability = false;
+	private int breakpointSuspendPolicy = EventRequest.SUSPEND_ALL;
+	private int noOfWorkers = 1;
+	private String traceFile = null;
+	private List<String> additionalArguments = new ArrayList<String>();
+	private int mergePolicy = TraceMerger.INTERSECTION;
+	private int targetCount = 0;
+	private long confirmationHits = 0;
+	private long timeout = 0;
 	private TimeKeeper time;
 
 	/**
@@ -48,17 +65,109 @@ public class Embedder {
 		time = new TimeKeeper("[blank]");
 	}
 	
+	/**
+	 * Sets whether the class is traced by <code>MarkAgent</code> instead of under a debugger. The agent does not stop the traced VM at
+	 * every mark call, so this is a lot faster for programs that call the mark method often. This must be called before <tt>run()</tt>.
+	 * @param agentTracing <tt>true</tt> if the agent is to be used, <tt>false</tt> for breakpoints.
+	 */
+	public void setAgentTracing(boolean agentTracing){
+		this.agentTracing = agentTracing;
+	}
+	
+	/**
+	 * Sets how the breakpoints at the mark method are handled if the class is traced under a debugger, see
+	 * <code>QueueThread.setEventDispatch</code>. This must be called before <tt>run()</tt>.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints.
+	 * @param noOfWorkers The number of threads that process breakpoints.
+	 */
+	public void setEventDispatch(int breakpointSuspendPolicy, int noOfWorkers){
+		this.breakpointSuspendPolicy = breakpointSuspendPolicy;
+		this.noOfWorkers = noOfWorkers;
+	}
+	
+	/**
+	 * Sets when tracing under a debugger stops before the class finishes, see <code>MarkTraceThread.setTarget</code>. This only saves
+	 * time if the class keeps running long after the TracePoints are hit for the first time. This must be called before <tt>run()</tt>.
+	 * @param targetCount The number of TracePoints that must be hit exactly once or 0 to run the class to completion.
+	 * @param confirmationHits The number of further hits for which the target must stay reached, so that duplicates are still noticed.
+	 * @param timeout The time in milliseconds after which tracing stops in any case or 0 for no timeout.
+	 */
+	public void setTracingTarget(int targetCount, long confirmationHits, long timeout){
+		this.targetCount = targetCount;
+		this.confirmationHits = confirmationHits;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Sets a file for recording and replaying TracePoints. If the file exists, <tt>run()</tt> loads the TracePoints from it instead of
+	 * finding them. Otherwise, the TracePoints that were found are saved to it. This must be called before <tt>run()</tt>.
+	 * @param traceFile The name of the file or <tt>null</tt> if there is none.
+	 */
+	public void setTraceFile(String traceFile){
+		this.traceFile = traceFile;
+	}
+	
+	/**
+	 * Sets further arguments that the class is traced with, each in a VM of its own, all at the same time as the arguments from the
+	 * constructor. The TracePoints of all runs are then merged, see <code>TraceMerger</code>. This must be called before <tt>run()</tt>.
+	 * @param additionalArguments The further arguments to the main class' main method.
+	 * @param mergePolicy The policy for merging, one of the constants in <code>TraceMerger</code>.
+	 */
+	public void setAdditionalArguments(List<String> additionalArguments, int mergePolicy){
+		this.additionalArguments = new ArrayList<String>(additionalArguments);
+		this.mergePolicy = mergePolicy;
+	}
+	
+	/**
+	 * Sets whether the TracePoints are found by <code>StaticMarkScanner</code> in the class files. Without confirmation, the class is not run
+	 * at all and the TracePoints are enumerated in the order in which they appear on the class path, so this is only correct if that is the
+	 * order in which they are executed. With confirmation, the class is traced as usual and only those traced TracePoints that the scanner
+	 * found as well are kept. This must be called before <tt>run()</tt>.
+	 * @param staticScan <tt>true</tt> if the class files are to be scanned, <tt>false</tt> otherwise.
+	 * @param confirmReachability <tt>true</tt> if the scanned TracePoints are to be confirmed by a traced run, <tt>false</tt> otherwise.
+	 */
+	public void setStaticScan(boolean staticScan, boolean confirmReachability){
+		this.staticScan = staticScan;
+		this.confirmReachability = confirmReachability;
+	}
+	
 	/**
 	 * Runs the class provided in the constructor and extracts the TracePoints.
 	 * @return The number of TracePoints that have been found.
 	 */
 	public int run(){
-		tracePoints = runClassFile();
+		List<TracePoint> allTracePoints;
+		if ((traceFile != null) && new File(traceFile).exists()){
+			allTracePoints = loadTrace();
+		} else {
+			if (staticScan && !confirmReachability){
+				allTracePoints = new ArrayList<TracePoint>(scanClassFiles());
+			} else if (additionalArguments.isEmpty()){
+				allTracePoints = traceClassFile(_args);
+			} else {
+				allTracePoints = traceClassFileConcurrently();
+			}
+			if (traceFile != null){
+				saveTrace(allTracePoints);
+			}
+		}
+		tracePoints = new LinkedList<TracePoint>(TracePoint.removeDuplicates(allTracePoints));
+		if (staticScan && confirmReachability){
+			tracePoints = confirmTracePoints(tracePoints, scanClassFiles());
+		}
 		traceToClass = Tools.getClasses(tracePoints, _classPath);
 		System.out.println(Arrays.toString(tracePoints.toArray()));
 		return tracePoints.size();
 	}
 	
+	/**
+	 * Returns the TracePoints in the order in which they were hit. run() must have been called before this method.
+	 * @return The TracePoints that have been found.
+	 */
+	public List<TracePoint> getTracePoints(){
+		return tracePoints;
+	}
+	
 	/**
 	 * Saves the modified classes with calls to the watermark class' build methods. run() must have been called before this method.
 	 * @param watermarkClassName The fully qualified name of the watermark class.
@@ -66,11 +175,54 @@ public class Embedder {
 	 * @throws IOException If the files can not be saved.
 	 */
 	public void dump(String watermarkClassName, int noOfBuildMethods) throws IOException{
+		dump(watermarkClassName, noOfBuildMethods, null);
+	}
+	
+	/**
+	 * Saves the modified classes with calls to the watermark class' build methods and adds every changed method to a report.
+	 * run() must have been called before this method.
+	 * @param watermarkClassName The fully qualified name of the watermark class.
+	 * @param noOfBuildMethods The number of build methods the watermark class has, indexed from 0 to (noOfBuildMethods - 1).
+	 * @param report The report that the changed methods are added to or <tt>null</tt> if there is none. If the watermark class was
+	 * already dumped into it, the allocations of each build call are listed as well.
+	 * @throws IOException If the files can not be saved.
+	 */
+	public void dump(String watermarkClassName, int noOfBuildMethods, ImpactReport report) throws IOException{
+		Map<String,byte[]> classes = dumpToMemory(watermarkClassName, noOfBuildMethods, report);
+		//TODO: Get the actual path to the .class file as assuming they are all on one path may be wrong.
+		Tools.writeClasses(_classPath, classes);
+	}
+	
+	/**
+	 * Inserts calls to the watermark class' build methods just like <tt>dump</tt>, but returns the modified classes instead of saving them,
+	 * so that they can be packaged or loaded without touching the disk. run() must have been called before this method.
+	 * @param watermarkClassName The fully qualified name of the watermark class.
+	 * @param noOfBuildMethods The number of build methods the watermark class has, indexed from 0 to (noOfBuildMethods - 1).
+	 * @param report The report that the changed methods are added to or <tt>null</tt> if there is none.
+	 * @return A map from the internal name of each modified class, e.g. <tt>example/Main</tt>, to its new bytecode.
+	 */
+	public Map<String,byte[]> dumpToMemory(String watermarkClassName, int noOfBuildMethods, ImpactReport report){
 		classToClassCont = new HashMap<JavaClass,ClassContainer>();
 		time = new TimeKeeper("wmark call replacement");
 		setUpContainers(watermarkClassName, noOfBuildMethods);
-		processTracePoints(_classPath);
+		Map<String,byte[]> result = processTracePoints(report);
 		time.stop();
+		return result;
+	}
+	
+	/**
+	 * Removes all calls to the mark method that are left in the classes on the class path, i.e. those at trace points that were not replaced
+	 * and those that were removed as duplicates. This should be called after <code>dump</code>, so that the replaced trace points are already saved.
+	 * @return The number of mark calls that have been removed.
+	 * @throws IOException If a modified class file can not be saved.
+	 */
+	public int stripMarkCalls() throws IOException{
+		time = new TimeKeeper("mark call removal");
+		MarkCallRemover remover = new MarkCallRemover(_classPath, _markMethodName);
+		remover.run();
+		time.stop();
+		System.out.println("Removed "+remover.getRemovedCalls()+" mark calls, saving "+remover.getSavedBytes()+" bytes of bytecode");
+		return remover.getRemovedCalls();
 	}
 	
 	/**
@@ -99,54 +251,165 @@ public class Embedder {
 	}
 	
 	/**
-	 * Processes the trace points and saves the modified classes. 
-	 * @param classPath The path from which all necessary classes can be loaded.
-	 * @throws IOException If the file can not be saved.
+	 * Processes the trace points and returns the modified classes.
+	 * @param report The report that the changed methods are added to or <tt>null</tt> if there is none.
+	 * @return A map from the internal name of each modified class to its new bytecode.
 	 */
-	private void processTracePoints(String classPath) throws IOException{
+	private Map<String,byte[]> processTracePoints(ImpactReport report){
+		Map<String,byte[]> result = new LinkedHashMap<String,byte[]>();
 		for (ClassContainer cont : classToClassCont.values()){
-			cont.processTracePoints();
-			String fullName = cont.getClassName();
-			int index = fullName.lastIndexOf('.');
-			String thisPackage = fullName.substring(0, index);
-			String thisClass = fullName.substring(index+1,fullName.length());
-			thisPackage = thisPackage.replace('.', File.separator.charAt(0));
-			byte[] bytecode = cont.getJavaClass().getBytes();
-			ClassReader cr = new ClassReader(bytecode);
-			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-			cr.accept(cw, 0);
-			bytecode = cw.toByteArray();
-			time.pause();
-			//TODO: Get the actual path to the .class file as assuming they are all on one path may be wrong.				
-			OutputStream out = new FileOutputStream(classPath+File.separator+thisPackage+File.separator+thisClass+".class");
-			out.write(bytecode);
-			out.close();
-			time.resume();
+			cont.processTracePoints(report);
+			result.put(cont.getClassName().replace('.', '/'), Tools.recomputeFrames(cont.getJavaClass().getBytes()));
 		}
+		return result;
 	}
 	
 	/**
-	 * 
-	 * @param classPath The path to the environment from which the main class can be called.
-	 * @param className The fully qualified name of the main class.
+	 * Executes the main class under a debugger and collects the TracePoints.
 	 * @param args The arguments to the main class' main method.
-	 * @param markMethodName The fully qualified name of the mark method.
-	 * @return The TracePoints that are encountered in the execution of the main class.
+	 * @return Every TracePoint that is encountered in the execution of the main class, including duplicates.
 	 */
-	private List<TracePoint> runClassFile(){
-		TraceVMLauncher vmLauncher = new tracing.TraceVMLauncher(_classPath, _className, _args, _markMethodName);
+	private List<TracePoint> runClassFile(String args){
+		TraceVMLauncher vmLauncher = new tracing.TraceVMLauncher(_classPath, _className, args, _markMethodName, breakpointSuspendPolicy, noOfWorkers,
+				targetCount, confirmationHits, timeout);
 		MarkTraceThread mtt = vmLauncher.getTraceThread();
 		
-		// Wait until the debuggee is done
-		while (mtt.isAlive()){
-			
-		}
-		LinkedHashSet<TracePoint> tracePointsSet = null;
+		// Wait until the debuggee is done; several of these may run at once, so don't spin
 		try {
-			tracePointsSet = mtt.getTracePoints();
+			mtt.join();
+			List<TracePoint> result = mtt.getAllTracePoints();
+			if (mtt.isStopped()){
+				System.out.println("Tracing stopped early with "+mtt.getTracePoints().size()+" trace points");
+			}
+			return result;
 		} catch (Exception e) {
-			// Since we explicitly wait until the thread has finished, this should never occur.
+			throw new IllegalStateException("Tracing under the debugger failed", e);
+		}
+	}
+	
+	/**
+	 * Traces the main class with the arguments from the constructor and the additional ones, each in a VM of its own and all
+	 * at the same time, and merges the TracePoints.
+	 * @return The merged TracePoints.
+	 */
+	private List<TracePoint> traceClassFileConcurrently(){
+		List<String> argumentSets = new ArrayList<String>();
+		argumentSets.add(_args);
+		argumentSets.addAll(additionalArguments);
+		ExecutorService executor = Executors.newFixedThreadPool(argumentSets.size());
+		List<Future<List<TracePoint>>> futures = new ArrayList<Future<List<TracePoint>>>();
+		for (final String args : argumentSets){
+			futures.add(executor.submit(new Callable<List<TracePoint>>() {
+				@Override
+				public List<TracePoint> call() {
+					return traceClassFile(args);
+				}
+			}));
+		}
+		executor.shutdown();
+		// The runs are collected in the order of their arguments, no matter which one finishes first
+		List<List<TracePoint>> runs = new ArrayList<List<TracePoint>>();
+		try {
+			for (Future<List<TracePoint>> future : futures){
+				runs.add(future.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Tracing with several arguments failed", e);
+		}
+		List<TracePoint> result = TraceMerger.merge(runs, mergePolicy);
+		System.out.println("Merged the trace points of "+runs.size()+" runs into "+result.size());
+		return result;
+	}
+	
+	/**
+	 * Traces the main class with the debugger or the agent, depending on the settings.
+	 * @param args The arguments to the main class' main method.
+	 * @return Every TracePoint that is encountered in the execution of the main class, including duplicates.
+	 */
+	private List<TracePoint> traceClassFile(String args){
+		if (agentTracing){
+			return runClassFileWithAgent(args);
+		}
+		return runClassFile(args);
+	}
+	
+	/**
+	 * Loads the TracePoints from the trace file.
+	 * @return Every TracePoint in the file, including duplicates.
+	 */
+	private List<TracePoint> loadTrace(){
+		try {
+			List<TracePoint> result = TraceFile.read(traceFile, _markMethodName);
+			System.out.println("Loaded "+result.size()+" trace points from "+traceFile);
+			return result;
+		} catch (IOException e) {
+			throw new IllegalStateException("The trace file could not be loaded", e);
+		}
+	}
+	
+	/**
+	 * Saves the TracePoints to the trace file.
+	 * @param allTracePoints Every TracePoint that was found, including duplicates.
+	 */
+	private void saveTrace(List<TracePoint> allTracePoints){
+		try {
+			TraceFile.write(traceFile, _markMethodName, allTracePoints);
+			System.out.println("Saved "+allTracePoints.size()+" trace points to "+traceFile);
+		} catch (IOException e) {
+			throw new IllegalStateException("The trace file could not be saved", e);
+		}
+	}
+	
+	/**
+	 * Scans the class files on the class path for TracePoints with <code>StaticMarkScanner</code>.
+	 * @return The TracePoints that were found, with their indices set.
+	 */
+	private LinkedHashSet<TracePoint> scanClassFiles(){
+		TimeKeeper scanTime = new TimeKeeper("static trace point scan");
+		StaticMarkScanner scanner = new StaticMarkScanner(_classPath, _markMethodName);
+		LinkedHashSet<TracePoint> result;
+		try {
+			result = scanner.scan();
+		} catch (IOException e) {
+			throw new IllegalStateException("The class files could not be scanned", e);
+		}
+		scanTime.stop();
+		System.out.println("Found "+result.size()+" trace points statically, "+scanner.getUnresolvedSites().size()+" mark calls have no literal argument, "
+				+scanner.getLoopSites().size()+" are inside loops");
+		return result;
+	}
+	
+	/**
+	 * Keeps only those traced TracePoints that were found statically as well and enumerates them again.
+	 * @param traced The TracePoints of a traced run in the order in which they were hit.
+	 * @param scanned The TracePoints that were found statically.
+	 * @return The traced TracePoints that are in <code>scanned</code>, in the same order and with their indices set.
+	 */
+	private static List<TracePoint> confirmTracePoints(List<TracePoint> traced, LinkedHashSet<TracePoint> scanned){
+		List<TracePoint> result = new LinkedList<TracePoint>();
+		for (TracePoint trace : traced){
+			if (scanned.contains(trace)){
+				trace.setIndex(result.size());
+				result.add(trace);
+			}
+		}
+		System.out.println((scanned.size() - result.size())+" statically found trace points were not reached or hit more than once");
+		return result;
+	}
+	
+	/**
+	 * Executes the main class with <code>MarkAgent</code> and reads the TracePoints from its log.
+	 * @return Every TracePoint that is encountered in the execution of the main class, including duplicates.
+	 */
+	private List<TracePoint> runClassFileWithAgent(String args){
+		try {
+			TimeKeeper tracingTime = new TimeKeeper("tracing");
+			AgentTraceLauncher launcher = new AgentTraceLauncher(_classPath, _className, args, _markMethodName);
+			List<TracePoint> result = launcher.getAllTracePoints();
+			tracingTime.stop();
+			return result;
+		} catch (IOException | InterruptedException e) {
+			throw new IllegalStateException("Tracing with the agent failed", e);
 		}
-		return new LinkedList<TracePoint>(tracePointsSet);
 	}
 }
@@ -0,0 +1,228 @@
+package embedding;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Collects what the embedding injected into the program, per method: the change in bytecode size, <code>max_stack</code> and
+ * <code>max_locals</code>, the allocations and the comparison chains at each replaced mark call. Methods whose size crosses one of
+ * HotSpot's JIT thresholds through the embedding are flagged.<br>
+ * An instance is handed to <tt>WatermarkCreator.dump</tt> and <tt>Embedder.dump</tt>, in that order, so that the paths at each mark
+ * site can list the allocations of the build method they call. The report is written as JSON.
+ * @author Kaspar
+ *
+ */
+public class ImpactReport {
+	private final List<MethodImpact> hostMethods;
+	private final List<MethodImpact> watermarkMethods;
+	private final HashMap<String,MethodImpact> nameToWatermarkMethod;
+	private String watermarkClassName = null;
+
+	/**
+	 * Creates an empty report.
+	 */
+	public ImpactReport() {
+		hostMethods = new ArrayList<MethodImpact>();
+		watermarkMethods = new ArrayList<MethodImpact>();
+		nameToWatermarkMethod = new HashMap<String,MethodImpact>();
+	}
+
+	/**
+	 * Adds a method of the watermark class.
+	 * @param impact The method's impact, which belongs to the watermark class.
+	 */
+	void addWatermarkMethod(MethodImpact impact){
+		watermarkClassName = impact.className;
+		watermarkMethods.add(impact);
+		// Build methods have no arguments, so their names are unique
+		nameToWatermarkMethod.put(impact.methodName.substring(0, impact.methodName.indexOf('(')), impact);
+	}
+
+	/**
+	 * Adds a method of a marked class.
+	 * @param impact The method's impact.
+	 */
+	void addHostMethod(MethodImpact impact){
+		hostMethods.add(impact);
+	}
+
+	/**
+	 * Returns the number of methods in this report that crossed at least one JIT threshold through the embedding.
+	 * @return The number of flagged methods.
+	 */
+	public int getFlaggedMethods(){
+		int count = 0;
+		for (MethodImpact impact : hostMethods){
+			if (!impact.getCrossedThresholds().isEmpty()){
+				count++;
+			}
+		}
+		for (MethodImpact impact : watermarkMethods){
+			if (!impact.getCrossedThresholds().isEmpty()){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes this report to a file.
+	 * @param fileName The name of the file.
+	 * @throws IOException If the file can not be written.
+	 */
+	public void write(String fileName) throws IOException{
+		Writer out = new FileWriter(fileName);
+		out.write(toString());
+		out.close();
+	}
+
+	/**
+	 * Returns this report as a JSON object.
+	 */
+	@Override
+	public String toString(){
+		StringBuffer buf = new StringBuffer();
+		buf.append("{\n");
+		buf.append("  \"watermarkClass\": ").append(quote(watermarkClassName)).append(",\n");
+		buf.append("  \"jitThresholds\": {");
+		for (int i = 0; i < MethodImpact.JIT_THRESHOLDS.length; i++){
+			buf.append((i == 0) ? " " : ", ");
+			buf.append(quote(MethodImpact.JIT_THRESHOLD_NAMES[i])).append(": ").append(MethodImpact.JIT_THRESHOLDS[i]);
+		}
+		buf.append(" },\n");
+		buf.append("  \"flaggedMethods\": ").append(getFlaggedMethods()).append(",\n");
+		buf.append("  \"watermarkMethods\": [");
+		appendMethods(buf, watermarkMethods);
+		buf.append("],\n");
+		buf.append("  \"hostMethods\": [");
+		appendMethods(buf, hostMethods);
+		buf.append("]\n");
+		buf.append("}\n");
+		return buf.toString();
+	}
+
+	/**
+	 * Appends a list of methods as the elements of a JSON array.
+	 * @param buf The buffer that is appended to.
+	 * @param methods The methods.
+	 */
+	private void appendMethods(StringBuffer buf, List<MethodImpact> methods){
+		boolean isFirst = true;
+		for (MethodImpact impact : methods){
+			buf.append(isFirst ? "\n" : ",\n");
+			isFirst = false;
+			appendMethod(buf, impact);
+		}
+		if (!methods.isEmpty()){
+			buf.append("\n  ");
+		}
+	}
+
+	/**
+	 * Appends a single method as a JSON object.
+	 * @param buf The buffer that is appended to.
+	 * @param impact The method.
+	 */
+	private void appendMethod(StringBuffer buf, MethodImpact impact){
+		buf.append("    {\n");
+		buf.append("      \"class\": ").append(quote(impact.className)).append(",\n");
+		buf.append("      \"method\": ").append(quote(impact.methodName)).append(",\n");
+		buf.append("      \"new\": ").append(impact.isNew).append(",\n");
+		appendBeforeAfter(buf, "codeSize", impact.codeSizeBefore, impact.codeSizeAfter);
+		appendBeforeAfter(buf, "maxStack", impact.maxStackBefore, impact.maxStackAfter);
+		appendBeforeAfter(buf, "maxLocals", impact.maxLocalsBefore, impact.maxLocalsAfter);
+		appendBeforeAfter(buf, "allocationSites", impact.allocationSitesBefore, impact.allocationSitesAfter);
+		if (impact.getMaxAllocations() >= 0){
+			buf.append("      \"allocationsPerCall\": { \"min\": ").append(impact.getMinAllocations());
+			buf.append(", \"max\": ").append(impact.getMaxAllocations()).append(" },\n");
+		}
+		buf.append("      \"crossedJitThresholds\": [");
+		boolean isFirst = true;
+		for (String threshold : impact.getCrossedThresholds()){
+			buf.append(isFirst ? "" : ", ").append(quote(threshold));
+			isFirst = false;
+		}
+		buf.append("],\n");
+		buf.append("      \"markSites\": [");
+		isFirst = true;
+		for (MarkSiteImpact site : impact.markSites){
+			buf.append(isFirst ? "\n" : ",\n");
+			isFirst = false;
+			appendMarkSite(buf, site);
+		}
+		if (!impact.markSites.isEmpty()){
+			buf.append("\n      ");
+		}
+		buf.append("]\n");
+		buf.append("    }");
+	}
+
+	/**
+	 * Appends a single mark site as a JSON object. Each build call at the site is one path, listing the comparisons needed to reach it
+	 * and the allocations of the build method if the watermark class is part of this report.
+	 * @param buf The buffer that is appended to.
+	 * @param site The mark site.
+	 */
+	private void appendMarkSite(StringBuffer buf, MarkSiteImpact site){
+		buf.append("        {\n");
+		buf.append("          \"codeIndex\": ").append(site.codeIndex).append(",\n");
+		buf.append("          \"argument\": ").append(quote(site.argument)).append(",\n");
+		// Every comparison is followed by exactly one conditional branch
+		buf.append("          \"compareDepth\": ").append(site.getCompareDepth()).append(",\n");
+		buf.append("          \"branchDepth\": ").append(site.getCompareDepth()).append(",\n");
+		buf.append("          \"paths\": [");
+		for (int i = 0; i < site.buildIndices.size(); i++){
+			String buildName = "buildG"+site.buildIndices.get(i);
+			buf.append((i == 0) ? "\n" : ",\n");
+			buf.append("            { \"calls\": ").append(quote(buildName));
+			buf.append(", \"compares\": ").append(site.getCompareDepth() == 0 ? 0 : i+1);
+			MethodImpact build = nameToWatermarkMethod.get(buildName);
+			if ((build != null) && (build.getMaxAllocations() >= 0)){
+				buf.append(", \"allocations\": { \"min\": ").append(build.getMinAllocations());
+				buf.append(", \"max\": ").append(build.getMaxAllocations()).append(" }");
+			}
+			buf.append(" }");
+		}
+		if (!site.buildIndices.isEmpty()){
+			buf.append("\n          ");
+		}
+		buf.append("]\n");
+		buf.append("        }");
+	}
+
+	/**
+	 * Appends the values of a property before and after embedding, as well as their difference.
+	 * @param buf The buffer that is appended to.
+	 * @param name The name of the property.
+	 * @param before The value before embedding.
+	 * @param after The value after embedding.
+	 */
+	private static void appendBeforeAfter(StringBuffer buf, String name, int before, int after){
+		buf.append("      ").append(quote(name)).append(": { \"before\": ").append(before);
+		buf.append(", \"after\": ").append(after);
+		buf.append(", \"delta\": ").append(after-before).append(" },\n");
+	}
+
+	/**
+	 * Turns a <code>String</code> into a JSON string literal.
+	 * @param s The <code>String</code>, may be <tt>null</tt>.
+	 * @return The quoted and escaped <code>String</code> or <tt>null</tt>.
+	 */
+	private static String quote(String s){
+		if (s == null){
+			return "null";
+		}
+		StringBuffer buf = new StringBuffer("\"");
+		for (char c : s.toCharArray()){
+			if ((c == '"') || (c == '\\')){
+				buf.append('\\');
+			}
+			buf.append(c);
+		}
+		return buf.append('"').toString();
+	}
+}
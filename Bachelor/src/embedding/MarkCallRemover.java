@@ -0,0 +1,178 @@
+package embedding;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.INVOKESTATIC;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Removes all calls to the mark method(s) that are still left in the classes on a class path after the trace points have been
+ * replaced. Those calls do nothing useful in the watermarked program, but still cost a method call each time they are executed.<br>
+ * If the argument of a mark call is a constant, the instruction pushing it is removed as well. Otherwise, the argument is
+ * popped off the stack instead, so that any side effects of computing it are preserved.
+ * @author Kaspar
+ *
+ */
+class MarkCallRemover {
+	private final String _classPath;
+	private final String _markClassName;
+	private final String _markMethodName;
+	private int removedCalls = 0;
+	private int savedBytes = 0;
+
+	/**
+	 * Creates a new MarkCallRemover.
+	 * @param classPath The path under which all class files are to be stripped of mark calls.
+	 * @param fullMarkMethodName The fully qualified name of the mark method(s), i.e. [packagename].[ClassName].[methodName].
+	 */
+	MarkCallRemover(String classPath, String fullMarkMethodName) {
+		_classPath = classPath;
+		int i = fullMarkMethodName.lastIndexOf('.');
+		_markClassName = fullMarkMethodName.substring(0, i);
+		_markMethodName = fullMarkMethodName.substring(i+1, fullMarkMethodName.length());
+	}
+
+	/**
+	 * Goes through all class files on the class path and overwrites those that contain calls to the mark method with versions that do not.
+	 * @throws IOException If a modified class file can not be saved.
+	 */
+	void run() throws IOException{
+		List<File> classFiles = new ArrayList<File>();
+		Tools.collectClassFiles(new File(_classPath), classFiles);
+		for (File file : classFiles){
+			JavaClass clazz;
+			try {
+				clazz = new ClassParser(file.getPath()).parse();
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			byte[] bytecode = stripClass(clazz);
+			if (bytecode == null){
+				continue;
+			}
+			OutputStream out = new FileOutputStream(file);
+			out.write(bytecode);
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of mark calls that have been removed.
+	 * @return The number of removed call sites.
+	 */
+	int getRemovedCalls(){
+		return removedCalls;
+	}
+
+	/**
+	 * Returns the number of bytes by which the code of all methods shrank.
+	 * @return The number of saved bytecode bytes.
+	 */
+	int getSavedBytes(){
+		return savedBytes;
+	}
+
+	/**
+	 * Removes the mark calls from every method of a class.
+	 * @param clazz The class.
+	 * @return The new bytecode of the class or <tt>null</tt> if the class did not contain any mark calls.
+	 */
+	private byte[] stripClass(JavaClass clazz){
+		ClassGen cg = new ClassGen(clazz);
+		ConstantPoolGen cp = cg.getConstantPool();
+		boolean changed = false;
+		for (Method method : clazz.getMethods()){
+			if (method.getCode() == null){
+				continue;
+			}
+			MethodGen mg = new MethodGen(method, clazz.getClassName(), cp);
+			int oldLength = method.getCode().getCode().length;
+			if (stripMethod(mg.getInstructionList(), cp) == 0){
+				mg.getInstructionList().dispose();
+				continue;
+			}
+			mg.removeNOPs();
+			mg.setMaxStack();
+			mg.setMaxLocals();
+			Method newMethod = mg.getMethod();
+			savedBytes += oldLength - newMethod.getCode().getCode().length;
+			cg.replaceMethod(method, newMethod);
+			mg.getInstructionList().dispose();
+			changed = true;
+		}
+		if (!changed){
+			return null;
+		}
+		return Tools.recomputeFrames(cg.getJavaClass().getBytes());
+	}
+
+	/**
+	 * Replaces all mark calls in an instruction list with NOPs or POPs. The NOPs still need to be removed afterwards.
+	 * @param il The instruction list of a method.
+	 * @param cp The constant pool of the class containing the method.
+	 * @return The number of mark calls that were found.
+	 */
+	private int stripMethod(InstructionList il, ConstantPoolGen cp){
+		int count = 0;
+		for (InstructionHandle handle : il.getInstructionHandles()){
+			Instruction ins = handle.getInstruction();
+			if (!(ins instanceof INVOKESTATIC)){
+				continue;
+			}
+			INVOKESTATIC invoke = (INVOKESTATIC) ins;
+			if (!Tools.isMarkCall(invoke, cp, _markClassName, _markMethodName)){
+				continue;
+			}
+			Type[] argTypes = invoke.getArgumentTypes(cp);
+			// Mark methods have no return value and at most one argument; anything else is left alone
+			if ((invoke.getReturnType(cp) != Type.VOID) || (argTypes.length > 1)){
+				continue;
+			}
+			if (argTypes.length == 0){
+				handle.setInstruction(InstructionConstants.NOP);
+			} else {
+				InstructionHandle prev = handle.getPrev();
+				if ((prev != null) && isConstantPush(prev.getInstruction()) && !Tools.isBranchTarget(handle)){
+					// The argument is a constant that is only pushed for the mark call, so it can go as well
+					prev.setInstruction(InstructionConstants.NOP);
+					handle.setInstruction(InstructionConstants.NOP);
+				} else if (argTypes[0].getSize() == 2){
+					handle.setInstruction(InstructionConstants.POP2);
+				} else {
+					handle.setInstruction(InstructionConstants.POP);
+				}
+			}
+			count++;
+		}
+		removedCalls += count;
+		return count;
+	}
+
+	/**
+	 * Checks whether an instruction simply pushes a constant on the stack without any side effects.
+	 * @param ins The instruction.
+	 * @return <tt>true</tt> if <code>ins</code> pushes a constant, <tt>false</tt> otherwise.
+	 */
+	private static boolean isConstantPush(Instruction ins){
+		return (ins instanceof ConstantPushInstruction) || (ins instanceof LDC) || (ins.getOpcode() == Constants.ACONST_NULL);
+	}
+}
@@ -0,0 +1,44 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the code that replaced a single mark call, i.e. the chain of comparisons and build calls at one code location.
+ * The i-th build method in the chain is only reached after i+1 comparisons; if the argument matches none of them, all comparisons
+ * are done and nothing is built.
+ * @author Kaspar
+ *
+ */
+class MarkSiteImpact {
+	public static final String ARGUMENT_NONE = "none";
+	public static final String ARGUMENT_INT = "int";
+	public static final String ARGUMENT_STRING = "String";
+
+	public final long codeIndex;
+	public final String argument;
+	public final List<Integer> buildIndices;
+
+	/**
+	 * Creates a new MarkSiteImpact without any build calls.
+	 * @param codeIndex The code index of the mark call in the original method.
+	 * @param argument One of <code>ARGUMENT_NONE</code>, <code>ARGUMENT_INT</code> and <code>ARGUMENT_STRING</code>.
+	 */
+	MarkSiteImpact(long codeIndex, String argument) {
+		this.codeIndex = codeIndex;
+		this.argument = argument;
+		buildIndices = new ArrayList<Integer>();
+	}
+
+	/**
+	 * Returns the number of comparisons that are done if the argument matches none of the trace points. For a mark call
+	 * without argument, this is 0; otherwise, it is one per build call. Each comparison is followed by a conditional branch.
+	 * @return The maximum number of comparisons at this site.
+	 */
+	int getCompareDepth(){
+		if (argument.equals(ARGUMENT_NONE)){
+			return 0;
+		}
+		return buildIndices.size();
+	}
+}
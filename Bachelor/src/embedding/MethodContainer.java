@@ -22,10 +22,6 @@ import org.apache.bcel.generic.TargetLostException;
 import org.apache.bcel.generic.Type;
 import org.apache.bcel.generic.PUSH;
 
-import com.sun.jdi.IntegerValue;
-import com.sun.jdi.Location;
-import com.sun.jdi.StringReference;
-
 import tracing.*;
 
 /**
@@ -36,7 +32,7 @@ import tracing.*;
 class MethodContainer extends MethodGen  implements Constants{
 	private static final long serialVersionUID = 1L;
 	private String _watermarkClassName;
-	private HashMap<Location,Set<TracePoint>> locToTracePoint;
+	private HashMap<Long,Set<TracePoint>> locToTracePoint;
 	private InstructionFactory _factory;
 	private Method method;
 	private ConstantPoolGen _cp;
@@ -54,7 +50,7 @@ class MethodContainer extends MethodGen  implements Constants{
 		_watermarkClassName = watermarkClassName;
 		this.method = method;
 		this._cp = constantPool;
-		locToTracePoint = new HashMap<Location,Set<TracePoint>>();
+		locToTracePoint = new HashMap<Long,Set<TracePoint>>();
 		this._factory = factory;
 	}
 	
@@ -63,7 +59,8 @@ class MethodContainer extends MethodGen  implements Constants{
 	 * @param trace A trace point with its index correctly set.
 	 */
 	public void addTracePoint(TracePoint trace){
-		Location loc = trace.getLoc();
+		// All trace points in here are in the same method, so the code index identifies the location
+		Long loc = trace.getCodeIndex();
 		Set<TracePoint> traceSet = locToTracePoint.get(loc);
 		if (traceSet == null){
 			traceSet = new HashSet<TracePoint>();
@@ -78,24 +75,52 @@ class MethodContainer extends MethodGen  implements Constants{
 	public void processTracePoints(){
 		InstructionList il = this.getInstructionList();
 		il.setPositions(true);
-		List<Location> locations = new ArrayList<Location>(locToTracePoint.keySet());
+		List<Long> locations = new ArrayList<Long>(locToTracePoint.keySet());
 		// Go through the Locations in reverse order, so that the saved code indices are still correct
 		Collections.sort(locations, Collections.reverseOrder());
-		for (Location loc : locations){
+		for (Long loc : locations){
 			insertBuildCalls(loc);
 		}
 		il.setPositions(true);
 	}
 	
+	/**
+	 * Describes the code that replaces the mark calls in this method, one <code>MarkSiteImpact</code> per code location. The build calls
+	 * of each site are listed in the order in which <tt>processTracePoints()</tt> chains them.
+	 * @return The mark sites, sorted by code index.
+	 */
+	public List<MarkSiteImpact> getMarkSites(){
+		List<Long> locations = new ArrayList<Long>(locToTracePoint.keySet());
+		Collections.sort(locations);
+		List<MarkSiteImpact> result = new ArrayList<MarkSiteImpact>();
+		for (Long loc : locations){
+			Set<TracePoint> traceSet = locToTracePoint.get(loc);
+			// All trace points at one location call the same mark method, so the first one determines the argument
+			TracePoint first = traceSet.iterator().next();
+			String argument = MarkSiteImpact.ARGUMENT_NONE;
+			if (first instanceof IntTracePoint){
+				argument = MarkSiteImpact.ARGUMENT_INT;
+			} else if (first instanceof StringTracePoint){
+				argument = MarkSiteImpact.ARGUMENT_STRING;
+			}
+			MarkSiteImpact site = new MarkSiteImpact(loc, argument);
+			for (TracePoint trace : traceSet){
+				site.buildIndices.add(trace.getIndex());
+			}
+			result.add(site);
+		}
+		return result;
+	}
+
 	/**
 	 * Inserts calls to graph-building methods at a specified location.
-	 * @param loc A location in this method.
+	 * @param loc The code index of a location in this method.
 	 */
-	private void insertBuildCalls(Location loc){
+	private void insertBuildCalls(Long loc){
 		InstructionList il = this.getInstructionList();
 		Set<TracePoint> traceSet = locToTracePoint.get(loc);
 		//il.setPositions(true);
-		InstructionHandle markHandle = il.findHandle((int) loc.codeIndex());		
+		InstructionHandle markHandle = il.findHandle(loc.intValue());		
 		boolean isFirst = true;
 		InstructionHandle veryFirstHandle = null;
 		ListBranchTuple currentList;
@@ -175,13 +200,11 @@ class MethodContainer extends MethodGen  implements Constants{
 			// Duplicate so that the argument can be used again by the next if-query.
 			il.append(InstructionConstants.DUP);
 			if (trace instanceof IntTracePoint){
-				IntegerValue val = (IntegerValue) trace.getVal();
-				int arg = val.value();
+				int arg = ((IntTracePoint) trace).getValue();
 				il.append(new PUSH(_cp,arg));
 				ifArgEquals = InstructionFactory.createBranchInstruction(Constants.IF_ICMPNE, null);				
 			} else if (trace instanceof StringTracePoint){
-				StringReference val = (StringReference) trace.getVal();
-				String arg = val.value();
+				String arg = ((StringTracePoint) trace).getValue();
 				il.append(new PUSH(_cp,arg));
 				il.append(_factory.createInvoke("java.lang.String", "equals", Type.BOOLEAN, new Type[] { Type.OBJECT }, Constants.INVOKEVIRTUAL));
 				ifArgEquals = InstructionFactory.createBranchInstruction(Constants.IFEQ, null);
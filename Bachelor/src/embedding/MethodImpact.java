@@ -0,0 +1,123 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.AllocationInstruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+
+/**
+ * Describes how a single method changed through embedding, either a method of a marked class into which build calls were inserted or
+ * a method of the watermark class that did not exist before.
+ * @author Kaspar
+ *
+ */
+class MethodImpact {
+	// HotSpot's default limits in bytes of bytecode
+	public static final String[] JIT_THRESHOLD_NAMES = new String[] { "MaxInlineSize", "FreqInlineSize", "HugeMethodLimit" };
+	public static final int[] JIT_THRESHOLDS = new int[] { 35, 325, 8000 };
+
+	public final String className;
+	public final String methodName;
+	public final boolean isNew;
+	public final int codeSizeBefore;
+	public final int codeSizeAfter;
+	public final int maxStackBefore;
+	public final int maxStackAfter;
+	public final int maxLocalsBefore;
+	public final int maxLocalsAfter;
+	public final int allocationSitesBefore;
+	public final int allocationSitesAfter;
+	public final List<MarkSiteImpact> markSites;
+	// The fewest and most objects that a single call allocates, if known
+	private int minAllocations = -1;
+	private int maxAllocations = -1;
+
+	/**
+	 * Creates a new MethodImpact.
+	 * @param className The fully qualified name of the class containing the method.
+	 * @param before The method before embedding or <tt>null</tt> if it was created by the embedding.
+	 * @param after The method after embedding.
+	 */
+	MethodImpact(String className, Method before, Method after) {
+		this.className = className;
+		methodName = after.getName()+after.getSignature();
+		isNew = (before == null);
+		Code codeBefore = (before == null) ? null : before.getCode();
+		Code codeAfter = after.getCode();
+		codeSizeBefore = (codeBefore == null) ? 0 : codeBefore.getCode().length;
+		codeSizeAfter = (codeAfter == null) ? 0 : codeAfter.getCode().length;
+		maxStackBefore = (codeBefore == null) ? 0 : codeBefore.getMaxStack();
+		maxStackAfter = (codeAfter == null) ? 0 : codeAfter.getMaxStack();
+		maxLocalsBefore = (codeBefore == null) ? 0 : codeBefore.getMaxLocals();
+		maxLocalsAfter = (codeAfter == null) ? 0 : codeAfter.getMaxLocals();
+		allocationSitesBefore = countAllocationSites(codeBefore);
+		allocationSitesAfter = countAllocationSites(codeAfter);
+		markSites = new ArrayList<MarkSiteImpact>();
+	}
+
+	/**
+	 * Sets how many objects a single call of this method allocates at least and at most, depending on the path taken.
+	 * @param min The fewest allocations of any path through the method.
+	 * @param max The most allocations of any path through the method.
+	 */
+	void setAllocations(int min, int max){
+		minAllocations = min;
+		maxAllocations = max;
+	}
+
+	/**
+	 * Returns the fewest objects that a single call of this method allocates.
+	 * @return The fewest allocations or -1 if unknown.
+	 */
+	int getMinAllocations(){
+		return minAllocations;
+	}
+
+	/**
+	 * Returns the most objects that a single call of this method allocates.
+	 * @return The most allocations or -1 if unknown.
+	 */
+	int getMaxAllocations(){
+		return maxAllocations;
+	}
+
+	/**
+	 * Returns the names of the JIT thresholds that the code size of this method crossed through embedding. A method that crosses
+	 * <tt>MaxInlineSize</tt> or <tt>FreqInlineSize</tt> may no longer be inlined into its callers, and one that crosses
+	 * <tt>HugeMethodLimit</tt> is not compiled at all.
+	 * @return The names of the crossed thresholds, possibly empty.
+	 */
+	List<String> getCrossedThresholds(){
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < JIT_THRESHOLDS.length; i++){
+			if ((codeSizeBefore <= JIT_THRESHOLDS[i]) && (codeSizeAfter > JIT_THRESHOLDS[i])){
+				result.add(JIT_THRESHOLD_NAMES[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the instructions that allocate an object or array.
+	 * @param code The code of a method, may be <tt>null</tt>.
+	 * @return The number of allocating instructions in <code>code</code>.
+	 */
+	private static int countAllocationSites(Code code){
+		if (code == null){
+			return 0;
+		}
+		InstructionList il = new InstructionList(code.getCode());
+		int count = 0;
+		for (InstructionHandle handle : il.getInstructionHandles()){
+			if (handle.getInstruction() instanceof AllocationInstruction){
+				count++;
+			}
+		}
+		il.dispose();
+		return count;
+	}
+}
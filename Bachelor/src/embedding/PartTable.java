@@ -0,0 +1,128 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes one subgraph of a table-driven watermark class, i.e. which nodes a build method needs, which edges it creates and which
+ * nodes it stores in <code>array</code> afterwards. It is packed into a <code>String</code> constant that the build method hands to
+ * the shared <code>build</code> method of the watermark class which then interprets it.<br>
+ * <br>
+ * Every node of the subgraph has a slot. A slot code of 0 means that a new node is created, any other code <tt>c</tt> means that the node is
+ * loaded from <code>array[c-1]</code> if it is there. An edge is a triple of source slot, target slot and field. A store is a pair of an
+ * index in <code>array</code> and a slot plus 1, with 0 meaning <tt>null</tt>. Each of these numbers is a single <code>char</code> of
+ * the packed <code>String</code>, and each of the three sections is preceded by its length.
+ * @author Kaspar
+ *
+ */
+class PartTable {
+	public static final int FIELD_NONE = 0;
+	public static final int FIELD_E1 = 1;
+	public static final int FIELD_E2 = 2;
+
+	private final List<Integer> slots;
+	private final List<int[]> edges;
+	private final List<int[]> stores;
+	private int rootSlot = -1;
+
+	/**
+	 * Creates an empty table.
+	 */
+	PartTable() {
+		slots = new ArrayList<Integer>();
+		edges = new ArrayList<int[]>();
+		stores = new ArrayList<int[]>();
+	}
+
+	/**
+	 * Adds a new slot.
+	 * @param code 0 if a new node is to be created, the index in <code>array</code> plus 1 if the node should be loaded from there.
+	 */
+	void addSlot(int code){
+		slots.add(code);
+	}
+
+	/**
+	 * Adds a new edge.
+	 * @param sourceSlot The slot of the source node.
+	 * @param targetSlot The slot of the target node.
+	 * @param field One of <code>FIELD_E1</code> and <code>FIELD_E2</code>.
+	 * @return The entry for this edge. Its third element is the field and may be changed until the table is packed.
+	 */
+	int[] addEdge(int sourceSlot, int targetSlot, int field){
+		int[] edge = new int[] {sourceSlot, targetSlot, field};
+		edges.add(edge);
+		return edge;
+	}
+
+	/**
+	 * Adds a new store to <code>array</code>.
+	 * @param arrayIndex The index in <code>array</code>.
+	 * @param slot The slot of the node to be stored or -1 if the entry is to be set to <tt>null</tt>.
+	 */
+	void addStore(int arrayIndex, int slot){
+		stores.add(new int[] {arrayIndex, slot+1});
+	}
+
+	/**
+	 * Sets the slot of the node that is to be stored in <code>root</code>.
+	 * @param slot The slot.
+	 */
+	void setRootSlot(int slot){
+		rootSlot = slot;
+	}
+
+	/**
+	 * Returns the slot of the node that is to be stored in <code>root</code>.
+	 * @return The slot or -1 if there is no such node.
+	 */
+	int getRootSlot(){
+		return rootSlot;
+	}
+
+	/**
+	 * Returns the entries of all edges in the order in which they were added.
+	 * @return The edge entries.
+	 */
+	List<int[]> getEdges(){
+		return edges;
+	}
+
+	/**
+	 * Packs this table into a <code>String</code> of the format described above.
+	 * @return The packed table.
+	 */
+	String pack(){
+		return pack(Collections.<int[],Integer>emptyMap());
+	}
+
+	/**
+	 * Packs this table into a <code>String</code> of the format described above, but with the fields of some edges replaced. The table
+	 * itself is not changed, so that several versions of it can be packed at the same time.
+	 * @param changedFields Maps edge entries of this table to the field that is to be packed instead of their own. It should compare keys by identity.
+	 * @return The packed table.
+	 */
+	String pack(Map<int[],Integer> changedFields){
+		StringBuffer buf = new StringBuffer();
+		buf.append((char) slots.size());
+		for (Integer code : slots){
+			buf.append((char) code.intValue());
+		}
+		buf.append((char) edges.size());
+		for (int[] edge : edges){
+			Integer field = changedFields.get(edge);
+			buf.append((char) edge[0]);
+			buf.append((char) edge[1]);
+			buf.append((char) ((field == null) ? edge[2] : field.intValue()));
+		}
+		buf.append((char) stores.size());
+		for (int[] store : stores){
+			for (int value : store){
+				buf.append((char) value);
+			}
+		}
+		return buf.toString();
+	}
+}
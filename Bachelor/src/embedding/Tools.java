@@ -1,18 +1,34 @@
 package embedding;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.bcel.classfile.ClassParser;
 import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionTargeter;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.ObjectType;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 
 import tracing.TracePoint;
 
-import com.sun.jdi.Location;
 import com.sun.jdi.Method;
 import com.sun.jdi.ReferenceType;
 
@@ -81,6 +97,61 @@ public class Tools {
 		return (className+"."+name+":"+sig);
 	}
 	
+	/**
+	 * Checks if an instruction calls the mark method. Only the name of the method is compared, not its signature.
+	 * @param invoke The instruction.
+	 * @param cp The constant pool of the class containing the instruction.
+	 * @param markClassName The fully qualified name of the class containing the mark method.
+	 * @param markMethodName The name of the mark method.
+	 * @return <tt>true</tt> if <code>invoke</code> calls <code>markClassName.markMethodName</code>, <tt>false</tt> otherwise.
+	 */
+	public static boolean isMarkCall(InvokeInstruction invoke, ConstantPoolGen cp, String markClassName, String markMethodName){
+		org.apache.bcel.generic.ReferenceType type = invoke.getReferenceType(cp);
+		if (!(type instanceof ObjectType)){
+			return false;
+		}
+		return ((ObjectType) type).getClassName().equals(markClassName) && invoke.getMethodName(cp).equals(markMethodName);
+	}
+	
+	/**
+	 * Checks whether any jump leads directly to the specified instruction. If one does, the value on the stack may have been
+	 * pushed on another path.
+	 * @param handle The instruction handle.
+	 * @return <tt>true</tt> if <code>handle</code> is the target of a branch instruction, <tt>false</tt> otherwise.
+	 */
+	public static boolean isBranchTarget(InstructionHandle handle){
+		InstructionTargeter[] targeters = handle.getTargeters();
+		if (targeters == null){
+			return false;
+		}
+		for (InstructionTargeter targeter : targeters){
+			if (targeter instanceof BranchInstruction){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Recursively collects all .class files in a directory, sorted by their paths, so that they are always visited in the same order.
+	 * @param folder The directory to search.
+	 * @param result The list that all found files are added to.
+	 */
+	public static void collectClassFiles(File folder, List<File> result){
+		File[] files = folder.listFiles();
+		if (files == null){
+			return;
+		}
+		Arrays.sort(files);
+		for (File file : files){
+			if (file.isDirectory()){
+				collectClassFiles(file, result);
+			} else if (file.getName().endsWith(".class")){
+				result.add(file);
+			}
+		}
+	}
+	
 	/**
 	 * Splits nodes of a graph with a specified Hamilton Path into several lists. These sublists are as close to
 	 * each other in terms of size as possible.
@@ -134,6 +205,153 @@ public class Tools {
 		return result;
 	}
 	
+	/**
+	 * Splits nodes of a graph with a specified Hamilton Path into several lists, so that the estimated bytecode size of the build method
+	 * for each list stays within a budget. This way, the build methods can be kept below the JIT's inlining thresholds, e.g. HotSpot's
+	 * <tt>FreqInlineSize</tt> of 325 bytes, so that they do not make the methods they are called from more expensive.<br>
+	 * If the budget can not be met with at most <code>maxParts</code> lists, the budget is raised until it can be.
+	 * Note that this may well return fewer lists than <code>maxParts</code>, since fewer build methods also mean fewer calls.
+	 * @param hamiltonPath The Hamilton Path through a graph where all nodes are Integers.
+	 * @param graph The graph itself.
+	 * @param maxParts The maximum number of lists, usually the number of available trace points. If this is larger than the size of the
+	 *   Hamilton Path, it will be set to (hamiltonPath.size() - 1).
+	 * @param budget The maximum estimated size of each build method in bytes.
+	 * @return A list of lists of nodes in the same format as returned by <code>splitNodes</code>.
+	 */
+	static List<List<Integer>> splitNodesByBudget(List<Integer> hamiltonPath, DirectedGraph<Integer,DefaultEdge> graph, int maxParts, int budget){
+		int length = hamiltonPath.size();
+		if (maxParts >= length){
+			maxParts = length - 1;
+		}
+		List<List<Integer>> result = greedySplit(hamiltonPath, graph, budget);
+		if (result.size() <= maxParts){
+			return result;
+		}
+		// A single list always fits into the estimated size of all nodes, so search for the smallest budget between that and the given one
+		int lower = budget;
+		int upper = estimateBuildSize(new ArrayList<Integer>(hamiltonPath), true, graph);
+		result = greedySplit(hamiltonPath, graph, upper);
+		while (lower < upper){
+			int middle = lower + (upper - lower) / 2;
+			List<List<Integer>> candidate = greedySplit(hamiltonPath, graph, middle);
+			if (candidate.size() <= maxParts){
+				upper = middle;
+				result = candidate;
+			} else {
+				lower = middle + 1;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Splits the Hamilton Path, starting at its end, into as few lists as possible so that each list's estimated build method size is
+	 * within <code>budget</code>. A single node that exceeds the budget on its own gets its own list.
+	 * @param hamiltonPath The Hamilton Path through a graph where all nodes are Integers.
+	 * @param graph The graph itself.
+	 * @param budget The maximum estimated size of each build method in bytes.
+	 * @return A list of lists of nodes in the same format as returned by <code>splitNodes</code>.
+	 */
+	private static List<List<Integer>> greedySplit(List<Integer> hamiltonPath, DirectedGraph<Integer,DefaultEdge> graph, int budget){
+		List<List<Integer>> result = new ArrayList<List<Integer>>();
+		List<Integer> list = new ArrayList<Integer>();
+		for (int index = hamiltonPath.size()-1; index >= 0; index--){
+			Integer node = hamiltonPath.get(index);
+			// Each list is in ascending order of index in hamiltonPath, so the new node goes in front
+			list.add(0, node);
+			if ((list.size() > 1) && (estimateBuildSize(list, result.isEmpty(), graph) > budget)){
+				list.remove(0);
+				result.add(list);
+				list = new ArrayList<Integer>();
+				list.add(node);
+			}
+		}
+		result.add(list);
+		return result;
+	}
+	
+	/**
+	 * Estimates the size in bytes of the code that <code>WatermarkCreator.createBuildGi</code> creates for a list of nodes. This follows the
+	 * unrolled, not thread-safe version of that code and takes the varying lengths of local variable and constant instructions into account.
+	 * @param nodes The nodes of the subgraph, in ascending order of index in the Hamilton path.
+	 * @param isG0 <tt>true</tt> if this is the first subgraph which does not need to load a node of the previous one.
+	 * @param graph The graph.
+	 * @return The estimated size of the build method in bytes.
+	 */
+	static int estimateBuildSize(List<Integer> nodes, boolean isG0, DirectedGraph<Integer,DefaultEdge> graph){
+		int n = graph.vertexSet().size();
+		Set<Integer> inPart = new HashSet<Integer>(nodes);
+		Set<Integer> loaded = new HashSet<Integer>();
+		// check if array is null: GETSTATIC, IFNONNULL, push, ANEWARRAY, PUTSTATIC; and RETURN at the end
+		int size = 12 + pushSize(n-1) + 1;
+		int localVar = 0;
+		if (!isG0){
+			loaded.add(nodes.get(nodes.size()-1)-1);
+		}
+		int edges = nodes.size() - 1 + (isG0 ? 0 : 1);
+		for (Integer vertex : nodes){
+			for (DefaultEdge e : graph.incomingEdgesOf(vertex)){
+				Integer inNeighbor = graph.getEdgeSource(e);
+				if (inNeighbor < vertex){
+					edges++;
+					if (!inPart.contains(inNeighbor)){
+						loaded.add(inNeighbor);
+					}
+				}
+			}
+		}
+		// the loaded vertices are n = (array[j] == null) ? new Watermark() : array[j]
+		for (Integer vertex : loaded){
+			size += 21 + 2 * pushSize(vertex) + localVarSize(localVar);
+			localVar++;
+		}
+		// the new nodes are NEW, DUP, INVOKESPECIAL, ASTORE
+		for (int j = 0; j < nodes.size(); j++){
+			size += 7 + localVarSize(localVar);
+			localVar++;
+		}
+		// an edge is ALOAD, ALOAD, PUTFIELD; the local variables are roughly evenly spread
+		size += edges * (3 + 2 * localVarSize(localVar / 2));
+		// the store back is GETSTATIC, push, ALOAD or ACONST_NULL, AASTORE
+		for (Integer vertex : inPart){
+			if (vertex >= 0){
+				size += 4 + pushSize(vertex) + localVarSize(localVar / 2);
+			}
+		}
+		for (Integer vertex : loaded){
+			size += 4 + pushSize(vertex) + localVarSize(localVar / 2);
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the size of an instruction that pushes an <code>int</code> constant.
+	 * @param value The constant.
+	 * @return The size in bytes of ICONST, BIPUSH or SIPUSH, whichever is used.
+	 */
+	private static int pushSize(int value){
+		if ((value >= -1) && (value <= 5)){
+			return 1;
+		} else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)){
+			return 2;
+		}
+		return 3;
+	}
+	
+	/**
+	 * Returns the size of an instruction that loads or stores a local variable.
+	 * @param index The index of the local variable.
+	 * @return The size in bytes of the instruction, including a possible WIDE prefix.
+	 */
+	private static int localVarSize(int index){
+		if (index < 4){
+			return 1;
+		} else if (index < 256){
+			return 2;
+		}
+		return 4;
+	}
+	
 	/**
 	 * Generates a <code>String</code> representation of a list of lists. 
 	 * @param list The list of lists that is to be turned into a <code>String</code>.
@@ -171,7 +389,7 @@ public class Tools {
 		JavaClass clazz = null;
 		String sig;
 		for (TracePoint trace : tracePoints){
-			sig = methodSig(trace.getLoc());
+			sig = trace.getMethodSig();
 			int i = sig.indexOf('.');
 			sig = sig.substring(0, i+1)+"class";
 			clazz = foundClasses.get(sig);
@@ -192,26 +410,31 @@ public class Tools {
 	}
 
 	/**
-	 * Maps the locations found in a <code>List</code> of <code>TracePoint</code>s to a <code>List</code> of <code>TracePoint</code>s
-	 * at that <code>Location</code>.
-	 * @param tracePoints Any old <code>List</code> of <code>TracePoint</code>s.
-	 * @return A <code>HashMap</code> that maps each <code>Location</code> found in one of the <code>TracePoint</code>s
-	 *   in <code>tracePoints</code> to a <code>List</code> of <code>TracePoint</code>s at that <code>Location</code>.
-	 *   The order of appearance of each <code>Location</code> in <code>tracePoints</code> is preserved in the sublists.
-	 */
-	static HashMap<Location,List<TracePoint>> getLocToTracePoints(List<TracePoint> tracePoints){
-		HashMap<Location,List<TracePoint>> result = new HashMap<Location,List<TracePoint>>();
-		Location loc;
-		List<TracePoint> list;
-		for (TracePoint tracePoint : tracePoints){
-			loc = tracePoint.getLoc();
-			list = result.get(loc);
-			if (list == null){
-				list = new ArrayList<TracePoint>();
-				result.put(loc, list);
-			}
-			list.add(tracePoint);
+	 * Runs the bytecode of a class through ASM to recompute all stack map frames. BCEL does not update those when instructions
+	 * are inserted or removed, so this needs to happen before a modified class is saved. Any old frames are discarded.
+	 * @param bytecode The bytecode of a class.
+	 * @return The bytecode of the same class with correct stack map frames.
+	 */
+	static byte[] recomputeFrames(byte[] bytecode){
+		ClassReader cr = new ClassReader(bytecode);
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		cr.accept(cw, ClassReader.SKIP_FRAMES);
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Saves classes to the folders corresponding to their packages below a class path, creating those folders if necessary.
+	 * @param classPath The path under which the classes are saved.
+	 * @param classes Maps the internal name of each class, e.g. <tt>example/Watermark</tt>, to its bytecode.
+	 * @throws IOException If a class can not be saved.
+	 */
+	public static void writeClasses(String classPath, Map<String,byte[]> classes) throws IOException{
+		for (String internalName : classes.keySet()){
+			File file = new File(classPath+File.separator+internalName.replace('/', File.separatorChar)+".class");
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			out.write(classes.get(internalName));
+			out.close();
 		}
-		return result;
 	}
 }
@@ -0,0 +1,346 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.MethodGen;
+
+/**
+ * Generates attacked versions of a watermark class, i.e. versions with some edges flipped or deleted, without creating the class anew
+ * for each of them. An instance is obtained from <tt>WatermarkCreator.createVariantGenerator()</tt>, which creates the unattacked class once.
+ * Each variant shares everything with that class apart from the build methods that its attack touches; only those are copied, changed and
+ * finished again. The unattacked class is never changed, so variants can be generated by several threads at once.
+ * @author Kaspar
+ *
+ */
+public class VariantGenerator {
+	private final String _className;
+	private final JavaClass _base;
+	// The index of buildG0 in the methods of _base; the other build methods follow in order
+	private final int _buildMethodOffset;
+
+	// For unrolled build methods: a copy of each build method before it was finished, and for each edge the build method and the
+	// positions of its three instructions in there
+	private final List<MethodGen> _templates;
+	private final List<int[]> _listEdgeRefs;
+	private final List<int[]> _treeEdgeRefs;
+
+	// For table-driven build methods: the table of each build method, its packed version and the entry of each edge
+	private final List<PartTable> _tables;
+	private final List<String> _packedTables;
+	private final List<int[]> _listEdgeEntries;
+	private final List<int[]> _treeEdgeEntries;
+	private final Map<int[],Integer> _entryToPart;
+	// Classes that belong to the watermark, but are the same for every variant
+	private final Map<String,byte[]> _unchangedClasses;
+
+	/**
+	 * Creates a new VariantGenerator. Only one of the two groups of lists may be non-<tt>null</tt>.
+	 */
+	private VariantGenerator(String className, JavaClass base, int buildMethodOffset, List<MethodGen> templates, List<int[]> listEdgeRefs,
+			List<int[]> treeEdgeRefs, List<PartTable> tables, List<int[]> listEdgeEntries, List<int[]> treeEdgeEntries) {
+		_className = className;
+		_base = base;
+		_buildMethodOffset = buildMethodOffset;
+		_templates = templates;
+		_listEdgeRefs = listEdgeRefs;
+		_treeEdgeRefs = treeEdgeRefs;
+		_tables = tables;
+		_listEdgeEntries = listEdgeEntries;
+		_treeEdgeEntries = treeEdgeEntries;
+		_packedTables = new ArrayList<String>();
+		_entryToPart = new IdentityHashMap<int[],Integer>();
+		_unchangedClasses = new LinkedHashMap<String,byte[]>();
+		if (tables != null){
+			for (int i = 0; i < tables.size(); i++){
+				_packedTables.add(tables.get(i).pack());
+				for (int[] entry : tables.get(i).getEdges()){
+					_entryToPart.put(entry, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a VariantGenerator for a class with unrolled build methods.
+	 * @param className The fully qualified name of the watermark class.
+	 * @param base The unattacked class.
+	 * @param buildMethodOffset The index of <tt>buildG0</tt> in the methods of <code>base</code>.
+	 * @param templates The build methods before NOPs were removed and the stack size was set. They are not changed, but copied.
+	 * @param listEdgeRefs For each vertex, the index of the build method that creates its list edge, followed by the positions of the three
+	 * instructions of that edge in the template, or <tt>null</tt> if there is no such edge.
+	 * @param treeEdgeRefs The same for tree edges.
+	 * @return The new VariantGenerator.
+	 */
+	static VariantGenerator forUnrolled(String className, JavaClass base, int buildMethodOffset, List<MethodGen> templates,
+			List<int[]> listEdgeRefs, List<int[]> treeEdgeRefs){
+		return new VariantGenerator(className, base, buildMethodOffset, templates, listEdgeRefs, treeEdgeRefs, null, null, null);
+	}
+
+	/**
+	 * Creates a VariantGenerator for a class with table-driven build methods.
+	 * @param className The fully qualified name of the watermark class.
+	 * @param base The unattacked class.
+	 * @param buildMethodOffset The index of <tt>buildG0</tt> in the methods of <code>base</code>.
+	 * @param tables The table of each build method. They are not changed.
+	 * @param listEdgeEntries For each vertex, the entry of its list edge in one of the tables or <tt>null</tt> if there is no such edge.
+	 * @param treeEdgeEntries The same for tree edges.
+	 * @return The new VariantGenerator.
+	 */
+	static VariantGenerator forTables(String className, JavaClass base, int buildMethodOffset, List<PartTable> tables,
+			List<int[]> listEdgeEntries, List<int[]> treeEdgeEntries){
+		return new VariantGenerator(className, base, buildMethodOffset, null, null, null, tables, listEdgeEntries, treeEdgeEntries);
+	}
+
+	/**
+	 * Adds a class that is needed by the watermark class, but does not change between variants.
+	 * @param internalName The internal name of the class.
+	 * @param bytecode The bytecode of the class.
+	 */
+	void addUnchangedClass(String internalName, byte[] bytecode){
+		_unchangedClasses.put(internalName, bytecode);
+	}
+
+	/**
+	 * Returns the classes that the watermark class needs and that are the same for every variant, e.g. the class of the builder thread
+	 * if the graph is built in the background.
+	 * @return A map from the internal name of each class to its bytecode, possibly empty.
+	 */
+	public Map<String,byte[]> getUnchangedClasses(){
+		return Collections.unmodifiableMap(_unchangedClasses);
+	}
+
+	/**
+	 * Returns the fully qualified name of the watermark class.
+	 * @return The class name.
+	 */
+	public String getClassName(){
+		return _className;
+	}
+
+	/**
+	 * Generates the bytecode of one attacked version of the watermark class. Just like <tt>Main</tt> does, flips of vertices that are
+	 * missing an edge are skipped, and so are deletions of edges that do not exist.
+	 * @param attack The edges to be flipped and deleted.
+	 * @return The bytecode of the attacked class.
+	 */
+	public byte[] generate(EdgeAttack attack){
+		// Only the build methods that are touched by the attack are replaced
+		Method[] methods = _base.getMethods().clone();
+		ConstantPool pool;
+		if (_tables == null){
+			pool = applyToCode(attack, methods);
+		} else {
+			pool = applyToTables(attack, methods);
+		}
+		JavaClass variant = new JavaClass(_base.getClassNameIndex(), _base.getSuperclassNameIndex(), _base.getFileName(), _base.getMajor(),
+				_base.getMinor(), _base.getAccessFlags(), pool, _base.getInterfaceIndices(), _base.getFields(), methods, _base.getAttributes());
+		return variant.getBytes();
+	}
+
+	/**
+	 * Generates the bytecode of many attacked versions of the watermark class in parallel.
+	 * @param attacks The attacks, one per version.
+	 * @param noOfThreads The number of threads that generate versions at the same time.
+	 * @return The bytecode of the attacked classes in the same order as <code>attacks</code>.
+	 * @throws InterruptedException If the current thread is interrupted while waiting for the versions.
+	 */
+	public List<byte[]> generate(List<EdgeAttack> attacks, int noOfThreads) throws InterruptedException{
+		ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(attacks.size());
+		for (final EdgeAttack attack : attacks){
+			futures.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return generate(attack);
+				}
+			}));
+		}
+		executor.shutdown();
+		List<byte[]> result = new ArrayList<byte[]>(attacks.size());
+		try {
+			for (Future<byte[]> future : futures){
+				result.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		return result;
+	}
+
+	/**
+	 * Applies an attack to copies of the unrolled build methods, the same way that <tt>WatermarkCreator</tt> applies it to the originals.
+	 * @param attack The edges to be flipped and deleted.
+	 * @param methods The methods of the class. The changed build methods are replaced in there.
+	 * @return The constant pool of the class which is the same as that of the unattacked class.
+	 */
+	private ConstantPool applyToCode(EdgeAttack attack, Method[] methods){
+		Map<Integer,MethodGen> copies = new HashMap<Integer,MethodGen>();
+		for (int i : attack.getFlips()){
+			int[] treeEdge = getEntry(_treeEdgeRefs, i-1);
+			int[] listEdge = getEntry(_listEdgeRefs, i-1);
+			if ((treeEdge == null) || (listEdge == null)){
+				continue;
+			}
+			// Just like in WatermarkCreator.edgeFlip, only the field accesses are swapped
+			InstructionHandle treeField = getHandle(treeEdge, 3, copies);
+			InstructionHandle listField = getHandle(listEdge, 3, copies);
+			Instruction treeFieldInstruction = treeField.getInstruction();
+			treeField.setInstruction(listField.getInstruction());
+			listField.setInstruction(treeFieldInstruction);
+		}
+		for (int i : attack.getListEdgeDeletions()){
+			deleteEdge(getEntry(_listEdgeRefs, i-1), copies);
+		}
+		for (int i : attack.getTreeEdgeDeletions()){
+			deleteEdge(getEntry(_treeEdgeRefs, i-1), copies);
+		}
+		for (Integer part : copies.keySet()){
+			MethodGen method = copies.get(part);
+			method.removeNOPs();
+			method.setMaxStack();
+			method.setMaxLocals();
+			methods[_buildMethodOffset+part] = method.getMethod();
+			method.getInstructionList().dispose();
+		}
+		return _base.getConstantPool();
+	}
+
+	/**
+	 * Sets the three instructions of an edge to NOP.
+	 * @param edgeRef The build method and positions of the edge or <tt>null</tt>, in which case nothing happens.
+	 * @param copies The copies of the build methods that were made for the current attack.
+	 */
+	private void deleteEdge(int[] edgeRef, Map<Integer,MethodGen> copies){
+		if (edgeRef == null){
+			return;
+		}
+		for (int k = 1; k <= 3; k++){
+			getHandle(edgeRef, k, copies).setInstruction(InstructionConstants.NOP);
+		}
+	}
+
+	/**
+	 * Returns an instruction of an edge in the copy of its build method, copying the build method first if that has not happened yet.
+	 * @param edgeRef The build method and positions of the edge.
+	 * @param k The index of the position in <code>edgeRef</code>, from 1 to 3.
+	 * @param copies The copies of the build methods that were made for the current attack.
+	 * @return The instruction handle in the copy.
+	 */
+	private InstructionHandle getHandle(int[] edgeRef, int k, Map<Integer,MethodGen> copies){
+		MethodGen copy = copies.get(edgeRef[0]);
+		if (copy == null){
+			MethodGen template = _templates.get(edgeRef[0]);
+			// Copying a MethodGen writes the positions of its instructions, so no two threads may copy the same template at once
+			synchronized (template) {
+				copy = template.copy(_className, template.getConstantPool());
+			}
+			copies.put(edgeRef[0], copy);
+		}
+		// A copy consists of the same instructions in the same order
+		return copy.getInstructionList().getInstructionHandles()[edgeRef[k]];
+	}
+
+	/**
+	 * Applies an attack to the tables of the build methods, the same way that <tt>WatermarkCreator</tt> applies it to the originals.
+	 * The tables themselves are left alone; instead, the changed fields are collected and the tables packed with them.
+	 * @param attack The edges to be flipped and deleted.
+	 * @param methods The methods of the class. The changed build methods are replaced in there.
+	 * @return The constant pool of the class which contains the new tables. If no table changed, this is the one of the unattacked class.
+	 */
+	private ConstantPool applyToTables(EdgeAttack attack, Method[] methods){
+		Map<int[],Integer> changedFields = new IdentityHashMap<int[],Integer>();
+		TreeSet<Integer> changedParts = new TreeSet<Integer>();
+		for (int i : attack.getFlips()){
+			int[] treeEdge = getEntry(_treeEdgeEntries, i-1);
+			int[] listEdge = getEntry(_listEdgeEntries, i-1);
+			if ((treeEdge == null) || (listEdge == null)){
+				continue;
+			}
+			int treeField = getField(treeEdge, changedFields);
+			changedFields.put(treeEdge, getField(listEdge, changedFields));
+			changedFields.put(listEdge, treeField);
+			changedParts.add(_entryToPart.get(treeEdge));
+			changedParts.add(_entryToPart.get(listEdge));
+		}
+		List<int[]> deletedEdges = new ArrayList<int[]>();
+		for (int i : attack.getListEdgeDeletions()){
+			deletedEdges.add(getEntry(_listEdgeEntries, i-1));
+		}
+		for (int i : attack.getTreeEdgeDeletions()){
+			deletedEdges.add(getEntry(_treeEdgeEntries, i-1));
+		}
+		for (int[] edge : deletedEdges){
+			if (edge != null){
+				changedFields.put(edge, PartTable.FIELD_NONE);
+				changedParts.add(_entryToPart.get(edge));
+			}
+		}
+		if (changedParts.isEmpty()){
+			return _base.getConstantPool();
+		}
+		// The new tables need new constants, so this variant gets its own copy of the constant pool. All old indices stay valid.
+		ConstantPoolGen cp = new ConstantPoolGen(_base.getConstantPool());
+		for (Integer part : changedParts){
+			MethodGen method = new MethodGen(methods[_buildMethodOffset+part], _className, cp);
+			String oldTable = _packedTables.get(part);
+			int newIndex = cp.addString(_tables.get(part).pack(changedFields));
+			for (InstructionHandle handle : method.getInstructionList().getInstructionHandles()){
+				Instruction ins = handle.getInstruction();
+				if ((ins instanceof LDC) && oldTable.equals(((LDC) ins).getValue(cp))){
+					((LDC) ins).setIndex(newIndex);
+				}
+			}
+			methods[_buildMethodOffset+part] = method.getMethod();
+			method.getInstructionList().dispose();
+		}
+		return cp.getFinalConstantPool();
+	}
+
+	/**
+	 * Returns the current field of an edge entry.
+	 * @param edge The edge entry.
+	 * @param changedFields The fields that were changed by the current attack.
+	 * @return The changed field if there is one, the original one otherwise.
+	 */
+	private static int getField(int[] edge, Map<int[],Integer> changedFields){
+		Integer field = changedFields.get(edge);
+		return (field == null) ? edge[2] : field.intValue();
+	}
+
+	/**
+	 * Returns an element of a list or <tt>null</tt> if the index is out of range.
+	 * @param list The list.
+	 * @param i The index.
+	 * @return The element at <code>i</code> or <tt>null</tt>.
+	 */
+	private static int[] getEntry(List<int[]> list, int i){
+		if ((i < 0) || (i >= list.size())){
+			return null;
+		}
+		return list.get(i);
+	}
+}
@@ -2,17 +2,19 @@ package embedding;
 
 import org.apache.bcel.generic.*;
 import org.apache.bcel.*;
+import org.apache.bcel.classfile.Method;
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 
 import encoding.Encode;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Instances of this class create a Java .class file that, if the methods therein are called in a certain order,
@@ -24,6 +26,21 @@ public class WatermarkCreator implements Constants {
 	private static final String		ARRAY_NAME = "array";
 	private static final String		E1_NAME = "e1";
 	private static final String		E2_NAME = "e2";
+	private static final String		BUILT_NAME = "built";
+	private static final String		DONE_NAME = "done";
+	private static final String		ROOT_NAME = "root";
+	private static final String		BUILD_NAME = "build";
+	private static final String		REQUESTED_NAME = "requested";
+	private static final String		HANDLED_NAME = "handled";
+	private static final String		BUILDER_NAME = "builder";
+	private static final String		BUILD_REQUESTED_NAME = "buildRequested";
+	private static final String		START_BUILDER_NAME = "startBuilder";
+	private static final String		BUILDER_CLASS_SUFFIX = "$Builder";
+	private static final String		LOCK_SUPPORT_NAME = "java.util.concurrent.locks.LockSupport";
+	private static final ObjectType	THREAD_TYPE = new ObjectType("java.lang.Thread");
+	private static final ObjectType	ATOMIC_ARRAY_TYPE = new ObjectType("java.util.concurrent.atomic.AtomicReferenceArray");
+	private static final ObjectType	ATOMIC_INT_ARRAY_TYPE = new ObjectType("java.util.concurrent.atomic.AtomicIntegerArray");
+	private static final ObjectType	ATOMIC_INT_TYPE = new ObjectType("java.util.concurrent.atomic.AtomicInteger");
 	private final ObjectType 		_nodeType;
 	private final String			_fullClassName;	
 	private final InstructionFactory _factory;
@@ -31,16 +48,32 @@ public class WatermarkCreator implements Constants {
 	private final ClassGen 			_cg;
 	private final DirectedGraph<Integer,DefaultEdge> _graph;
 	private final int				_noOfVertices;
-	private final List<List<Integer>> _splitNodes;
+	// Only split once the generation mode is known, since the bytecode budget only applies to some modes
+	private List<List<Integer>> _splitNodes = null;
+	private final int				_noOfSubgraphs;
+	private final int				_bytecodeBudget;
 	private final HashMap<Integer,Integer> remainingNeighbors;
 	private final List<MethodGen> 	_buildMethods;
+	private ClassGen				_builderCg = null;
 	
 	private boolean manipulationAllowed = false;
+	private boolean created = false;
+	private boolean threadSafe = false;
+	private boolean keepGraphReachable = false;
+	private boolean tableDriven = false;
+	private boolean deferred = false;
+	private boolean edgesChanged = false;
 	private int edgeDeleted = -1;
 	
 	// Each element of these lists is three InstructionHandle, the last of which holds the actual field access
 	private final List<List<InstructionHandle>> _listEdgeInstructions;
 	private final List<List<InstructionHandle>> _treeEdgeInstructions;
+	// The same for table-driven build methods; each element is the entry of the edge in its PartTable
+	private final List<int[]> _listEdgeEntries;
+	private final List<int[]> _treeEdgeEntries;
+	private final List<PartTable> _partTables;
+	// The fewest and most objects that a call of each build method allocates
+	private final List<int[]> _allocationBounds;
 	
 	/**
 	 * Creates a new WaterMarkCreator.
@@ -50,6 +83,21 @@ public class WatermarkCreator implements Constants {
 	 * the number of vertices in graph, this number will be set to the number of vertices.
 	 */
 	public WatermarkCreator(String fullClassName, DirectedGraph<Integer,DefaultEdge> graph, int noOfSubgraphs) {
+		this(fullClassName, graph, noOfSubgraphs, 0);
+	}
+	
+	/**
+	 * Creates a new WaterMarkCreator whose build methods are sized to a bytecode budget instead of all having the same number of nodes.
+	 * @param fullClassName The full, qualified name of the Watermark class. Integrity of name is not checked, make sure to do that beforehand or it might just crash. 
+	 * @param graph The RPG that is to be embedded in the code.
+	 * @param noOfSubgraphs The maximum number of subgraphs that <code>graph</code> may be split up into, usually the number of trace points.
+	 * If this is larger than the number of vertices in graph, this number will be set to the number of vertices.
+	 * @param bytecodeBudget The maximum estimated size of each build method in bytes. If this can not be met with <code>noOfSubgraphs</code> 
+	 * subgraphs, it is raised as little as possible. If it is 0 or less, the vertices are simply split evenly into <code>noOfSubgraphs</code> subgraphs.
+	 * The size estimate only models the unrolled build methods that are called at the trace points, so the budget is ignored if the class
+	 * is made thread-safe, table-driven or deferred, see <code>create()</code>.
+	 */
+	public WatermarkCreator(String fullClassName, DirectedGraph<Integer,DefaultEdge> graph, int noOfSubgraphs, int bytecodeBudget) {
 		_fullClassName = fullClassName;
 		int i = fullClassName.lastIndexOf(".");
 		String className = fullClassName.substring(i+1, fullClassName.length());
@@ -58,8 +106,8 @@ public class WatermarkCreator implements Constants {
 		_factory = new InstructionFactory(_cg,_cp);
 		_graph = graph;
 		int n = graph.vertexSet().size();
-		List<Integer> hamiltonPath = encoding.Tools.hamiltonPath(n);
-		_splitNodes = Tools.splitNodes(hamiltonPath, noOfSubgraphs);
+		_noOfSubgraphs = noOfSubgraphs;
+		_bytecodeBudget = bytecodeBudget;
 		_nodeType = new ObjectType(_fullClassName);
 		_noOfVertices = n;
 		remainingNeighbors = noOfNeighbors();
@@ -68,19 +116,121 @@ public class WatermarkCreator implements Constants {
 		// Fill the lists with null, so that they can later be set due to the erratic order in which edges are added
 		Tools.fillWithNull(_listEdgeInstructions, n-1);
 		Tools.fillWithNull(_treeEdgeInstructions, n-2);
+		_listEdgeEntries = new ArrayList<int[]>(n-1);
+		_treeEdgeEntries = new ArrayList<int[]>(n-2);
+		Tools.fillWithNull(_listEdgeEntries, n-1);
+		Tools.fillWithNull(_treeEdgeEntries, n-2);
+		_partTables = new ArrayList<PartTable>();
+		_allocationBounds = new ArrayList<int[]>();
 		_buildMethods = new ArrayList<MethodGen>();
 	}
 	
 	/**
-	 * Creates the class and the methods contained therein, but does not actually yet add them to the class.
+	 * Sets whether the build methods may be called concurrently by several threads. If so, <code>array</code> is an
+	 * <code>AtomicReferenceArray</code> that is created in the static initializer and every node is published with
+	 * <code>compareAndSet</code>, so that two threads never create different instances for the same vertex. Furthermore, each build method
+	 * only ever runs once; any later or concurrent call returns right after reading a flag. No locks are involved.<br>
+	 * Since another thread may still need them, entries of <code>array</code> are never set back to <tt>null</tt> in this mode.
+	 * This must be called before <tt>create()</tt>.
+	 * @param threadSafe <tt>true</tt> if the build methods should be thread-safe, <tt>false</tt> otherwise.
+	 * @throws IllegalStateException If the class has already been created.
+	 */
+	public void setThreadSafe(boolean threadSafe) throws IllegalStateException{
+		if (created){
+			throw new IllegalStateException("The class has already been created, so the generation mode can not be changed anymore.");
+		}
+		this.threadSafe = threadSafe;
+	}
+	
+	/**
+	 * Sets whether the whole graph should stay reachable once it has been built. By default, every entry of <code>array</code> is set to
+	 * <tt>null</tt> as soon as its vertex has no neighbors left to be built, so the finished graph can be collected and is not found by
+	 * extraction from a snapshot or heap dump. If set, the last build method instead stores the first vertex of the Hamilton path, from which
+	 * every other vertex can be reached via list edges, in the static field <code>root</code> and lets go of <code>array</code>. This keeps
+	 * about 24 bytes per vertex alive for as long as the class is loaded, so it uses more memory than the default, not less.
+	 * In the thread-safe version, the "last" build method is whichever one finishes last.<br>
+	 * <code>root</code> is declared as <code>Object</code>, so that the class still has exactly two fields of its own type.
+	 * This must be called before <tt>create()</tt>.
+	 * @param keepGraphReachable <tt>true</tt> if the graph should stay reachable through <code>root</code>, <tt>false</tt> otherwise.
+	 * @throws IllegalStateException If the class has already been created.
+	 */
+	public void setKeepGraphReachable(boolean keepGraphReachable) throws IllegalStateException{
+		if (created){
+			throw new IllegalStateException("The class has already been created, so the generation mode can not be changed anymore.");
+		}
+		this.keepGraphReachable = keepGraphReachable;
+	}
+	
+	/**
+	 * Sets whether the build methods should be table-driven. If so, the edges of each subgraph are not unrolled into straight-line code,
+	 * but packed into a <code>String</code> constant (see <code>PartTable</code>). Each build method merely passes its table to a single
+	 * <code>build</code> method that creates the nodes and edges in a loop. This keeps the class small for large watermarks.
+	 * Edges can be deleted and flipped just like in the unrolled version. This must be called before <tt>create()</tt>.
+	 * @param tableDriven <tt>true</tt> if the build methods should be table-driven, <tt>false</tt> if they should be unrolled.
+	 * @throws IllegalStateException If the class has already been created.
+	 */
+	public void setTableDriven(boolean tableDriven) throws IllegalStateException{
+		if (created){
+			throw new IllegalStateException("The class has already been created, so the generation mode can not be changed anymore.");
+		}
+		this.tableDriven = tableDriven;
+	}
+	
+	/**
+	 * Sets whether the graph should be built in the background. If so, calling a build method merely records the request with a single
+	 * volatile write and wakes up a daemon thread, which is started the first time. That thread runs the actual build methods, which
+	 * are renamed to <code>doBuildG</code><tt>i</tt>, so that the thread that hit the trace point does not have to allocate the nodes.
+	 * Between requests, it is parked without a timeout, and once every subgraph has been built, it ends. Each subgraph is built at most once.<br>
+	 * A shutdown hook builds the remaining requested subgraphs when the program exits, so that the graph is complete by the time the
+	 * extractor looks at it. The thread is a subclass of <code>Thread</code> in a second class whose name is that of the watermark class
+	 * followed by <tt>$Builder</tt>. This must be called before <tt>create()</tt>.
+	 * @param deferred <tt>true</tt> if the graph should be built in the background, <tt>false</tt> otherwise.
+	 * @throws IllegalStateException If the class has already been created.
+	 */
+	public void setDeferred(boolean deferred) throws IllegalStateException{
+		if (created){
+			throw new IllegalStateException("The class has already been created, so the generation mode can not be changed anymore.");
+		}
+		this.deferred = deferred;
+	}
+	
+	/**
+	 * Creates the class and the methods contained therein, but does not actually yet add them to the class.<br>
+	 * The bytecode budget only applies to the default mode. The thread-safe build methods publish every node with
+	 * <code>compareAndSet</code>, which makes them several times larger than estimated, table-driven build methods all share one
+	 * interpreter and deferred build methods are never called at the trace points, so in these modes the vertices are split evenly instead.
 	 * @return The number of build methods in this class, indexed from 0 to (returnValue - 1).
 	 */
 	public int create(){
+		created = true;
+		List<Integer> hamiltonPath = encoding.Tools.hamiltonPath(_noOfVertices);
+		if ((_bytecodeBudget > 0) && !threadSafe && !tableDriven && !deferred){
+			_splitNodes = Tools.splitNodesByBudget(hamiltonPath, _graph, _noOfSubgraphs, _bytecodeBudget);
+		} else {
+			if (_bytecodeBudget > 0){
+				System.err.println("The bytecode budget only applies to unrolled, not thread-safe and not deferred build methods, so it is ignored");
+			}
+			_splitNodes = Tools.splitNodes(hamiltonPath, _noOfSubgraphs);
+		}
 		createFields();
 		createConstructor();
-		for (int i = 0; i < _splitNodes.size(); i++){
-			MethodGen method = createBuildGi(i);
-			_buildMethods.add(method);
+		if (threadSafe){
+			createStaticInitializer();
+		}
+		if (deferred){
+			_builderCg = createBuilderClass();
+		}
+		if (tableDriven){
+			_buildMethods.add(createBuildInterpreter());
+			// The build methods themselves are only created once the tables are final
+			for (int i = 0; i < _splitNodes.size(); i++){
+				_partTables.add(createPartTable(i));
+			}
+		} else {
+			for (int i = 0; i < _splitNodes.size(); i++){
+				MethodGen method = createBuildGi(i);
+				_buildMethods.add(method);
+			}
 		}
 //		createMain();
 		manipulationAllowed = true;
@@ -91,6 +241,9 @@ public class WatermarkCreator implements Constants {
 	 * Does the final stack-setting and all that jazz for the build methods. After this, no edges may be deleted.
 	 */
 	private void closeOffBuildMethods(){
+		for (int i = 0; i < _partTables.size(); i++){
+			_buildMethods.add(createTableBuildGi(i));
+		}
 		for (int i = 0; i < _buildMethods.size(); i++){
 			MethodGen method = _buildMethods.get(i);
 			method.removeNOPs();
@@ -99,6 +252,13 @@ public class WatermarkCreator implements Constants {
 			_cg.addMethod(method.getMethod());
 			method.getInstructionList().dispose();
 		}
+		if (deferred){
+			for (int i = 0; i < _splitNodes.size(); i++){
+				createRequestBuildGi(i);
+			}
+			createBuildRequested();
+			createStartBuilder();
+		}
 		manipulationAllowed = false;
 	}
 	
@@ -113,6 +273,11 @@ public class WatermarkCreator implements Constants {
 			throw new IllegalStateException("Either the class has not been created or it was already dumped. Either way, no edges can be deleted.");
 		}
 		i = i-1;
+		edgesChanged = true;
+		if (tableDriven){
+			deleteEdgeEntry(_listEdgeEntries.get(i), i);
+			return;
+		}
 		List<InstructionHandle> listEdge = _listEdgeInstructions.get(i);
 		for (InstructionHandle handle : listEdge){
 			// Just set those three instructions to NOP. Those will be removed when the methods are closed afterwards.
@@ -134,6 +299,11 @@ public class WatermarkCreator implements Constants {
 			throw new IllegalStateException("Either the class has not been created or it was already dumped. Either way, no edges can be deleted.");
 		}
 		i = i-1;
+		edgesChanged = true;
+		if (tableDriven){
+			deleteEdgeEntry(_treeEdgeEntries.get(i), i);
+			return;
+		}
 		List<InstructionHandle> treeEdge = _treeEdgeInstructions.get(i);
 		for (InstructionHandle handle : treeEdge){
 			handle.setInstruction(InstructionFactory.NOP);
@@ -158,6 +328,19 @@ public class WatermarkCreator implements Constants {
 		if (edgeDeleted == i){
 			throw new IllegalStateException("One of the edges of the vertex "+(i+1)+" has already been deleted, so you may not flip those edges.");
 		}
+		if (tableDriven){
+			int[] treeEdgeEntry = _treeEdgeEntries.get(i);
+			int[] listEdgeEntry = _listEdgeEntries.get(i);
+			if ((treeEdgeEntry == null) || (listEdgeEntry == null)){
+				throw new IllegalStateException("The vertex is missing an edge.");
+			}
+			// Just like below, only the fields are swapped
+			int treeField = treeEdgeEntry[2];
+			treeEdgeEntry[2] = listEdgeEntry[2];
+			listEdgeEntry[2] = treeField;
+			edgesChanged = true;
+			return;
+		}
 		List<InstructionHandle> treeEdgeInstructions = _treeEdgeInstructions.get(i);
 		List<InstructionHandle> listEdgeInstructions = _listEdgeInstructions.get(i);
 		if ((treeEdgeInstructions == null) || (listEdgeInstructions == null)){
@@ -173,6 +356,112 @@ public class WatermarkCreator implements Constants {
 		Instruction listEdgeInstruction = listEdge.getInstruction();
 		treeEdge.setInstruction(listEdgeInstruction);
 		listEdge.setInstruction(treeEdgeInstruction);
+		edgesChanged = true;
+	}
+	
+	/**
+	 * Finishes the class like <tt>dump</tt> does and returns a generator for attacked versions of it, i.e. versions with edges flipped or deleted.
+	 * Each version is generated from the finished class by only redoing the build methods its attack touches, so that thousands of them can be
+	 * generated without creating the class again. The unattacked class is generated by an attack without any flips or deletions.<br>
+	 * <tt>create()</tt> must be called first, but no edges may have been flipped or deleted. Afterwards, the class can not be dumped anymore.
+	 * @return The generator.
+	 * @throws IllegalStateException If the class has not been created, has already been dumped or edges have already been flipped or deleted.
+	 */
+	public VariantGenerator createVariantGenerator() throws IllegalStateException{
+		if (!manipulationAllowed){
+			throw new IllegalStateException("Either the class has not been created or it was already dumped. Either way, no variants can be generated.");
+		}
+		if (edgesChanged){
+			throw new IllegalStateException("Edges have already been flipped or deleted, so the class can not be the base for variants.");
+		}
+		int buildMethodOffset = _cg.getMethods().length;
+		if (tableDriven){
+			closeOffBuildMethods();
+			// The first of the build methods is build, which interprets the tables
+			VariantGenerator generator = VariantGenerator.forTables(_fullClassName, _cg.getJavaClass(), buildMethodOffset+1, _partTables, 
+					_listEdgeEntries, _treeEdgeEntries);
+			addBuilderClass(generator);
+			return generator;
+		}
+		// Remember where the instructions of each edge are, as closing off the build methods removes them
+		IdentityHashMap<InstructionHandle,int[]> handleToPosition = new IdentityHashMap<InstructionHandle,int[]>();
+		List<MethodGen> templates = new ArrayList<MethodGen>();
+		for (int i = 0; i < _buildMethods.size(); i++){
+			MethodGen method = _buildMethods.get(i);
+			InstructionHandle[] handles = method.getInstructionList().getInstructionHandles();
+			for (int j = 0; j < handles.length; j++){
+				handleToPosition.put(handles[j], new int[] {i, j});
+			}
+			templates.add(method.copy(_fullClassName, _cp));
+		}
+		List<int[]> listEdgeRefs = getEdgeRefs(_listEdgeInstructions, handleToPosition);
+		List<int[]> treeEdgeRefs = getEdgeRefs(_treeEdgeInstructions, handleToPosition);
+		closeOffBuildMethods();
+		VariantGenerator generator = VariantGenerator.forUnrolled(_fullClassName, _cg.getJavaClass(), buildMethodOffset, templates, listEdgeRefs, treeEdgeRefs);
+		addBuilderClass(generator);
+		return generator;
+	}
+	
+	/**
+	 * Hands the class of the builder thread to a variant generator if the graph is built in the background. That class is the same for all variants.
+	 * @param generator The variant generator.
+	 */
+	private void addBuilderClass(VariantGenerator generator){
+		if (deferred){
+			generator.addUnchangedClass(_builderCg.getClassName().replace('.', '/'), _builderCg.getJavaClass().getBytes());
+		}
+	}
+	
+	/**
+	 * Turns the instructions of edges into the build method that contains them and their positions in there.
+	 * @param edgeInstructions The three instruction handles of each edge.
+	 * @param handleToPosition Assigns to each instruction handle of the build methods the index of its build method and its position in there.
+	 * @return For each edge, the index of its build method, followed by the positions of its three instructions, or <tt>null</tt> if
+	 * the edge does not exist.
+	 */
+	private static List<int[]> getEdgeRefs(List<List<InstructionHandle>> edgeInstructions, IdentityHashMap<InstructionHandle,int[]> handleToPosition){
+		List<int[]> result = new ArrayList<int[]>(edgeInstructions.size());
+		for (List<InstructionHandle> edge : edgeInstructions){
+			if ((edge == null) || (edge.size() != 3)){
+				result.add(null);
+				continue;
+			}
+			int[] edgeRef = new int[4];
+			edgeRef[0] = handleToPosition.get(edge.get(0))[0];
+			for (int k = 0; k < 3; k++){
+				edgeRef[k+1] = handleToPosition.get(edge.get(k))[1];
+			}
+			result.add(edgeRef);
+		}
+		return result;
+	}
+	
+	/**
+	 * Deletes an edge of a table-driven build method by setting its field to <code>PartTable.FIELD_NONE</code>.
+	 * @param edgeEntry The entry of the edge in its <code>PartTable</code>. If this is <tt>null</tt>, nothing happens.
+	 * @param i The index of the source vertex of the edge.
+	 */
+	private void deleteEdgeEntry(int[] edgeEntry, int i){
+		if (edgeEntry != null){
+			edgeEntry[2] = PartTable.FIELD_NONE;
+			edgeDeleted = i;
+		}
+	}
+	
+	/**
+	 * Returns the fewest and most objects that a call of a build method allocates. A build method always creates the nodes of its
+	 * subgraph, unless it has already run in the thread-safe version, and at most creates every node it uses as well as <code>array</code>.
+	 * The table-driven version also creates the array of slots.
+	 * @param noOfNodes The number of nodes in the subgraph.
+	 * @param noOfSlots The number of nodes that the build method uses, including those loaded from <code>array</code>.
+	 * @return The fewest and the most allocations.
+	 */
+	private int[] allocationBounds(int noOfNodes, int noOfSlots){
+		int slotArray = tableDriven ? 1 : 0;
+		if (threadSafe){
+			return new int[] {0, noOfSlots+slotArray};
+		}
+		return new int[] {noOfNodes+slotArray, noOfSlots+slotArray+1};
 	}
 	
 	/**
@@ -181,20 +470,53 @@ public class WatermarkCreator implements Constants {
 	 * @throws IllegalStateException If the class has not yet been created, in which case it may not be dumped.
 	 */
 	public void dump(String classPath) throws IOException, IllegalStateException{
+		dump(classPath, null);
+	}
+	
+	/**
+	 * Adds the methods to the class, outputs the class to the correct location and adds all of its methods to a report.
+	 * <tt>create()</tt> and whatever edge deletions are wanted must be called first.
+	 * @param report The report that the methods are added to or <tt>null</tt> if there is none.
+	 * @throws IOException If the class can not be saved.
+	 * @throws IllegalStateException If the class has not yet been created, in which case it may not be dumped.
+	 */
+	public void dump(String classPath, ImpactReport report) throws IOException, IllegalStateException{
+		Tools.writeClasses(classPath, dumpToMemory(report));
+	}
+	
+	/**
+	 * Adds the methods to the class and returns its bytecode instead of saving it, so that it can be packaged or loaded without touching the disk.
+	 * <tt>create()</tt> and whatever edge deletions are wanted must be called first. Just like <tt>dump</tt>, this may only be called once.
+	 * @param report The report that the methods are added to or <tt>null</tt> if there is none.
+	 * @return A map from the internal name of the watermark class, e.g. <tt>example/Watermark</tt>, to its bytecode. If the graph is
+	 * built in the background, the map also contains the class of the builder thread.
+	 * @throws IllegalStateException If the class has not yet been created or has already been dumped.
+	 */
+	public Map<String,byte[]> dumpToMemory(ImpactReport report) throws IllegalStateException{
 		if (!manipulationAllowed){
-			throw new IllegalStateException("The class has not yet been created, so it may not be dumped yet.");
+			throw new IllegalStateException("The class has either not yet been created or already been dumped.");
 		}
 		closeOffBuildMethods();
-		String separator = File.separator;
-		int i = _fullClassName.lastIndexOf('.');
-		String packages = _fullClassName.substring(0, i).replace('.', separator.charAt(0));
-		String className = _fullClassName.substring(i+1, _fullClassName.length());
-		String path = classPath+separator+packages;
-		File folder = new File(path);
-		folder.mkdirs();
-		File file = new File(path+separator+className+".class");
-		FileOutputStream out = new FileOutputStream(file);
-		_cg.getJavaClass().dump(out);
+		if (report != null){
+			for (Method method : _cg.getMethods()){
+				MethodImpact impact = new MethodImpact(_fullClassName, null, method);
+				String name = method.getName();
+				if (deferred && name.startsWith("buildG")){
+					// The first request creates the builder thread and the shutdown hook
+					impact.setAllocations(0, 2);
+				} else if (name.startsWith("buildG") || name.startsWith("doBuildG")){
+					int[] bounds = _allocationBounds.get(Integer.parseInt(name.substring(name.indexOf('G')+1)));
+					impact.setAllocations(bounds[0], bounds[1]);
+				}
+				report.addWatermarkMethod(impact);
+			}
+		}
+		Map<String,byte[]> result = new LinkedHashMap<String,byte[]>();
+		result.put(_fullClassName.replace('.', '/'), _cg.getJavaClass().getBytes());
+		if (deferred){
+			result.put(_builderCg.getClassName().replace('.', '/'), _builderCg.getJavaClass().getBytes());
+		}
+		return result;
 	}
 	
 	/**
@@ -232,7 +554,16 @@ public class WatermarkCreator implements Constants {
 	 * @return The very same instruction.
 	 */
 	private FieldInstruction getArray(){
-		return _factory.createFieldAccess(_fullClassName, ARRAY_NAME, new ArrayType(_nodeType, 1), GETSTATIC);
+		return _factory.createFieldAccess(_fullClassName, ARRAY_NAME, getArrayType(), GETSTATIC);
+	}
+	
+	/**
+	 * Returns the type of <code>array</code>, which is <code>AtomicReferenceArray</code> for thread-safe build methods and an array
+	 * of Watermark instances otherwise.
+	 * @return The type of <code>array</code>.
+	 */
+	private Type getArrayType(){
+		return threadSafe ? ATOMIC_ARRAY_TYPE : new ArrayType(_nodeType, 1);
 	}
 	
 	/**
@@ -288,6 +619,11 @@ public class WatermarkCreator implements Constants {
 	 */
 	private void createGiNodes(List<Integer> nodes, InstructionList il, VertexToVarIndexMap vertexToVarIndex){
 		for (int j = 0; j < nodes.size(); j++){
+			// Another build method may already have published this node; the sink, which has no index in array, never is
+			if (threadSafe && (nodes.get(j) >= 0)){
+				createLoadOrPublish(il, nodes.get(j), vertexToVarIndex);
+				continue;
+			}
 			createNewNode(il);
 			// pop node from stack and store it in local variable
 			il.append(InstructionFactory.createStore(Type.OBJECT, vertexToVarIndex.getLocalVarIndex()));
@@ -310,7 +646,11 @@ public class WatermarkCreator implements Constants {
 			for (Integer inNeighbor : inNeighbors){
 				// if this inNeighbor of vertex hasn't been stored yet
 				if (vertexToVarIndex.get(inNeighbor) == null){
-					createLoadFromArray(il,inNeighbor,vertexToVarIndex);
+					if (threadSafe){
+						createLoadOrPublish(il,inNeighbor,vertexToVarIndex);
+					} else {
+						createLoadFromArray(il,inNeighbor,vertexToVarIndex);
+					}
 				}
 			}
 		}
@@ -345,6 +685,83 @@ public class WatermarkCreator implements Constants {
 		gotoEnd.setTarget(end);
 	}
 	
+	/**
+	 * The thread-safe version of <tt>createLoadFromArray</tt>. It creates code that loads the entry at a specified index of <code>array</code>.
+	 * If it is <tt>null</tt>, a new Watermark instance is created and published with <code>compareAndSet</code>. Whether that succeeds or
+	 * another thread was faster, the entry is then read again, so all threads end up with the same instance. Essentially, it creates<br>
+	 * <tt>n_arrayIndex = array.get(arrayIndex);<br>
+	 * if (n_arrayIndex == null) {<br>
+	 * &nbsp;&nbsp;array.compareAndSet(arrayIndex, null, new Watermark());<br>
+	 * &nbsp;&nbsp;n_arrayIndex = array.get(arrayIndex);<br>
+	 * }</tt>
+	 * @param il The InstructionList that is to be appended to.
+	 * @param arrayIndex The specified index.
+	 * @param vertexToVarIndex Assigns to each vertex a local variable index.
+	 */
+	private void createLoadOrPublish(InstructionList il, int arrayIndex, VertexToVarIndexMap vertexToVarIndex){
+		createAtomicGet(il, arrayIndex);
+		il.append(InstructionConstants.DUP);
+		  BranchInstruction ifArrayEntryNonNull = InstructionFactory.createBranchInstruction(Constants.IFNONNULL,null);
+		il.append(ifArrayEntryNonNull);
+		// the following is if it IS null
+		il.append(InstructionConstants.POP);
+		il.append(getArray());
+		il.append(new PUSH(_cp, arrayIndex));
+		il.append(InstructionConstants.ACONST_NULL);
+		createNewNode(il);
+		il.append(_factory.createInvoke(ATOMIC_ARRAY_TYPE.getClassName(), "compareAndSet", Type.BOOLEAN, 
+				new Type[] { Type.INT, Type.OBJECT, Type.OBJECT }, INVOKEVIRTUAL));
+		// it doesn't matter whether this thread won, the entry is not null anymore either way
+		il.append(InstructionConstants.POP);
+		createAtomicGet(il, arrayIndex);
+		InstructionHandle end = il.append(InstructionFactory.createStore(Type.OBJECT, vertexToVarIndex.getLocalVarIndex()));
+		vertexToVarIndex.put(arrayIndex);
+		ifArrayEntryNonNull.setTarget(end);
+	}
+	
+	/**
+	 * Creates code that pushes the entry at a specified index of the <code>AtomicReferenceArray</code> <code>array</code> on the stack.
+	 * @param il The InstructionList that is to be appended to.
+	 * @param arrayIndex The specified index.
+	 */
+	private void createAtomicGet(InstructionList il, int arrayIndex){
+		il.append(getArray());
+		il.append(new PUSH(_cp, arrayIndex));
+		il.append(_factory.createInvoke(ATOMIC_ARRAY_TYPE.getClassName(), "get", Type.OBJECT, new Type[] { Type.INT }, INVOKEVIRTUAL));
+		il.append(_factory.createCheckCast(_nodeType));
+	}
+	
+	/**
+	 * Creates code that makes sure that the <code>i</code>-th build method only runs once, even if it is called by several threads
+	 * at the same time. If the flag for this build method in <code>built</code> is already set or can not be set by this thread, the method
+	 * returns. Essentially, it creates<br>
+	 * <tt>if ((built.get(i) != 0) || !built.compareAndSet(i, 0, 1)) return;</tt>
+	 * @param il The InstructionList that is to be appended to.
+	 * @param i The index of the build method.
+	 * @return The two branch instructions that lead to the return. Their targets are not yet set.
+	 */
+	private List<BranchInstruction> createClaimPart(InstructionList il, int i){
+		List<BranchInstruction> result = new ArrayList<BranchInstruction>();
+		FieldInstruction getBuilt = _factory.createFieldAccess(_fullClassName, BUILT_NAME, ATOMIC_INT_ARRAY_TYPE, GETSTATIC);
+		// the cheap check first, so that later calls only cost a volatile read
+		il.append(getBuilt);
+		il.append(new PUSH(_cp, i));
+		il.append(_factory.createInvoke(ATOMIC_INT_ARRAY_TYPE.getClassName(), "get", Type.INT, new Type[] { Type.INT }, INVOKEVIRTUAL));
+		BranchInstruction ifBuilt = InstructionFactory.createBranchInstruction(IFNE, null);
+		il.append(ifBuilt);
+		result.add(ifBuilt);
+		il.append(_factory.createFieldAccess(_fullClassName, BUILT_NAME, ATOMIC_INT_ARRAY_TYPE, GETSTATIC));
+		il.append(new PUSH(_cp, i));
+		il.append(new PUSH(_cp, 0));
+		il.append(new PUSH(_cp, 1));
+		il.append(_factory.createInvoke(ATOMIC_INT_ARRAY_TYPE.getClassName(), "compareAndSet", Type.BOOLEAN, 
+				new Type[] { Type.INT, Type.INT, Type.INT }, INVOKEVIRTUAL));
+		BranchInstruction ifClaimFailed = InstructionFactory.createBranchInstruction(IFEQ, null);
+		il.append(ifClaimFailed);
+		result.add(ifClaimFailed);
+		return result;
+	}
+	
 	/**
 	 * Creates code that checks whether <code>array</code> is null. If it is, a new array is built and filled with
 	 * <tt>null</tt>
@@ -381,8 +798,252 @@ public class WatermarkCreator implements Constants {
 		field = new FieldGen(ACC_PUBLIC, _nodeType, E2_NAME, _cp);
 		_cg.addField(field.getField());
 		
-		field = new FieldGen(ACC_PUBLIC | ACC_STATIC, new ArrayType(_nodeType, 1), ARRAY_NAME, _cp);
-		_cg.addField(field.getField());
+		if (threadSafe){
+			// array can only be final if it is never released
+			int arrayFlags = keepGraphReachable ? (ACC_PUBLIC | ACC_STATIC) : (ACC_PUBLIC | ACC_STATIC | ACC_FINAL);
+			field = new FieldGen(arrayFlags, ATOMIC_ARRAY_TYPE, ARRAY_NAME, _cp);
+			_cg.addField(field.getField());
+			
+			field = new FieldGen(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, ATOMIC_INT_ARRAY_TYPE, BUILT_NAME, _cp);
+			_cg.addField(field.getField());
+			
+			if (keepGraphReachable){
+				field = new FieldGen(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, ATOMIC_INT_TYPE, DONE_NAME, _cp);
+				_cg.addField(field.getField());
+			}
+		} else {
+			field = new FieldGen(ACC_PUBLIC | ACC_STATIC, new ArrayType(_nodeType, 1), ARRAY_NAME, _cp);
+			_cg.addField(field.getField());
+		}
+		
+		if (keepGraphReachable){
+			// Not of type Watermark, or it would count as a third edge during extraction
+			field = new FieldGen(ACC_PUBLIC | ACC_STATIC, Type.OBJECT, ROOT_NAME, _cp);
+			_cg.addField(field.getField());
+		}
+		
+		if (deferred){
+			for (int i = 0; i < _splitNodes.size(); i++){
+				// Written by whichever thread hits the trace point, read by the builder thread
+				field = new FieldGen(ACC_PRIVATE | ACC_STATIC | ACC_VOLATILE, Type.BOOLEAN, REQUESTED_NAME+i, _cp);
+				_cg.addField(field.getField());
+				// Only ever accessed while holding the lock of the class
+				field = new FieldGen(ACC_PRIVATE | ACC_STATIC, Type.BOOLEAN, HANDLED_NAME+i, _cp);
+				_cg.addField(field.getField());
+			}
+			field = new FieldGen(ACC_PRIVATE | ACC_STATIC, Type.INT, HANDLED_NAME, _cp);
+			_cg.addField(field.getField());
+			field = new FieldGen(ACC_PRIVATE | ACC_STATIC, THREAD_TYPE, BUILDER_NAME, _cp);
+			_cg.addField(field.getField());
+		}
+	}
+	
+	/**
+	 * Returns the name of the method that builds the <code>i</code>-th subgraph. If the graph is built in the background, that is not the method
+	 * that is called at the trace point.
+	 * @param i The index of the subgraph. It goes from 0 to <code>noOfSubgraphs-1</code>.
+	 * @return <tt>doBuildG</tt><code>i</code> if the graph is built in the background, <tt>buildG</tt><code>i</code> otherwise.
+	 */
+	private String getBuildMethodName(int i){
+		return (deferred ? "doBuildG" : "buildG")+i;
+	}
+	
+	/**
+	 * Returns the access flags of the methods that build the subgraphs. If the graph is built in the background, only the builder thread may call them.
+	 * @return The access flags.
+	 */
+	private int getBuildMethodFlags(){
+		return deferred ? (ACC_PRIVATE | ACC_STATIC) : (ACC_PUBLIC | ACC_STATIC);
+	}
+	
+	/**
+	 * Creates the method <code>buildG</code><tt>i</tt> that is called at the trace point if the graph is built in the background. It creates<br>
+	 * <tt>
+	 * public static void buildGi() {<br>
+	 * &nbsp;&nbsp;requestedi = true;<br>
+	 * &nbsp;&nbsp;if (builder == null) startBuilder();<br>
+	 * &nbsp;&nbsp;else LockSupport.unpark(builder);<br>
+	 * }</tt>
+	 * @param i The index of the subgraph. It goes from 0 to <code>noOfSubgraphs-1</code>.
+	 */
+	private void createRequestBuildGi(int i){
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(ACC_PUBLIC | ACC_STATIC, Type.VOID, Type.NO_ARGS, new String[] {}, "buildG"+i, _fullClassName, il, _cp);
+		il.append(new PUSH(_cp, true));
+		il.append(_factory.createFieldAccess(_fullClassName, REQUESTED_NAME+i, Type.BOOLEAN, PUTSTATIC));
+		// builder is not volatile; if this thread does not see it yet, startBuilder checks again while holding the lock
+		il.append(_factory.createFieldAccess(_fullClassName, BUILDER_NAME, THREAD_TYPE, GETSTATIC));
+		il.append(InstructionConstants.DUP);
+		BranchInstruction ifNotStarted = InstructionFactory.createBranchInstruction(IFNULL, null);
+		il.append(ifNotStarted);
+		// The write to requestedi happens before the builder thread returns from park
+		il.append(_factory.createInvoke(LOCK_SUPPORT_NAME, "unpark", Type.VOID, new Type[] { THREAD_TYPE }, INVOKESTATIC));
+		il.append(InstructionFactory.createReturn(Type.VOID));
+		ifNotStarted.setTarget(il.append(InstructionConstants.POP));
+		il.append(_factory.createInvoke(_fullClassName, START_BUILDER_NAME, Type.VOID, Type.NO_ARGS, INVOKESTATIC));
+		il.append(InstructionFactory.createReturn(Type.VOID));
+		method.setMaxStack();
+		method.setMaxLocals();
+		_cg.addMethod(method.getMethod());
+		il.dispose();
+	}
+	
+	/**
+	 * Creates the method <code>buildRequested</code> that the builder thread calls to build every subgraph that has been requested, but not
+	 * yet built. It creates<br>
+	 * <tt>
+	 * static synchronized boolean buildRequested() {<br>
+	 * &nbsp;&nbsp;if (requested0 &amp;&amp; !handled0) { handled0 = true; handled++; doBuildG0(); }<br>
+	 * &nbsp;&nbsp;...<br>
+	 * &nbsp;&nbsp;return handled == noOfSubgraphs;<br>
+	 * }</tt>
+	 */
+	private void createBuildRequested(){
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(ACC_STATIC | ACC_SYNCHRONIZED, Type.BOOLEAN, Type.NO_ARGS, new String[] {}, BUILD_REQUESTED_NAME, 
+				_fullClassName, il, _cp);
+		List<BranchInstruction> toNext = new ArrayList<BranchInstruction>();
+		for (int i = 0; i < _splitNodes.size(); i++){
+			InstructionHandle next = il.append(_factory.createFieldAccess(_fullClassName, REQUESTED_NAME+i, Type.BOOLEAN, GETSTATIC));
+			for (BranchInstruction branch : toNext){
+				branch.setTarget(next);
+			}
+			toNext.clear();
+			BranchInstruction ifNotRequested = InstructionFactory.createBranchInstruction(IFEQ, null);
+			il.append(ifNotRequested);
+			toNext.add(ifNotRequested);
+			il.append(_factory.createFieldAccess(_fullClassName, HANDLED_NAME+i, Type.BOOLEAN, GETSTATIC));
+			BranchInstruction ifHandled = InstructionFactory.createBranchInstruction(IFNE, null);
+			il.append(ifHandled);
+			toNext.add(ifHandled);
+			il.append(new PUSH(_cp, true));
+			il.append(_factory.createFieldAccess(_fullClassName, HANDLED_NAME+i, Type.BOOLEAN, PUTSTATIC));
+			il.append(_factory.createFieldAccess(_fullClassName, HANDLED_NAME, Type.INT, GETSTATIC));
+			il.append(new PUSH(_cp, 1));
+			il.append(InstructionConstants.IADD);
+			il.append(_factory.createFieldAccess(_fullClassName, HANDLED_NAME, Type.INT, PUTSTATIC));
+			il.append(_factory.createInvoke(_fullClassName, getBuildMethodName(i), Type.VOID, Type.NO_ARGS, INVOKESTATIC));
+		}
+		InstructionHandle count = il.append(_factory.createFieldAccess(_fullClassName, HANDLED_NAME, Type.INT, GETSTATIC));
+		for (BranchInstruction branch : toNext){
+			branch.setTarget(count);
+		}
+		il.append(new PUSH(_cp, _splitNodes.size()));
+		BranchInstruction ifNotAllHandled = InstructionFactory.createBranchInstruction(IF_ICMPNE, null);
+		il.append(ifNotAllHandled);
+		il.append(new PUSH(_cp, true));
+		il.append(InstructionFactory.createReturn(Type.BOOLEAN));
+		ifNotAllHandled.setTarget(il.append(new PUSH(_cp, false)));
+		il.append(InstructionFactory.createReturn(Type.BOOLEAN));
+		method.setMaxStack();
+		method.setMaxLocals();
+		_cg.addMethod(method.getMethod());
+		il.dispose();
+	}
+	
+	/**
+	 * Creates the method <code>startBuilder</code> that starts the builder thread and registers the shutdown hook. It creates<br>
+	 * <tt>
+	 * private static synchronized void startBuilder() {<br>
+	 * &nbsp;&nbsp;if (builder != null) { LockSupport.unpark(builder); return; }<br>
+	 * &nbsp;&nbsp;Thread thread = new Watermark$Builder();<br>
+	 * &nbsp;&nbsp;thread.setDaemon(true);<br>
+	 * &nbsp;&nbsp;thread.start();<br>
+	 * &nbsp;&nbsp;Thread hook = new Watermark$Builder();<br>
+	 * &nbsp;&nbsp;hook.setDaemon(false);<br>
+	 * &nbsp;&nbsp;Runtime.getRuntime().addShutdownHook(hook);<br>
+	 * &nbsp;&nbsp;builder = thread;<br>
+	 * }</tt>
+	 */
+	private void createStartBuilder(){
+		String builderClassName = _fullClassName+BUILDER_CLASS_SUFFIX;
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(ACC_PRIVATE | ACC_STATIC | ACC_SYNCHRONIZED, Type.VOID, Type.NO_ARGS, new String[] {}, START_BUILDER_NAME, 
+				_fullClassName, il, _cp);
+		il.append(_factory.createFieldAccess(_fullClassName, BUILDER_NAME, THREAD_TYPE, GETSTATIC));
+		il.append(InstructionConstants.DUP);
+		BranchInstruction ifNotStarted = InstructionFactory.createBranchInstruction(IFNULL, null);
+		il.append(ifNotStarted);
+		// Started by another thread in the meantime, which the caller did not see yet
+		il.append(_factory.createInvoke(LOCK_SUPPORT_NAME, "unpark", Type.VOID, new Type[] { THREAD_TYPE }, INVOKESTATIC));
+		BranchInstruction toReturn = InstructionFactory.createBranchInstruction(GOTO, null);
+		il.append(toReturn);
+		ifNotStarted.setTarget(il.append(InstructionConstants.POP));
+		for (int j = 0; j < 2; j++){
+			// first the builder thread, then the shutdown hook
+			boolean isHook = (j == 1);
+			il.append(_factory.createNew(builderClassName));
+			il.append(InstructionConstants.DUP);
+			il.append(_factory.createInvoke(builderClassName, "<init>", Type.VOID, Type.NO_ARGS, INVOKESPECIAL));
+			il.append(InstructionFactory.createStore(Type.OBJECT, j));
+			il.append(InstructionFactory.createLoad(Type.OBJECT, j));
+			il.append(new PUSH(_cp, !isHook));
+			il.append(_factory.createInvoke(THREAD_TYPE.getClassName(), "setDaemon", Type.VOID, new Type[] { Type.BOOLEAN }, INVOKEVIRTUAL));
+			if (isHook){
+				il.append(_factory.createInvoke("java.lang.Runtime", "getRuntime", new ObjectType("java.lang.Runtime"), Type.NO_ARGS, INVOKESTATIC));
+				il.append(InstructionFactory.createLoad(Type.OBJECT, j));
+				il.append(_factory.createInvoke("java.lang.Runtime", "addShutdownHook", Type.VOID, new Type[] { THREAD_TYPE }, INVOKEVIRTUAL));
+			} else {
+				il.append(InstructionFactory.createLoad(Type.OBJECT, j));
+				il.append(_factory.createInvoke(THREAD_TYPE.getClassName(), "start", Type.VOID, Type.NO_ARGS, INVOKEVIRTUAL));
+			}
+		}
+		il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+		il.append(_factory.createFieldAccess(_fullClassName, BUILDER_NAME, THREAD_TYPE, PUTSTATIC));
+		toReturn.setTarget(il.append(InstructionFactory.createReturn(Type.VOID)));
+		method.setMaxStack();
+		method.setMaxLocals();
+		_cg.addMethod(method.getMethod());
+		il.dispose();
+	}
+	
+	/**
+	 * Creates the class of the builder thread if the graph is built in the background. Its <code>run</code> method is<br>
+	 * <tt>
+	 * public void run() {<br>
+	 * &nbsp;&nbsp;while (!Watermark.buildRequested() &amp;&amp; isDaemon()) LockSupport.park();<br>
+	 * }</tt><br>
+	 * The builder thread is a daemon and keeps going until every subgraph has been built, while the shutdown hook is not and only builds once.
+	 * The build methods unpark the builder thread after each request, so it does not wake up unless there is something to build, and
+	 * a trace point that is never hit does not keep it polling.
+	 * @return The finished class.
+	 */
+	private ClassGen createBuilderClass(){
+		String builderClassName = _fullClassName+BUILDER_CLASS_SUFFIX;
+		String fileName = _cg.getFileName();
+		ClassGen cg = new ClassGen(builderClassName, THREAD_TYPE.getClassName(), fileName, ACC_FINAL | ACC_SUPER, new String[] {});
+		ConstantPoolGen cp = cg.getConstantPool();
+		InstructionFactory factory = new InstructionFactory(cg, cp);
+		
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(0, Type.VOID, Type.NO_ARGS, new String[] {}, "<init>", builderClassName, il, cp);
+		il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+		il.append(factory.createInvoke(THREAD_TYPE.getClassName(), "<init>", Type.VOID, Type.NO_ARGS, INVOKESPECIAL));
+		il.append(InstructionFactory.createReturn(Type.VOID));
+		method.setMaxStack();
+		method.setMaxLocals();
+		cg.addMethod(method.getMethod());
+		il.dispose();
+		
+		il = new InstructionList();
+		method = new MethodGen(ACC_PUBLIC, Type.VOID, Type.NO_ARGS, new String[] {}, "run", builderClassName, il, cp);
+		InstructionHandle loop = il.append(factory.createInvoke(_fullClassName, BUILD_REQUESTED_NAME, Type.BOOLEAN, Type.NO_ARGS, INVOKESTATIC));
+		BranchInstruction ifAllBuilt = InstructionFactory.createBranchInstruction(IFNE, null);
+		il.append(ifAllBuilt);
+		il.append(InstructionFactory.createLoad(Type.OBJECT, 0));
+		il.append(factory.createInvoke(THREAD_TYPE.getClassName(), "isDaemon", Type.BOOLEAN, Type.NO_ARGS, INVOKEVIRTUAL));
+		BranchInstruction ifHook = InstructionFactory.createBranchInstruction(IFEQ, null);
+		il.append(ifHook);
+		il.append(factory.createInvoke(LOCK_SUPPORT_NAME, "park", Type.VOID, Type.NO_ARGS, INVOKESTATIC));
+		il.append(InstructionFactory.createBranchInstruction(GOTO, loop));
+		InstructionHandle returnHandle = il.append(InstructionFactory.createReturn(Type.VOID));
+		ifAllBuilt.setTarget(returnHandle);
+		ifHook.setTarget(returnHandle);
+		method.setMaxStack();
+		method.setMaxLocals();
+		cg.addMethod(method.getMethod());
+		il.dispose();
+		return cg;
 	}
 	
 	/**
@@ -405,6 +1066,40 @@ public class WatermarkCreator implements Constants {
 		il.dispose();
 	}
 	
+	/**
+	 * Creates the static initializer for the thread-safe version of the class. It creates <code>array</code> and <code>built</code>, so that
+	 * the JVM's class initialization guarantees that every thread sees the same instances without the build methods having to check for <tt>null</tt>.
+	 */
+	private void createStaticInitializer(){
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(ACC_STATIC, Type.VOID, Type.NO_ARGS, new String[] {}, "<clinit>", _fullClassName, il, _cp);
+		
+		il.append(_factory.createNew(ATOMIC_ARRAY_TYPE));
+		il.append(InstructionConstants.DUP);
+		il.append(new PUSH(_cp, _noOfVertices-1));
+		il.append(_factory.createInvoke(ATOMIC_ARRAY_TYPE.getClassName(), "<init>", Type.VOID, new Type[] { Type.INT }, INVOKESPECIAL));
+		il.append(_factory.createFieldAccess(_fullClassName, ARRAY_NAME, ATOMIC_ARRAY_TYPE, PUTSTATIC));
+		
+		il.append(_factory.createNew(ATOMIC_INT_ARRAY_TYPE));
+		il.append(InstructionConstants.DUP);
+		il.append(new PUSH(_cp, _splitNodes.size()));
+		il.append(_factory.createInvoke(ATOMIC_INT_ARRAY_TYPE.getClassName(), "<init>", Type.VOID, new Type[] { Type.INT }, INVOKESPECIAL));
+		il.append(_factory.createFieldAccess(_fullClassName, BUILT_NAME, ATOMIC_INT_ARRAY_TYPE, PUTSTATIC));
+		
+		if (keepGraphReachable){
+			il.append(_factory.createNew(ATOMIC_INT_TYPE));
+			il.append(InstructionConstants.DUP);
+			il.append(_factory.createInvoke(ATOMIC_INT_TYPE.getClassName(), "<init>", Type.VOID, Type.NO_ARGS, INVOKESPECIAL));
+			il.append(_factory.createFieldAccess(_fullClassName, DONE_NAME, ATOMIC_INT_TYPE, PUTSTATIC));
+		}
+		
+		il.append(InstructionFactory.createReturn(Type.VOID));
+		method.setMaxStack();
+		method.setMaxLocals();
+		_cg.addMethod(method.getMethod());
+		il.dispose();
+	}
+	
 //	/**
 //	 * Creates a <code>public static void main(String[] args)</code> method that calls all buildG# methods in order.
 //	 * This is solely for testing, don't actually leave this in. 
@@ -438,16 +1133,25 @@ public class WatermarkCreator implements Constants {
 		}
 		
 		InstructionList il = new InstructionList();
-		MethodGen method = new MethodGen(ACC_PUBLIC | ACC_STATIC, Type.VOID, Type.NO_ARGS, new String[] {}, "buildG"+i, _fullClassName, il, _cp);
+		MethodGen method = new MethodGen(getBuildMethodFlags(), Type.VOID, Type.NO_ARGS, new String[] {}, getBuildMethodName(i), _fullClassName, il, _cp);
 		
-		createCheckIfArrayNull(il);
+		List<BranchInstruction> toReturn = new ArrayList<BranchInstruction>();
+		if (threadSafe){
+			toReturn = createClaimPart(il, i);
+		} else {
+			createCheckIfArrayNull(il);
+		}
 		
 		// Keep track of the indices that all our local variables have
 		VertexToVarIndexMap vertexToVarIndex = new VertexToVarIndexMap();
 
 		// If this is not G_0
 		if (!thisIsG0){
-			this.createLoadFromArray(il, firstNodeInPrevious, vertexToVarIndex);
+			if (threadSafe){
+				createLoadOrPublish(il, firstNodeInPrevious, vertexToVarIndex);
+			} else {
+				this.createLoadFromArray(il, firstNodeInPrevious, vertexToVarIndex);
+			}
 		}
 		
 		// Create the Nodes of G_i
@@ -492,6 +1196,421 @@ public class WatermarkCreator implements Constants {
 			}
 		}
 		
+		boolean thisIsLast = (i == _splitNodes.size()-1);
+		if (keepGraphReachable && threadSafe){
+			createReleaseIfAllBuilt(il, toReturn);
+		} else if (keepGraphReachable && thisIsLast){
+			// Every entry would be set to null anyway, so just let go of the whole array
+			createRelease(il, vertexToVarIndex);
+		} else if (!threadSafe){
+			// In the thread-safe version, all nodes have been published already
+			createStoreToArray(il, vertexToVarIndex);
+		}
+		// TODO: This is just for testing
+//		il.append(_factory.createPrintln("buildG"+i+" called"));
+		
+		InstructionHandle returnHandle = il.append(InstructionFactory.createReturn(Type.VOID));
+		for (BranchInstruction branch : toReturn){
+			branch.setTarget(returnHandle);
+		}
+		_allocationBounds.add(allocationBounds(nodes.size(), vertexToVarIndex.getLocalVarIndex()));
+		
+		return method;
+	}
+	
+	/**
+	 * Creates the table for the <code>i</code>-th subgraph. It describes exactly what the code created by <tt>createBuildGi(i)</tt> does.
+	 * @param i The index of the subgraph. It goes from 0 to <code>noOfSubgraphs-1</code>.
+	 * @return The table for the <code>i</code>-th subgraph.
+	 */
+	private PartTable createPartTable(int i){
+		List<Integer> nodes = _splitNodes.get(i);
+		boolean thisIsG0 = (i == 0);
+		boolean thisIsLast = (i == _splitNodes.size()-1);
+		Integer lastNodeInGi = nodes.get(nodes.size()-1);
+		Integer firstNodeInPrevious = null;
+		if (!thisIsG0){
+			firstNodeInPrevious = lastNodeInGi-1;
+		}
+		PartTable table = new PartTable();
+		// The slots are assigned just like local variables
+		VertexToVarIndexMap vertexToSlot = new VertexToVarIndexMap();
+		
+		if (!thisIsG0){
+			table.addSlot(firstNodeInPrevious+1);
+			vertexToSlot.put(firstNodeInPrevious);
+		}
+		for (Integer node : nodes){
+			// Only the thread-safe version needs to check whether the nodes of G_i have been published already
+			table.addSlot((threadSafe && (node >= 0)) ? node+1 : 0);
+			vertexToSlot.put(node);
+		}
+		TreeNeighborMap treeNeighbors = new TreeNeighborMap(nodes,_graph);
+		for (Integer vertex : treeNeighbors.keySet()){
+			for (Integer inNeighbor : treeNeighbors.get(vertex)){
+				if (vertexToSlot.get(inNeighbor) == null){
+					table.addSlot(inNeighbor+1);
+					vertexToSlot.put(inNeighbor);
+				}
+			}
+		}
+		
+		if (!thisIsG0){
+			_listEdgeEntries.set(lastNodeInGi, createTableEdge(lastNodeInGi, firstNodeInPrevious, PartTable.FIELD_E1, vertexToSlot, table));
+		}
+		for (int j = 0; j < nodes.size()-1; j++){
+			_listEdgeEntries.set(nodes.get(j), createTableEdge(nodes.get(j), nodes.get(j+1), PartTable.FIELD_E1, vertexToSlot, table));
+		}
+		for (Integer targetVertex : nodes){
+			for (Integer sourceVertex : treeNeighbors.get(targetVertex)){
+				_treeEdgeEntries.set(sourceVertex, createTableEdge(sourceVertex, targetVertex, PartTable.FIELD_E2, vertexToSlot, table));
+			}
+		}
+		
+		if (keepGraphReachable && thisIsLast && !threadSafe){
+			table.setRootSlot(vertexToSlot.get(_noOfVertices-2));
+		} else if (!threadSafe){
+			for (Object o : vertexToSlot.keySet()){
+				Integer j = (Integer) o;
+				if (j < 0){
+					continue;
+				}
+				table.addStore(j, (remainingNeighbors.get(j) > 0) ? vertexToSlot.get(j) : -1);
+			}
+		}
+		_allocationBounds.add(allocationBounds(nodes.size(), vertexToSlot.getLocalVarIndex()));
+		return table;
+	}
+	
+	/**
+	 * Adds an edge to a table, just like <tt>createEdge</tt> adds code for an edge.
+	 * @param sourceVertex The source vertex of the edge.
+	 * @param targetVertex The target vertex of the edge.
+	 * @param field One of <code>PartTable.FIELD_E1</code> and <code>PartTable.FIELD_E2</code>.
+	 * @param vertexToSlot Assigns to each vertex a slot.
+	 * @param table The table that the edge is added to.
+	 * @return The entry of the edge in <code>table</code>.
+	 */
+	private int[] createTableEdge(Integer sourceVertex, Integer targetVertex, int field, VertexToVarIndexMap vertexToSlot, PartTable table){
+		reduceRemainingNeighbors(sourceVertex, targetVertex);
+		return table.addEdge(vertexToSlot.get(sourceVertex), vertexToSlot.get(targetVertex), field);
+	}
+	
+	/**
+	 * Creates the table-driven version of the <code>i</code>-th build method. It merely passes the packed table of the <code>i</code>-th
+	 * subgraph to <code>build</code>. Claiming the method in the thread-safe version and releasing <code>array</code> in the low-footprint
+	 * version work just like in <tt>createBuildGi</tt>.
+	 * @param i The index of the subgraph that is to be created. It goes from 0 to <code>noOfSubgraphs-1</code>.
+	 * @return The build method.
+	 */
+	private MethodGen createTableBuildGi(int i){
+		PartTable table = _partTables.get(i);
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(getBuildMethodFlags(), Type.VOID, Type.NO_ARGS, new String[] {}, getBuildMethodName(i), _fullClassName, il, _cp);
+		
+		List<BranchInstruction> toReturn = new ArrayList<BranchInstruction>();
+		if (threadSafe){
+			toReturn = createClaimPart(il, i);
+		}
+		il.append(new PUSH(_cp, table.pack()));
+		il.append(_factory.createInvoke(_fullClassName, BUILD_NAME, new ArrayType(_nodeType, 1), new Type[] { Type.STRING }, INVOKESTATIC));
+		if (table.getRootSlot() >= 0){
+			il.append(new PUSH(_cp, table.getRootSlot()));
+			il.append(InstructionConstants.AALOAD);
+			il.append(_factory.createFieldAccess(_fullClassName, ROOT_NAME, Type.OBJECT, PUTSTATIC));
+			il.append(InstructionConstants.ACONST_NULL);
+			il.append(_factory.createFieldAccess(_fullClassName, ARRAY_NAME, getArrayType(), PUTSTATIC));
+		} else {
+			il.append(InstructionConstants.POP);
+			if (keepGraphReachable && threadSafe){
+				createReleaseIfAllBuilt(il, toReturn);
+			}
+		}
+		InstructionHandle returnHandle = il.append(InstructionFactory.createReturn(Type.VOID));
+		for (BranchInstruction branch : toReturn){
+			branch.setTarget(returnHandle);
+		}
+		return method;
+	}
+	
+	/**
+	 * Creates the method <code>build</code> that interprets a packed <code>PartTable</code> and returns the nodes in its slots. Essentially, it creates<br>
+	 * <tt>
+	 * private static Watermark[] build(String t) {<br>
+	 * &nbsp;&nbsp;if (array == null) array = new Watermark[n-1]; // not in the thread-safe version<br>
+	 * &nbsp;&nbsp;int p = 0;<br>
+	 * &nbsp;&nbsp;Watermark[] v = new Watermark[t.charAt(p++)];<br>
+	 * &nbsp;&nbsp;for (int j = 0; j &lt; v.length; j++) {<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;int code = t.charAt(p++);<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;Watermark node = (code != 0) ? array[code-1] : null;<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;if (node == null) node = new Watermark(); // published with compareAndSet in the thread-safe version<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;v[j] = node;<br>
+	 * &nbsp;&nbsp;}<br>
+	 * &nbsp;&nbsp;for (int count = t.charAt(p++), j = 0; j &lt; count; j++) {<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;Watermark source = v[t.charAt(p++)];<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;Watermark target = v[t.charAt(p++)];<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;int field = t.charAt(p++);<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;if (field == 1) source.e1 = target; else if (field == 2) source.e2 = target;<br>
+	 * &nbsp;&nbsp;}<br>
+	 * &nbsp;&nbsp;for (int count = t.charAt(p++), j = 0; j &lt; count; j++) {<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;int index = t.charAt(p++);<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;int slot = t.charAt(p++);<br>
+	 * &nbsp;&nbsp;&nbsp;&nbsp;array[index] = (slot != 0) ? v[slot-1] : null;<br>
+	 * &nbsp;&nbsp;}<br>
+	 * &nbsp;&nbsp;return v;<br>
+	 * }</tt>
+	 * @return The method <code>build</code>.
+	 */
+	private MethodGen createBuildInterpreter(){
+		final int tIndex = 0;
+		final int pIndex = 1;
+		final int vIndex = 2;
+		final int countIndex = 3;
+		final int jIndex = 4;
+		final int nodeIndex = 5;
+		final int codeIndex = 6;
+		final int targetIndex = 7;
+		final int slotIndex = 8;
+		
+		InstructionList il = new InstructionList();
+		MethodGen method = new MethodGen(ACC_PRIVATE | ACC_STATIC, new ArrayType(_nodeType, 1), new Type[] { Type.STRING }, new String[] { "t" }, 
+				BUILD_NAME, _fullClassName, il, _cp);
+		if (!threadSafe){
+			createCheckIfArrayNull(il);
+		}
+		il.append(new PUSH(_cp, 0));
+		il.append(InstructionFactory.createStore(Type.INT, pIndex));
+		
+		// the slots
+		createNextChar(il, tIndex, pIndex);
+		il.append(_factory.createNewArray(_nodeType, (short) 1));
+		il.append(InstructionFactory.createStore(Type.OBJECT, vIndex));
+		il.append(new PUSH(_cp, 0));
+		il.append(InstructionFactory.createStore(Type.INT, jIndex));
+		InstructionHandle slotLoop = il.append(InstructionFactory.createLoad(Type.INT, jIndex));
+		il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+		il.append(InstructionConstants.ARRAYLENGTH);
+		BranchInstruction ifSlotsDone = InstructionFactory.createBranchInstruction(IF_ICMPGE, null);
+		il.append(ifSlotsDone);
+		createNextChar(il, tIndex, pIndex);
+		il.append(InstructionFactory.createStore(Type.INT, codeIndex));
+		il.append(InstructionConstants.ACONST_NULL);
+		il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+		il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+		BranchInstruction ifNew = InstructionFactory.createBranchInstruction(IFEQ, null);
+		il.append(ifNew);
+		createLoadArrayEntry(il, codeIndex);
+		il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+		InstructionHandle checkNode = il.append(InstructionFactory.createLoad(Type.OBJECT, nodeIndex));
+		ifNew.setTarget(checkNode);
+		BranchInstruction ifNodeExists = InstructionFactory.createBranchInstruction(IFNONNULL, null);
+		il.append(ifNodeExists);
+		if (threadSafe){
+			// Only publish nodes that have an index in array
+			il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+			BranchInstruction ifPublish = InstructionFactory.createBranchInstruction(IFNE, null);
+			il.append(ifPublish);
+			createNewNode(il);
+			il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+			BranchInstruction gotoStoreSlot = InstructionFactory.createBranchInstruction(GOTO, null);
+			il.append(gotoStoreSlot);
+			InstructionHandle publish = il.append(getArray());
+			ifPublish.setTarget(publish);
+			createArrayIndex(il, codeIndex);
+			il.append(InstructionConstants.ACONST_NULL);
+			createNewNode(il);
+			il.append(_factory.createInvoke(ATOMIC_ARRAY_TYPE.getClassName(), "compareAndSet", Type.BOOLEAN, 
+					new Type[] { Type.INT, Type.OBJECT, Type.OBJECT }, INVOKEVIRTUAL));
+			il.append(InstructionConstants.POP);
+			createLoadArrayEntry(il, codeIndex);
+			il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+			InstructionHandle storeSlot = il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+			gotoStoreSlot.setTarget(storeSlot);
+			ifNodeExists.setTarget(storeSlot);
+		} else {
+			createNewNode(il);
+			il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+			InstructionHandle storeSlot = il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+			ifNodeExists.setTarget(storeSlot);
+		}
+		il.append(InstructionFactory.createLoad(Type.INT, jIndex));
+		il.append(InstructionFactory.createLoad(Type.OBJECT, nodeIndex));
+		il.append(InstructionConstants.AASTORE);
+		il.append(new IINC(jIndex, 1));
+		il.append(InstructionFactory.createBranchInstruction(GOTO, slotLoop));
+		
+		// the edges
+		InstructionHandle edges = createNextChar(il, tIndex, pIndex);
+		ifSlotsDone.setTarget(edges);
+		il.append(InstructionFactory.createStore(Type.INT, countIndex));
+		il.append(new PUSH(_cp, 0));
+		il.append(InstructionFactory.createStore(Type.INT, jIndex));
+		InstructionHandle edgeLoop = il.append(InstructionFactory.createLoad(Type.INT, jIndex));
+		il.append(InstructionFactory.createLoad(Type.INT, countIndex));
+		BranchInstruction ifEdgesDone = InstructionFactory.createBranchInstruction(IF_ICMPGE, null);
+		il.append(ifEdgesDone);
+		il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+		createNextChar(il, tIndex, pIndex);
+		il.append(InstructionConstants.AALOAD);
+		il.append(InstructionFactory.createStore(Type.OBJECT, nodeIndex));
+		il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+		createNextChar(il, tIndex, pIndex);
+		il.append(InstructionConstants.AALOAD);
+		il.append(InstructionFactory.createStore(Type.OBJECT, targetIndex));
+		createNextChar(il, tIndex, pIndex);
+		il.append(InstructionFactory.createStore(Type.INT, codeIndex));
+		il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+		il.append(new PUSH(_cp, PartTable.FIELD_E1));
+		BranchInstruction ifNotE1 = InstructionFactory.createBranchInstruction(IF_ICMPNE, null);
+		il.append(ifNotE1);
+		il.append(InstructionFactory.createLoad(Type.OBJECT, nodeIndex));
+		il.append(InstructionFactory.createLoad(Type.OBJECT, targetIndex));
+		il.append(_factory.createFieldAccess(_fullClassName, E1_NAME, _nodeType, PUTFIELD));
+		BranchInstruction gotoNextEdge = InstructionFactory.createBranchInstruction(GOTO, null);
+		il.append(gotoNextEdge);
+		InstructionHandle notE1 = il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+		ifNotE1.setTarget(notE1);
+		il.append(new PUSH(_cp, PartTable.FIELD_E2));
+		BranchInstruction ifNotE2 = InstructionFactory.createBranchInstruction(IF_ICMPNE, null);
+		il.append(ifNotE2);
+		il.append(InstructionFactory.createLoad(Type.OBJECT, nodeIndex));
+		il.append(InstructionFactory.createLoad(Type.OBJECT, targetIndex));
+		il.append(_factory.createFieldAccess(_fullClassName, E2_NAME, _nodeType, PUTFIELD));
+		InstructionHandle nextEdge = il.append(new IINC(jIndex, 1));
+		gotoNextEdge.setTarget(nextEdge);
+		ifNotE2.setTarget(nextEdge);
+		il.append(InstructionFactory.createBranchInstruction(GOTO, edgeLoop));
+		
+		InstructionHandle end;
+		if (threadSafe){
+			// All nodes have been published already, so there is nothing to store
+			end = il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+			ifEdgesDone.setTarget(end);
+		} else {
+			// the stores
+			InstructionHandle stores = createNextChar(il, tIndex, pIndex);
+			ifEdgesDone.setTarget(stores);
+			il.append(InstructionFactory.createStore(Type.INT, countIndex));
+			il.append(new PUSH(_cp, 0));
+			il.append(InstructionFactory.createStore(Type.INT, jIndex));
+			InstructionHandle storeLoop = il.append(InstructionFactory.createLoad(Type.INT, jIndex));
+			il.append(InstructionFactory.createLoad(Type.INT, countIndex));
+			BranchInstruction ifStoresDone = InstructionFactory.createBranchInstruction(IF_ICMPGE, null);
+			il.append(ifStoresDone);
+			createNextChar(il, tIndex, pIndex);
+			il.append(InstructionFactory.createStore(Type.INT, codeIndex));
+			createNextChar(il, tIndex, pIndex);
+			il.append(InstructionFactory.createStore(Type.INT, slotIndex));
+			il.append(getArray());
+			il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+			il.append(InstructionFactory.createLoad(Type.INT, slotIndex));
+			BranchInstruction ifKeep = InstructionFactory.createBranchInstruction(IFNE, null);
+			il.append(ifKeep);
+			il.append(InstructionConstants.ACONST_NULL);
+			BranchInstruction gotoStore = InstructionFactory.createBranchInstruction(GOTO, null);
+			il.append(gotoStore);
+			InstructionHandle keep = il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+			ifKeep.setTarget(keep);
+			createArrayIndex(il, slotIndex);
+			il.append(InstructionConstants.AALOAD);
+			InstructionHandle store = il.append(InstructionConstants.AASTORE);
+			gotoStore.setTarget(store);
+			il.append(new IINC(jIndex, 1));
+			il.append(InstructionFactory.createBranchInstruction(GOTO, storeLoop));
+			end = il.append(InstructionFactory.createLoad(Type.OBJECT, vIndex));
+			ifStoresDone.setTarget(end);
+		}
+		il.append(InstructionFactory.createReturn(Type.OBJECT));
+		return method;
+	}
+	
+	/**
+	 * Creates code that pushes the next <code>char</code> of the table on the stack and increments the position, i.e. <tt>t.charAt(p++)</tt>.
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param tIndex The local variable index of the table.
+	 * @param pIndex The local variable index of the position.
+	 * @return The first instruction of this code.
+	 */
+	private InstructionHandle createNextChar(InstructionList il, int tIndex, int pIndex){
+		InstructionHandle first = il.append(InstructionFactory.createLoad(Type.OBJECT, tIndex));
+		il.append(InstructionFactory.createLoad(Type.INT, pIndex));
+		il.append(new IINC(pIndex, 1));
+		il.append(_factory.createInvoke("java.lang.String", "charAt", Type.CHAR, new Type[] { Type.INT }, INVOKEVIRTUAL));
+		return first;
+	}
+	
+	/**
+	 * Creates code that pushes a local variable minus 1 on the stack.
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param codeIndex The local variable index.
+	 */
+	private void createArrayIndex(InstructionList il, int codeIndex){
+		il.append(InstructionFactory.createLoad(Type.INT, codeIndex));
+		il.append(new PUSH(_cp, 1));
+		il.append(InstructionConstants.ISUB);
+	}
+	
+	/**
+	 * Creates code that pushes the entry of <code>array</code> at a local variable minus 1 on the stack. 
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param codeIndex The local variable index.
+	 */
+	private void createLoadArrayEntry(InstructionList il, int codeIndex){
+		il.append(getArray());
+		createArrayIndex(il, codeIndex);
+		if (threadSafe){
+			il.append(_factory.createInvoke(ATOMIC_ARRAY_TYPE.getClassName(), "get", Type.OBJECT, new Type[] { Type.INT }, INVOKEVIRTUAL));
+			il.append(_factory.createCheckCast(_nodeType));
+		} else {
+			il.append(InstructionConstants.AALOAD);
+		}
+	}
+	
+	/**
+	 * Creates code that stores the first vertex of the Hamilton path in <code>root</code> and sets <code>array</code> to <tt>null</tt>.
+	 * That vertex must already be stored in a local variable.
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param vertexToVarIndex Assigns to each vertex a local variable index.
+	 */
+	private void createRelease(InstructionList il, VertexToVarIndexMap vertexToVarIndex){
+		int rootIndex = vertexToVarIndex.get(_noOfVertices-2).intValue();
+		il.append(InstructionFactory.createLoad(Type.OBJECT, rootIndex));
+		il.append(_factory.createFieldAccess(_fullClassName, ROOT_NAME, Type.OBJECT, PUTSTATIC));
+		il.append(InstructionConstants.ACONST_NULL);
+		il.append(_factory.createFieldAccess(_fullClassName, ARRAY_NAME, getArrayType(), PUTSTATIC));
+	}
+	
+	/**
+	 * The thread-safe version of <tt>createRelease</tt>. It creates code that counts the finished build methods and, if this was the last
+	 * one, stores the first vertex of the Hamilton path in <code>root</code> and sets <code>array</code> to <tt>null</tt>. Since every build
+	 * method has been claimed by then, no other thread accesses <code>array</code> anymore. Essentially, it creates<br>
+	 * <tt>if (done.incrementAndGet() == noOfSubgraphs) {<br>
+	 * &nbsp;&nbsp;root = array.get(n-2);<br>
+	 * &nbsp;&nbsp;array = null;<br>
+	 * }</tt>
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param toReturn The branch instructions that lead to the end of the method. The branch that skips the release is added to it.
+	 */
+	private void createReleaseIfAllBuilt(InstructionList il, List<BranchInstruction> toReturn){
+		il.append(_factory.createFieldAccess(_fullClassName, DONE_NAME, ATOMIC_INT_TYPE, GETSTATIC));
+		il.append(_factory.createInvoke(ATOMIC_INT_TYPE.getClassName(), "incrementAndGet", Type.INT, Type.NO_ARGS, INVOKEVIRTUAL));
+		il.append(new PUSH(_cp, _splitNodes.size()));
+		BranchInstruction ifNotAllBuilt = InstructionFactory.createBranchInstruction(IF_ICMPNE, null);
+		il.append(ifNotAllBuilt);
+		toReturn.add(ifNotAllBuilt);
+		createAtomicGet(il, _noOfVertices-2);
+		il.append(_factory.createFieldAccess(_fullClassName, ROOT_NAME, Type.OBJECT, PUTSTATIC));
+		il.append(InstructionConstants.ACONST_NULL);
+		il.append(_factory.createFieldAccess(_fullClassName, ARRAY_NAME, getArrayType(), PUTSTATIC));
+	}
+	
+	/**
+	 * Creates code that stores all nodes that were used in a build method in <code>array</code> if they still have neighbors that are
+	 * created by other build methods. Otherwise, their entry is set to <tt>null</tt>.
+	 * @param il The <code>InstructionList</code> that is to be appended to.
+	 * @param vertexToVarIndex Assigns to each vertex a local variable index.
+	 */
+	private void createStoreToArray(InstructionList il, VertexToVarIndexMap vertexToVarIndex){
 		// Go through all vertices that were used in this subgraph
 		Integer index;
 		for (Object o : vertexToVarIndex.keySet()){
@@ -514,13 +1633,6 @@ public class WatermarkCreator implements Constants {
 			// store local var or null in array at index j
 			il.append(InstructionConstants.AASTORE);
 		}
-		// TODO: This is just for testing
-//		il.append(_factory.createPrintln("buildG"+i+" called"));
-		
-		il.append(InstructionFactory.createReturn(Type.VOID));
-		
-		
-		return method;
 	}
 	
 	public static void main(String[] args) throws IOException{
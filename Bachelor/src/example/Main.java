@@ -6,10 +6,14 @@ import java.util.Set;
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 
+import com.sun.jdi.request.EventRequest;
+
 import util.ConfigParser;
 import util.TimeKeeper;
 import encoding.Decoder;
 import extraction.Extractor;
+import extraction.HprofExtractor;
+import extraction.RPGListener;
 
 public class Main {
 
@@ -25,14 +29,14 @@ public class Main {
 		String classPath = parser.classPath();
 		String mainClass = parser.mainClass();
 		String arguments = parser.arguments();
+		int breakpointSuspendPolicy = parser.suspendEventThread() ? EventRequest.SUSPEND_EVENT_THREAD : EventRequest.SUSPEND_ALL;
 		if (args[0].equals("encode")){
 			long w = parser.encodingNumber();
-			String fullClassName = parser.watermarkClass();
 			time = new TimeKeeper("encoding");
 			DirectedGraph<Integer, DefaultEdge> graph = encoding.Encode.encodeWToRPG(w);
 			time.stop();
 
-			embedding.Embedder embedder = new embedding.Embedder(classPath, mainClass, arguments, parser.markMethod());
+			embedding.Embedder embedder = createEmbedder(parser, classPath);
 			int noOfTracePoints = embedder.run();
 			
 			if (noOfTracePoints == 0){
@@ -44,7 +48,7 @@ public class Main {
 			int deleteEdgeNumber = parser.deleteEdgeNumber();
 			
 			time = new TimeKeeper("wmark creation");
-			embedding.WatermarkCreator wmark = new embedding.WatermarkCreator(fullClassName, graph, noOfTracePoints);
+			embedding.WatermarkCreator wmark = createWatermarkCreator(parser, graph, noOfTracePoints);
 			int noOfBuildMethods = wmark.create();
 			for (int num : flipEdgeNumbers){
 				try {
@@ -61,19 +65,52 @@ public class Main {
 				}
 			}
 			time.stop();
+			String impactReportFile = parser.impactReport();
+			embedding.ImpactReport impactReport = (impactReportFile == null) ? null : new embedding.ImpactReport();
 			try {
-				wmark.dump(classPath);
+				wmark.dump(classPath, impactReport);
 			} catch (IllegalStateException e) {
 				// Can never happen because it creates first.
 				e.printStackTrace();
 			}
 			String wmarkClassName = wmark.getClassName();
 			
-			embedder.dump(wmarkClassName, noOfBuildMethods);
+			embedder.dump(wmarkClassName, noOfBuildMethods, impactReport);
+			if (impactReport != null){
+				impactReport.write(impactReportFile);
+				System.out.println("Wrote impact report to "+impactReportFile+", "+impactReport.getFlaggedMethods()+" methods crossed a JIT threshold");
+			}
+			if (parser.stripMarkCalls()){
+				embedder.stripMarkCalls();
+			}
 		}
 		if (args[0].equals("decode")){
-			Extractor ext = new Extractor(classPath, mainClass, arguments);
-			Set<Set<Integer>> rootChildrenSets = ext.run();
+			Set<Set<Integer>> rootChildrenSets;
+			String heapDump = parser.heapDump();
+			if (heapDump != null){
+				rootChildrenSets = new HprofExtractor(heapDump, classPath, Runtime.getRuntime().availableProcessors()).run();
+			} else {
+				Extractor ext = new Extractor(classPath, mainClass, arguments);
+				ext.setEventDispatch(breakpointSuspendPolicy, parser.debuggerWorkers());
+				ext.setConsumers(parser.extractionConsumers());
+				ext.setTypeCache(parser.typeCache());
+				long componentTracking = parser.componentTracking();
+				if (componentTracking > 0){
+					ext.setComponentTracking(componentTracking, new RPGListener() {
+						@Override
+						public void rpgFound(Set<Integer> rootChildren) {
+							System.out.println("The embedded watermark is possibly "+Decoder.decodeRootChildren(rootChildren)
+									+" (found while the program runs)");
+						}
+					});
+				}
+				int snapshotExtraction = parser.snapshotExtraction();
+				if (snapshotExtraction != ConfigParser.NO_SNAPSHOT){
+					ext.setSnapshot(snapshotExtraction, parser.snapshotDelay(), parser.snapshotTrigger());
+					ext.setStableSamples(parser.snapshotStableSamples());
+				}
+				rootChildrenSets = ext.run();
+			}
 			//ext.quitVM();
 
 			time = new TimeKeeper("decoding");
@@ -85,4 +122,41 @@ public class Main {
 		}
 		TimeKeeper.dump();
 	}
+	
+	/**
+	 * Creates an Embedder for the host program of a config and sets all of its tracing options from the config.
+	 * @param parser The config.
+	 * @param classPath The class path of the host program, which is where the watermarked classes are saved to as well.
+	 * @return The Embedder, which has not been run yet.
+	 */
+	public static embedding.Embedder createEmbedder(ConfigParser parser, String classPath){
+		embedding.Embedder embedder = new embedding.Embedder(classPath, parser.mainClass(), parser.arguments(), parser.markMethod());
+		embedder.setAgentTracing(parser.agentTracing());
+		embedder.setTraceFile(parser.traceFile());
+		embedder.setTracingTarget(parser.traceTarget(), parser.traceConfirmation(), parser.traceTimeout());
+		embedder.setAdditionalArguments(parser.additionalArguments(), parser.traceMerge());
+		int breakpointSuspendPolicy = parser.suspendEventThread() ? EventRequest.SUSPEND_EVENT_THREAD : EventRequest.SUSPEND_ALL;
+		embedder.setEventDispatch(breakpointSuspendPolicy, parser.debuggerWorkers());
+		int staticTracePoints = parser.staticTracePoints();
+		embedder.setStaticScan(staticTracePoints != ConfigParser.NO_SCAN, staticTracePoints == ConfigParser.SCAN_CONFIRM);
+		return embedder;
+	}
+	
+	/**
+	 * Creates a WatermarkCreator for the watermark class of a config and sets all of its generation options from the config.
+	 * @param parser The config.
+	 * @param graph The graph to be embedded.
+	 * @param noOfTracePoints The number of trace points that were found.
+	 * @return The WatermarkCreator, which has not created the class yet.
+	 */
+	public static embedding.WatermarkCreator createWatermarkCreator(ConfigParser parser, DirectedGraph<Integer,DefaultEdge> graph,
+			int noOfTracePoints){
+		embedding.WatermarkCreator wmark = new embedding.WatermarkCreator(parser.watermarkClass(), graph, noOfTracePoints,
+				parser.bytecodeBudget());
+		wmark.setThreadSafe(parser.threadSafeWatermark());
+		wmark.setKeepGraphReachable(parser.reachableWatermark());
+		wmark.setTableDriven(parser.tableDrivenWatermark());
+		wmark.setDeferred(parser.deferredWatermark());
+		return wmark;
+	}
 }
@@ -0,0 +1,69 @@
+package example;
+
+/**
+ * A small host program for watermarking benchmarks. It calls the mark methods in each of the shapes that the embedder has to deal with:
+ * a single call without argument, a single call with a <code>String</code> argument and a call with an <code>int</code> argument that is
+ * reached with many different values, which turns into a chain of comparisons once the trace points are replaced.<br>
+ * Each shape has a call site of its own in one of the entry points <code>markNoArg</code>, <code>markInt</code> and
+ * <code>markString</code>, so that <code>benchmark.OverheadBenchmark</code> can call the replaced call sites directly.<br>
+ * Use <code>example.Marker.mark</code> as the mark method. The only argument is the number of loop iterations, 16 by default.
+ * @author Kaspar
+ *
+ */
+public class MarkHost {
+	
+	public static void main(String[] args){
+		int n = 16;
+		if (args.length > 0){
+			n = Integer.parseInt(args[0]);
+		}
+		markNoArg();
+		long sum = 0;
+		for (int i = 0; i < n; i++){
+			markInt(i);
+			sum += collatzSteps(i+1);
+		}
+		String name = (sum % 2 == 0) ? "even" : "odd";
+		markString(name);
+		if (sum < 0){
+			System.out.println(sum);
+		}
+	}
+	
+	/**
+	 * The call site without argument.
+	 */
+	public static void markNoArg(){
+		Marker.mark();
+	}
+	
+	/**
+	 * The call site with an <code>int</code> argument.
+	 * @param i The argument.
+	 */
+	public static void markInt(int i){
+		Marker.mark(i);
+	}
+	
+	/**
+	 * The call site with a <code>String</code> argument.
+	 * @param s The argument.
+	 */
+	public static void markString(String s){
+		Marker.mark(s);
+	}
+	
+	/**
+	 * Counts the steps of the Collatz sequence from a number down to 1, just to have something to do between the mark calls.
+	 * @param x A positive number.
+	 * @return The number of steps.
+	 */
+	private static int collatzSteps(long x){
+		int steps = 0;
+		while (x != 1){
+			x = (x % 2 == 0) ? x / 2 : 3 * x + 1;
+			steps++;
+		}
+		return steps;
+	}
+}
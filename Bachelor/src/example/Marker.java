@@ -0,0 +1,18 @@
+package example;
+
+/**
+ * The mark methods for <code>MarkHost</code>. They do nothing at all; calls to them only serve to identify trace points.
+ * @author Kaspar
+ *
+ */
+public class Marker {
+	
+	public static void mark(){
+	}
+	
+	public static void mark(int i){
+	}
+	
+	public static void mark(String s){
+	}
+}
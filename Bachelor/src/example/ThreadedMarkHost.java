@@ -0,0 +1,58 @@
+package example;
+
+/**
+ * A host program whose mark calls are spread over several threads, for benchmarking how tracing deals with multi-threaded programs.
+ * Every thread calls the mark method with its own range of <code>int</code> values, so no two calls are duplicates.<br>
+ * Use <code>example.Marker.mark</code> as the mark method. The arguments are the number of threads, 4 by default, and the number of mark
+ * calls per thread, 200 by default.
+ * @author Kaspar
+ *
+ */
+public class ThreadedMarkHost {
+	
+	public static void main(String[] args) throws InterruptedException{
+		int noOfThreads = 4;
+		int n = 200;
+		if (args.length > 0){
+			noOfThreads = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1){
+			n = Integer.parseInt(args[1]);
+		}
+		Thread[] threads = new Thread[noOfThreads];
+		for (int t = 0; t < noOfThreads; t++){
+			final int first = t * n;
+			final int last = first + n;
+			threads[t] = new Thread(){
+				@Override
+				public void run(){
+					long sum = 0;
+					for (int i = first; i < last; i++){
+						Marker.mark(i);
+						sum += work(i);
+					}
+					if (sum < 0){
+						System.out.println(sum);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads){
+			thread.join();
+		}
+	}
+	
+	/**
+	 * Does a bit of arithmetic between the mark calls, so that the threads have something to do while another thread is suspended.
+	 * @param x Any number.
+	 * @return Some number.
+	 */
+	private static long work(int x){
+		long result = x;
+		for (int i = 0; i < 20000; i++){
+			result = (result * 31 + i) % 1000003;
+		}
+		return result;
+	}
+}
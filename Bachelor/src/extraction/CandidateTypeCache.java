@@ -0,0 +1,232 @@
+package extraction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.ReferenceType;
+
+/**
+ * Remembers across runs which types could be nodes of an RPG and which of their fields point to objects of the same type, so that a
+ * repeated extraction of the same program does not have to ask the target VM for every field and its type. A type is identified by its
+ * name and a hash of its class file and those of its superclasses on the class path, since inherited fields count as well, so a type is
+ * simply looked at again if any of them changed. Types whose class file is not on the class path are never cached.<br>
+ * The cache is stored as a properties file that maps "name@hash" to the two fields as "declaringType#field", separated by a comma, or to
+ * nothing if the type is not a candidate. It may be used by several threads at once.
+ * @author Kaspar
+ *
+ */
+public class CandidateTypeCache {
+	private static final String NOT_CACHED = "";
+	private final String fileName;
+	private final String classPath;
+	private final Map<String,String> entries = new ConcurrentHashMap<String,String>();
+	// The class files do not change during a run, so every type is only hashed once
+	private final Map<String,String> classNameToKey = new ConcurrentHashMap<String,String>();
+	private volatile boolean changed = false;
+
+	/**
+	 * Creates a new CandidateTypeCache and loads the types from the file if it exists.
+	 * @param fileName The file that the cache is stored in.
+	 * @param classPath The directory from which the class files of the program are loaded.
+	 * @throws IOException If the file exists but can not be read.
+	 */
+	public CandidateTypeCache(String fileName, String classPath) throws IOException {
+		this.fileName = fileName;
+		this.classPath = classPath;
+		File file = new File(fileName);
+		if (file.isFile()){
+			Properties prop = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				prop.load(in);
+			} finally {
+				in.close();
+			}
+			for (String key : prop.stringPropertyNames()){
+				entries.put(key, prop.getProperty(key));
+			}
+		}
+	}
+
+	/**
+	 * Looks up the fields of a type that point to objects of the same type.
+	 * @param type The type.
+	 * @return <tt>null</tt> if the type is not cached, an empty list if it is not a candidate and the two fields otherwise.
+	 */
+	public List<Field> getSameTypeFields(ReferenceType type){
+		String key = getKey(type);
+		String value = (key == null) ? null : entries.get(key);
+		if (value == null){
+			return null;
+		}
+		if (value.isEmpty()){
+			return Collections.emptyList();
+		}
+		List<Field> result = new ArrayList<Field>();
+		for (String fieldName : value.split(",")){
+			int i = fieldName.indexOf('#');
+			Field field = findField(type, fieldName.substring(0, i), fieldName.substring(i+1));
+			if (field == null){
+				// A superclass that is not on the class path changed, so look at it again
+				return null;
+			}
+			result.add(field);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds a field that is declared by a type or one of its superclasses.
+	 * @param type The type.
+	 * @param declaringTypeName The name of the type that declares the field.
+	 * @param fieldName The name of the field.
+	 * @return The field or <tt>null</tt> if there is no such field.
+	 */
+	private static Field findField(ReferenceType type, String declaringTypeName, String fieldName){
+		ReferenceType current = type;
+		while ((current != null) && !current.name().equals(declaringTypeName)){
+			current = getSuperclass(current);
+		}
+		if (current == null){
+			return null;
+		}
+		for (Field field : current.fields()){
+			if (field.name().equals(fieldName)){
+				return field;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers whether a type is a candidate.
+	 * @param type The type.
+	 * @param sameTypeFields The two fields of the type that point to objects of the same type or <tt>null</tt> if it is not a candidate.
+	 */
+	public void put(ReferenceType type, List<Field> sameTypeFields){
+		String key = getKey(type);
+		if (key == null){
+			return;
+		}
+		StringBuilder value = new StringBuilder();
+		if (sameTypeFields != null){
+			for (Field field : sameTypeFields){
+				if (value.length() > 0){
+					value.append(',');
+				}
+				value.append(field.declaringType().name()).append('#').append(field.name());
+			}
+		}
+		if (!value.toString().equals(entries.put(key, value.toString()))){
+			changed = true;
+		}
+	}
+
+	/**
+	 * Returns the key of a type, which consists of its name and the hash of its class file and those of its superclasses on the class path.
+	 * Superclasses that are not on the class path, e.g. those of the Java platform, are left out.
+	 * @param type The type.
+	 * @return The key or <tt>null</tt> if there is no class file for the type on the class path.
+	 */
+	private String getKey(ReferenceType type){
+		String className = type.name();
+		String key = classNameToKey.get(className);
+		if (key == null){
+			key = NOT_CACHED;
+			if (getClassFile(className).isFile()){
+				MessageDigest digest = newDigest();
+				try {
+					for (ReferenceType current = type; current != null; current = getSuperclass(current)){
+						File file = getClassFile(current.name());
+						if (file.isFile()){
+							digest.update(Files.readAllBytes(file.toPath()));
+						}
+					}
+					key = className+"@"+toHex(digest.digest());
+				} catch (IOException e) {
+					// Then it is just not cached
+				}
+			}
+			classNameToKey.put(className, key);
+		}
+		return key.isEmpty() ? null : key;
+	}
+
+	/**
+	 * Returns the class file of a type on the class path.
+	 * @param className The fully qualified name of the type.
+	 * @return The class file, which need not exist.
+	 */
+	private File getClassFile(String className){
+		return new File(classPath, className.replace('.', '/')+".class");
+	}
+
+	/**
+	 * Returns the superclass of a type.
+	 * @param type The type.
+	 * @return The superclass or <tt>null</tt> if there is none or the type is no class.
+	 */
+	private static ReferenceType getSuperclass(ReferenceType type){
+		return (type instanceof ClassType) ? ((ClassType) type).superclass() : null;
+	}
+
+	/**
+	 * Creates a new SHA-1 digest.
+	 * @return The digest.
+	 */
+	private static MessageDigest newDigest(){
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a hash in hexadecimal.
+	 * @param hash The hash.
+	 * @return The hash in hexadecimal.
+	 */
+	private static String toHex(byte[] hash){
+		StringBuilder result = new StringBuilder();
+		for (byte b : hash){
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Writes the cache to its file if anything new was learned since it was loaded.
+	 * @throws IOException If the file can not be written.
+	 */
+	public synchronized void save() throws IOException{
+		if (!changed){
+			return;
+		}
+		Properties prop = new Properties();
+		prop.putAll(entries);
+		OutputStream out = new FileOutputStream(fileName);
+		try {
+			prop.store(out, "Candidate types for extraction");
+		} finally {
+			out.close();
+		}
+		changed = false;
+	}
+}
@@ -0,0 +1,133 @@
+package extraction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+
+/**
+ * Keeps track of which types of one target VM could be nodes of an RPG, i.e. have exactly two fields pointing to objects of the same type.
+ * Every extraction has its own instance, so that nothing is left over once its target VM is gone. Breakpoints may be processed
+ * concurrently, in which case a type may be looked at twice, with the same result.
+ * @author Kaspar
+ *
+ */
+public class CandidateTypes {
+	// The types that have exactly two fields pointing to objects of the same type, mapped to exactly those fields
+	private final Map<ReferenceType,List<Field>> validTypesToSameTypeFields = new ConcurrentHashMap<ReferenceType,List<Field>>();
+	// To make checking much faster, save all the invalid types
+	private final Set<ReferenceType> invalidTypes = Collections.newSetFromMap(new ConcurrentHashMap<ReferenceType,Boolean>());
+	private CandidateTypeCache cache = null;
+
+	/**
+	 * Sets a cache from earlier runs which is asked before the target VM and told about new types. This must be called before any type
+	 * is checked.
+	 * @param cache The cache or <tt>null</tt> if there is none.
+	 */
+	public void setCache(CandidateTypeCache cache){
+		this.cache = cache;
+	}
+
+	/**
+	 * Checks if the provided ObjectReference could be the node of a reducible permutation graph. This check is very
+	 * superficial and only checks the Fields of the ObjectReference's reference type, not the values of those Fields. Use
+	 * <tt>ObjectNode.updateChildren</tt> afterwards if the values are needed.
+	 * @param or The ObjectReference referencing an object in the target VM.
+	 * @return A new ObjectNode if the argument could be the node of an RPG; <tt>null</tt> otherwise.
+	 */
+	public ObjectNode checkIfValidRPGNode(ObjectReference or){
+		ReferenceType type = or.referenceType();
+		if (isValidType(type)){
+			return new ObjectNode(or, type, validTypesToSameTypeFields.get(type));
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a node for an instance of a type that is already known to be valid, which saves asking the target VM for its type.
+	 * @param or The ObjectReference referencing an object in the target VM.
+	 * @param type The type of <tt>or</tt>, for which <tt>isValidType</tt> returned <tt>true</tt>.
+	 * @return A new ObjectNode.
+	 */
+	ObjectNode ofValidType(ObjectReference or, ReferenceType type){
+		return new ObjectNode(or, type, validTypesToSameTypeFields.get(type));
+	}
+
+	/**
+	 * Returns the fields of a valid type that point to objects of the same type.
+	 * @param type The type, for which <tt>isValidType</tt> returned <tt>true</tt>.
+	 * @return The two fields.
+	 */
+	List<Field> getSameTypeFields(ReferenceType type){
+		return validTypesToSameTypeFields.get(type);
+	}
+
+	/**
+	 * Tests if the type is valid for Watermark instances, i.e. has two same type fields. Calling this method on a type speeds up future calls.
+	 * @param type The ReferenceType
+	 * @return <tt>true</tt> if instances of this type could be Watermark instances, <tt>false</tt> otherwise.
+	 */
+	public boolean isValidType(ReferenceType type){
+		if (invalidTypes.contains(type)){
+			return false;
+		}
+		// If we know that the type is already valid, just pass it on and be done with it.
+		if (validTypesToSameTypeFields.containsKey(type)){
+			return true;
+		}
+		List<Field> sameTypeFields = (cache == null) ? null : cache.getSameTypeFields(type);
+		if (sameTypeFields == null){
+			sameTypeFields = findSameTypeFields(type);
+			if (cache != null){
+				cache.put(type, sameTypeFields);
+			}
+		} else if (sameTypeFields.isEmpty()){
+			sameTypeFields = null;
+		}
+		if (sameTypeFields == null){
+			invalidTypes.add(type);
+			return false;
+		}
+		validTypesToSameTypeFields.put(type, sameTypeFields);
+		return true;
+	}
+
+	/**
+	 * Asks the target VM for the fields of a type and their types.
+	 * @param type The ReferenceType
+	 * @return The two fields that point to objects of the same type or <tt>null</tt> if there are not exactly two.
+	 */
+	private static List<Field> findSameTypeFields(ReferenceType type){
+		List<Field> sameTypeFields = new ArrayList<Field>();
+		List<Field> fields = type.allFields();
+		int countOfSameTypeFields = 0;
+		for (Field f : fields){
+			// The outneighbor's type must be the same as this node's
+			try {
+				if (f.type().equals(type)){
+					sameTypeFields.add(f);
+					countOfSameTypeFields++;
+					// only up to 2 edges are allowed
+					if (countOfSameTypeFields > 2){
+						break;
+					}
+				}
+			} catch (ClassNotLoadedException e) {
+				// We only care about the ones that are the same type as this one, so the relevant ones MUST be loaded
+			}
+
+		}
+		// My Watermark instances always have two fields of type Watermark
+		if (countOfSameTypeFields != 2){
+			return null;
+		}
+		return sameTypeFields;
+	}
+}
@@ -0,0 +1,114 @@
+package extraction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jdi.ReferenceType;
+
+import util.TimeKeeper;
+
+/**
+ * Resolves the children of many <code>ObjectNode</code>s at once. The nodes are grouped by their type, whose two fields of the same type
+ * every node already knows, and every node then costs a single request to the target VM, which reads both fields. Since
+ * each request mostly waits for the answer of the target VM, several of them are sent concurrently by a pool of threads.<br>
+ * The number of requests and their mean latency are counted and printed after every call to <tt>resolve</tt>.
+ * @author Kaspar
+ *
+ */
+class ChildResolver {
+	// The number of nodes of the same type that one thread resolves in a row
+	private static final int BATCH_SIZE = 256;
+	private final int noOfThreads;
+	private final AtomicLong roundTrips = new AtomicLong();
+	private final AtomicLong latencyNanos = new AtomicLong();
+
+	/**
+	 * Creates a new ChildResolver.
+	 * @param noOfThreads The number of requests that are sent concurrently.
+	 */
+	public ChildResolver(int noOfThreads) {
+		this.noOfThreads = Math.max(1, noOfThreads);
+	}
+
+	/**
+	 * Resolves the children of some nodes, none of which may be a dummy node. This returns once every one of them is resolved.
+	 * @param nodes The nodes.
+	 */
+	public void resolve(Collection<ObjectNode> nodes){
+		TimeKeeper time = new TimeKeeper("child resolution");
+		long roundTripsBefore = roundTrips.get();
+		long latencyBefore = latencyNanos.get();
+		Map<ReferenceType,List<ObjectNode>> typeToNodes = new LinkedHashMap<ReferenceType,List<ObjectNode>>();
+		for (ObjectNode node : nodes){
+			List<ObjectNode> sameType = typeToNodes.get(node.type);
+			if (sameType == null){
+				sameType = new ArrayList<ObjectNode>();
+				typeToNodes.put(node.type, sameType);
+			}
+			sameType.add(node);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(noOfThreads);
+		for (Map.Entry<ReferenceType,List<ObjectNode>> entry : typeToNodes.entrySet()){
+			List<ObjectNode> sameType = entry.getValue();
+			for (int i = 0; i < sameType.size(); i += BATCH_SIZE){
+				final List<ObjectNode> batch = sameType.subList(i, Math.min(i + BATCH_SIZE, sameType.size()));
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						resolveBatch(batch);
+					}
+				});
+			}
+		}
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)){
+				// Keep waiting, every request ends once the target VM is gone
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		time.stop();
+		long requests = roundTrips.get() - roundTripsBefore;
+		double meanLatency = (requests == 0) ? 0 : (double) (latencyNanos.get() - latencyBefore) / requests / 1000000;
+		System.out.println("Resolved "+nodes.size()+" nodes of "+typeToNodes.size()+" types with "+requests+" round trips, "
+				+meanLatency+" ms each");
+	}
+
+	/**
+	 * Resolves the children of nodes of the same type one after the other.
+	 * @param batch The nodes.
+	 */
+	private void resolveBatch(List<ObjectNode> batch){
+		for (ObjectNode node : batch){
+			long start = System.nanoTime();
+			node.updateChildren();
+			latencyNanos.addAndGet(System.nanoTime() - start);
+			roundTrips.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of requests sent to the target VM so far.
+	 * @return The number of round trips.
+	 */
+	public long getRoundTrips(){
+		return roundTrips.get();
+	}
+
+	/**
+	 * Returns the mean time that a request to the target VM took so far.
+	 * @return The mean latency in milliseconds.
+	 */
+	public double getMeanLatency(){
+		long requests = roundTrips.get();
+		return (requests == 0) ? 0 : (double) latencyNanos.get() / requests / 1000000;
+	}
+}
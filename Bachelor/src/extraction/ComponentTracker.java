@@ -0,0 +1,292 @@
+package extraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+
+import util.GraphStructureException;
+import util.LongIntMap;
+import extraction.fixing.PartialRPG;
+
+/**
+ * Keeps track of the weakly connected components of the nodes while their edges are set in the running program, so that RPGs can be
+ * found before it ends. The nodes are only known by their unique IDs, which are mapped to consecutive indices. The components are kept
+ * in a union-find structure, and every component keeps a list of its nodes and edges that is concatenated when components are merged.<br>
+ * Every interval, each component that changed is looked at if it has the size of an RPG, i.e. at least 4 nodes and between 2n-4 and 2n-2
+ * edges, and every new RPG is handed to an <code>RPGListener</code>. Every field has at most one edge, which is reused when the field is
+ * set again, so there are never more than twice as many edges as nodes, however often the fields are written. Components can not be
+ * split again, though, so if an edge is replaced, the component may stay larger than it is. What is found here is therefore only a
+ * preview; the extraction after the program ended is still the one that counts.
+ * @author Kaspar
+ *
+ */
+public class ComponentTracker {
+	private static final int INITIAL_CAPACITY = 64;
+	private final long interval;
+	private final RPGListener listener;
+	private Timer timer = null;
+
+	private final LongIntMap idToIndex = new LongIntMap();
+	private int noOfNodes = 0;
+	// Indexed by node; all but the first two are only valid for roots of the union-find structure
+	private int[] parent = new int[INITIAL_CAPACITY];
+	private int[] nextNode = new int[INITIAL_CAPACITY];
+	private int[] lastNode = new int[INITIAL_CAPACITY];
+	private int[] componentSize = new int[INITIAL_CAPACITY];
+	private int[] componentEdges = new int[INITIAL_CAPACITY];
+	private int[] firstEdge = new int[INITIAL_CAPACITY];
+	private int[] lastEdge = new int[INITIAL_CAPACITY];
+
+	private int noOfEdges = 0;
+	// Indexed by edge
+	private int[] edgeSource = new int[INITIAL_CAPACITY];
+	private int[] edgeTarget = new int[INITIAL_CAPACITY];
+	private int[] nextEdge = new int[INITIAL_CAPACITY];
+	private boolean[] edgeGone = new boolean[INITIAL_CAPACITY];
+	// Maps 2*node+slot to the edge of the field with that slot of the node, which may be gone if the field is null now
+	private final LongIntMap fieldToEdge = new LongIntMap();
+
+	private final Set<Integer> changedComponents = new HashSet<Integer>();
+	private final Set<Set<Integer>> found = new HashSet<Set<Integer>>();
+
+	/**
+	 * Creates a new ComponentTracker.
+	 * @param interval The time in milliseconds between two looks at the components that changed.
+	 * @param listener The listener that is told about the RPGs.
+	 */
+	public ComponentTracker(long interval, RPGListener listener) {
+		this.interval = interval;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts looking at the components every interval.
+	 */
+	public synchronized void start(){
+		if (timer != null){
+			throw new IllegalStateException("The component tracker has already been started.");
+		}
+		timer = new Timer("component tracking", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				lookForRPGs();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Stops looking at the components after looking at them one last time.
+	 */
+	public void stop(){
+		synchronized (this) {
+			if (timer != null){
+				timer.cancel();
+			}
+		}
+		lookForRPGs();
+	}
+
+	/**
+	 * Sets a field of a node that points to another node of the same type, which replaces the edge that the field was before. The field
+	 * keeps its edge, so that setting it again does not need any more memory.
+	 * @param id The unique ID of the node.
+	 * @param slot Which of the two fields it is, either 0 or 1.
+	 * @param childId The unique ID of the node that the field now points to or 0 if it is <tt>null</tt> or not a node.
+	 */
+	public synchronized void setChild(long id, int slot, long childId){
+		int node = indexOf(id);
+		long field = 2L*node + slot;
+		int edge = fieldToEdge.get(field);
+		if ((edge != LongIntMap.NO_VALUE) && !edgeGone[edge]){
+			edgeGone[edge] = true;
+			int root = find(node);
+			componentEdges[root]--;
+			changedComponents.add(root);
+		}
+		if (childId == 0){
+			return;
+		}
+		int child = indexOf(childId);
+		boolean isNew = (edge == LongIntMap.NO_VALUE);
+		if (isNew){
+			edge = newEdge(node, child);
+			fieldToEdge.put(field, edge);
+		} else {
+			// The old edge is still in the list of the node's component, so it can simply point somewhere else
+			edgeTarget[edge] = child;
+			edgeGone[edge] = false;
+		}
+		int root = union(node, child);
+		if (isNew){
+			if (firstEdge[root] == -1){
+				firstEdge[root] = edge;
+			} else {
+				nextEdge[lastEdge[root]] = edge;
+			}
+			lastEdge[root] = edge;
+		}
+		componentEdges[root]++;
+		changedComponents.add(root);
+	}
+
+	/**
+	 * Returns the index of a node, adding it as a component of its own if it is new.
+	 * @param id The unique ID of the node.
+	 * @return The index.
+	 */
+	private int indexOf(long id){
+		int node = idToIndex.get(id);
+		if (node != LongIntMap.NO_VALUE){
+			return node;
+		}
+		node = noOfNodes;
+		noOfNodes++;
+		if (node == parent.length){
+			int capacity = 2*parent.length;
+			parent = Arrays.copyOf(parent, capacity);
+			nextNode = Arrays.copyOf(nextNode, capacity);
+			lastNode = Arrays.copyOf(lastNode, capacity);
+			componentSize = Arrays.copyOf(componentSize, capacity);
+			componentEdges = Arrays.copyOf(componentEdges, capacity);
+			firstEdge = Arrays.copyOf(firstEdge, capacity);
+			lastEdge = Arrays.copyOf(lastEdge, capacity);
+		}
+		idToIndex.put(id, node);
+		parent[node] = node;
+		nextNode[node] = -1;
+		lastNode[node] = node;
+		componentSize[node] = 1;
+		componentEdges[node] = 0;
+		firstEdge[node] = -1;
+		lastEdge[node] = -1;
+		return node;
+	}
+
+	/**
+	 * Adds an edge that does not belong to any component yet.
+	 * @param source The index of the source node.
+	 * @param target The index of the target node.
+	 * @return The index of the edge.
+	 */
+	private int newEdge(int source, int target){
+		int edge = noOfEdges;
+		noOfEdges++;
+		if (edge == edgeSource.length){
+			int capacity = 2*edgeSource.length;
+			edgeSource = Arrays.copyOf(edgeSource, capacity);
+			edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+			nextEdge = Arrays.copyOf(nextEdge, capacity);
+			edgeGone = Arrays.copyOf(edgeGone, capacity);
+		}
+		edgeSource[edge] = source;
+		edgeTarget[edge] = target;
+		nextEdge[edge] = -1;
+		edgeGone[edge] = false;
+		return edge;
+	}
+
+	/**
+	 * Finds the root of the component of a node, halving the path to it on the way.
+	 * @param node The index of the node.
+	 * @return The index of the root.
+	 */
+	private int find(int node){
+		while (parent[node] != node){
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Merges the components of two nodes, hanging the smaller one below the larger one.
+	 * @param a The index of one node.
+	 * @param b The index of the other node.
+	 * @return The index of the root of the merged component.
+	 */
+	private int union(int a, int b){
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB){
+			return rootA;
+		}
+		if (componentSize[rootA] < componentSize[rootB]){
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		parent[rootB] = rootA;
+		componentSize[rootA] += componentSize[rootB];
+		componentEdges[rootA] += componentEdges[rootB];
+		nextNode[lastNode[rootA]] = rootB;
+		lastNode[rootA] = lastNode[rootB];
+		if (firstEdge[rootB] != -1){
+			if (firstEdge[rootA] == -1){
+				firstEdge[rootA] = firstEdge[rootB];
+			} else {
+				nextEdge[lastEdge[rootA]] = firstEdge[rootB];
+			}
+			lastEdge[rootA] = lastEdge[rootB];
+		}
+		changedComponents.remove(rootB);
+		return rootA;
+	}
+
+	/**
+	 * Looks at every component that changed since the last look and tells the listener about the new RPGs among them.
+	 */
+	private void lookForRPGs(){
+		List<PartialRPG> candidates = new ArrayList<PartialRPG>();
+		synchronized (this) {
+			for (int root : changedComponents){
+				int n = componentSize[root];
+				int m = componentEdges[root];
+				if ((n >= 4) && (m >= 2*n-4) && (m <= 2*n-2)){
+					try {
+						candidates.add(new PartialRPG(getComponent(root)));
+					} catch (GraphStructureException e) {
+						// Replaced edges made it look like an RPG
+					}
+				}
+			}
+			changedComponents.clear();
+		}
+		// The program runs on, so the RPGs are checked outside of the lock of the components
+		synchronized (found) {
+			for (PartialRPG candidate : candidates){
+				Set<Integer> rootChildren = candidate.checkForIntegrityAndGetRootChildren();
+				if ((rootChildren != null) && found.add(rootChildren)){
+					listener.rpgFound(rootChildren);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies a component into a graph, leaving out the edges that are gone, loops and multiple edges.
+	 * @param root The index of the root of the component.
+	 * @return The component.
+	 */
+	private SimpleDirectedGraph<Integer,DefaultEdge> getComponent(int root){
+		SimpleDirectedGraph<Integer,DefaultEdge> component = new SimpleDirectedGraph<Integer,DefaultEdge>(DefaultEdge.class);
+		for (int node = root; node != -1; node = nextNode[node]){
+			component.addVertex(node);
+		}
+		for (int edge = firstEdge[root]; edge != -1; edge = nextEdge[edge]){
+			int source = edgeSource[edge];
+			int target = edgeTarget[edge];
+			if (!edgeGone[edge] && (source != target) && !component.containsEdge(source, target)){
+				component.addEdge(source, target);
+			}
+		}
+		return component;
+	}
+}
@@ -1,6 +1,7 @@
 package extraction;
 
 import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.request.EventRequest;
 
 import util.VMLauncher;
 
@@ -26,9 +27,31 @@ public class ExtractVMLauncher extends VMLauncher {
 	 * @param size The size of the ring buffer.
 	 */
 	public ExtractVMLauncher(String classPath, String className, String args, int size) {
+		this(classPath, className, args, size, EventRequest.SUSPEND_ALL, 1, 1, null, null);
+	}
+	
+	/**
+	 * Creates a new <code>ExtractVMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and arguments
+	 * <code>args</code>. Furthermore, an <code>ObjectConstructionThread</code> with the specified event dispatch (see
+	 * <code>QueueThread.setEventDispatch</code>), number of consumers, type cache and component tracker is started.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param size The size of the ring buffer.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints.
+	 * @param noOfWorkers The number of threads that process breakpoints.
+	 * @param noOfConsumers The number of threads that turn constructed objects into nodes.
+	 * @param typeCache The cache of the types that could be nodes or <tt>null</tt> if there is none.
+	 * @param tracker The tracker that looks for RPGs while the program runs or <tt>null</tt> if there is none.
+	 */
+	public ExtractVMLauncher(String classPath, String className, String args, int size, int breakpointSuspendPolicy, int noOfWorkers,
+			int noOfConsumers, CandidateTypeCache typeCache, ComponentTracker tracker) {
 		super(classPath, className, args);
 		VirtualMachine vm = getVM();
-		oct = new ObjectConstructionThread(vm,excludes,size);
+		oct = new ObjectConstructionThread(vm,excludes,size,noOfConsumers);
+		oct.setTypeCache(typeCache);
+		oct.setComponentTracker(tracker);
+		oct.setEventDispatch(breakpointSuspendPolicy, noOfWorkers);
 		oct.start();
 		vm.resume();	
 	}
@@ -0,0 +1,91 @@
+package extraction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Drives many extractions at the same time, e.g. of different programs. The programs themselves run in their own VMs and each one has
+ * a thread that processes its events, but no thread waits for a program to end: a fixed number of threads launch the programs and look
+ * for RPGs in whichever of them ended, so dozens of extractions only need as many threads as there are cores.
+ * @author Kaspar
+ *
+ */
+public class ExtractionScheduler {
+	private final ExecutorService executor;
+	// The sessions that have not finished yet, whose last step still needs the executor
+	private final Set<CompletableFuture<Set<Set<Integer>>>> running =
+			Collections.newSetFromMap(new ConcurrentHashMap<CompletableFuture<Set<Set<Integer>>>,Boolean>());
+
+	/**
+	 * Creates a new ExtractionScheduler.
+	 * @param noOfThreads The number of threads that launch programs and look for RPGs.
+	 */
+	public ExtractionScheduler(int noOfThreads) {
+		executor = Executors.newFixedThreadPool(Math.max(1, noOfThreads));
+	}
+
+	/**
+	 * Creates a new ExtractionScheduler with one thread per core.
+	 */
+	public ExtractionScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Starts an extraction session.
+	 * @param session The extraction, which must not be running already.
+	 * @return A future of the children of the root of every RPG embedded in the program.
+	 */
+	public CompletableFuture<Set<Set<Integer>>> submit(Extractor session){
+		final CompletableFuture<Set<Set<Integer>>> result = session.runAsync(executor);
+		running.add(result);
+		result.whenComplete(new BiConsumer<Set<Set<Integer>>,Throwable>() {
+			@Override
+			public void accept(Set<Set<Integer>> rootChildrenSets, Throwable t) {
+				running.remove(result);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Starts several extraction sessions at once.
+	 * @param sessions The extractions, none of which may be running already.
+	 * @return The futures of the children of the root of every RPG embedded in each program, in the order of <code>sessions</code>.
+	 */
+	public List<CompletableFuture<Set<Set<Integer>>>> submitAll(List<Extractor> sessions){
+		List<CompletableFuture<Set<Set<Integer>>>> result = new ArrayList<CompletableFuture<Set<Set<Integer>>>>();
+		for (Extractor session : sessions){
+			result.add(submit(session));
+		}
+		return result;
+	}
+
+	/**
+	 * Lets every submitted extraction finish and stops the threads afterwards. Nothing may be submitted afterwards.
+	 * @throws InterruptedException If the current thread is interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException{
+		// Only the executor finishes a session, so it may not stop before every session is done
+		for (CompletableFuture<Set<Set<Integer>>> session : new ArrayList<CompletableFuture<Set<Set<Integer>>>>(running)){
+			try {
+				session.get();
+			} catch (ExecutionException e) {
+				// That is for whoever submitted it to deal with
+			}
+		}
+		executor.shutdown();
+		while (!executor.awaitTermination(1, TimeUnit.MINUTES)){
+			// Keep waiting for the programs to end
+		}
+	}
+}
@@ -1,15 +1,26 @@
 package extraction;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import util.QueueThread;
 import util.TimeKeeper;
-import extraction.fixing.HeapGraph;
+
+import com.sun.jdi.request.EventRequest;
+
+import extraction.fixing.CompactHeapGraph;
 import extraction.fixing.PartialRPG;
 
 /**
- * This class is for extracting RPG graphs embedded in a program with the method of Chroni and Nikolopoulos.
+ * This class is for extracting RPG graphs embedded in a program with the method of Chroni and Nikolopoulos. Every instance is one
+ * extraction session with its own state, so several of them may run at the same time, see <tt>runAsync</tt>.
  * @author Kaspar
  *
  */
@@ -19,7 +30,20 @@ public class Extractor {
 	private final String _classPath;
 	private final String _args;
 	private final String _className;
-	private ExtractVMLauncher launcher;
+	private ObjectConstructionThread oct = null;
+	private SnapshotThread st = null;
+	private int breakpointSuspendPolicy = EventRequest.SUSPEND_ALL;
+	private int noOfWorkers = 1;
+	private int noOfConsumers = 1;
+	private boolean snapshot = false;
+	private int snapshotMode = SnapshotThread.ON_DEATH;
+	private long snapshotDelay = 0;
+	private String snapshotTrigger = null;
+	private int stableSamples = 2;
+	private String typeCacheFileName = null;
+	private CandidateTypeCache typeCache = null;
+	private long trackingInterval = 0;
+	private RPGListener rpgListener = null;
 	
 	/**
 	 * Constructs a new Extractor.
@@ -35,50 +59,171 @@ public class Extractor {
 	}
 	
 	/**
-	 * Executes the given main class, extracting the children of the root of every RPG.
+	 * Sets how the breakpoints at the end of constructors are handled, see <code>QueueThread.setEventDispatch</code>. This must be
+	 * called before <tt>run()</tt>.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints.
+	 * @param noOfWorkers The number of threads that process breakpoints.
+	 */
+	public void setEventDispatch(int breakpointSuspendPolicy, int noOfWorkers){
+		this.breakpointSuspendPolicy = breakpointSuspendPolicy;
+		this.noOfWorkers = noOfWorkers;
+	}
+	
+	/**
+	 * Sets how many threads turn the constructed objects into nodes and resolve their children, see <code>NodePipeline</code>, or resolve the
+	 * children of the live objects of a snapshot, see <code>ChildResolver</code>. This must be called before <tt>run()</tt>.
+	 * @param noOfConsumers The number of threads.
+	 */
+	public void setConsumers(int noOfConsumers){
+		this.noOfConsumers = noOfConsumers;
+	}
+	
+	/**
+	 * Sets that the nodes are taken from a snapshot of the live objects instead of breakpoints at the end of constructors, see
+	 * <code>SnapshotThread</code>. This must be called before <tt>run()</tt>.
+	 * @param snapshotMode When the snapshot is taken, one of the constants in <code>SnapshotThread</code>.
+	 * @param delay The time in milliseconds after which the snapshot is taken for <code>SnapshotThread.ON_TIMER</code> or between samples
+	 *   for <code>SnapshotThread.ON_INTERVAL</code>.
+	 * @param fullTriggerMethodName The full name of the method that takes the snapshot for <code>SnapshotThread.ON_TRIGGER</code>.
+	 */
+	public void setSnapshot(int snapshotMode, long delay, String fullTriggerMethodName){
+		this.snapshot = true;
+		this.snapshotMode = snapshotMode;
+		this.snapshotDelay = delay;
+		this.snapshotTrigger = fullTriggerMethodName;
+	}
+	
+	/**
+	 * Sets how many samples in a row must find the same RPGs before sampling stops for <code>SnapshotThread.ON_INTERVAL</code>. This must
+	 * be called before <tt>run()</tt>.
+	 * @param stableSamples The number of samples.
+	 */
+	public void setStableSamples(int stableSamples){
+		this.stableSamples = stableSamples;
+	}
+	
+	/**
+	 * Sets a file in which the types that could be nodes are remembered across runs, see <code>CandidateTypeCache</code>. This must be
+	 * called before <tt>run()</tt>.
+	 * @param fileName The file, which is created if it does not exist.
+	 */
+	public void setTypeCache(String fileName){
+		this.typeCacheFileName = fileName;
+	}
+	
+	/**
+	 * Sets that RPGs are already looked for while the program runs and handed to a listener as soon as they are found, see
+	 * <code>ComponentTracker</code>. This only works with breakpoints, not with snapshots, and must be called before <tt>run()</tt>.
+	 * @param interval The time in milliseconds between two looks for RPGs.
+	 * @param listener The listener that is told about every RPG that is found.
+	 */
+	public void setComponentTracking(long interval, RPGListener listener){
+		this.trackingInterval = interval;
+		this.rpgListener = listener;
+	}
+	
+	/**
+	 * Executes the given main class, extracting the children of the root of every RPG. This waits for the program to end.
 	 * @return The children of the root of every RPG embedded in the program.
 	 */
 	public Set<Set<Integer>> run(){
-		List<ObjectNode> constructedNodes = extractConstructedNodes(RingBuffer.UNLIMITED_SIZE);
-		Set<ObjectNode> nodeSet = new HashSet<ObjectNode>(constructedNodes);
-		Set<Set<Integer>> rootChildrenSets = new HashSet<Set<Integer>>();
-		try {
-			TimeKeeper time = new TimeKeeper("components");
-			HeapGraph heapGraph = new HeapGraph(nodeSet);
-			Set<PartialRPG> subgraphs = heapGraph.getConnectedComponents();
-			time.stop();
-			for (PartialRPG rpg : subgraphs){
-				Set<Integer> rootChildren = rpg.checkForIntegrityAndGetRootChildren();
-				if (rootChildren != null){
-					rootChildrenSets.add(rootChildren);
-				} else {
-					System.out.println("Not an RPG");
-				}
+		QueueThread thread = launch();
+		thread.whenDone().join();
+		return findRPGs();
+	}
+	
+	/**
+	 * Executes the given main class like <tt>run()</tt>, but returns at once. No thread waits for the program to end; instead, the program
+	 * is launched and its RPGs are looked for on a scheduler that may be shared by many extractions, see <code>ExtractionScheduler</code>.
+	 * @param scheduler The executor that launches the program and looks for RPGs once it ended.
+	 * @return A future of the children of the root of every RPG embedded in the program.
+	 */
+	public CompletableFuture<Set<Set<Integer>>> runAsync(final Executor scheduler){
+		return CompletableFuture.supplyAsync(new Supplier<QueueThread>() {
+			@Override
+			public QueueThread get() {
+				return launch();
+			}
+		}, scheduler).thenCompose(new Function<QueueThread,CompletionStage<Set<Set<Integer>>>>() {
+			@Override
+			public CompletionStage<Set<Set<Integer>>> apply(QueueThread thread) {
+				return thread.whenDone().thenApplyAsync(new Function<Void,Set<Set<Integer>>>() {
+					@Override
+					public Set<Set<Integer>> apply(Void v) {
+						return findRPGs();
+					}
+				}, scheduler);
 			}
-			return rootChildrenSets;
+		});
+	}
+	
+	/**
+	 * Launches the program together with the thread that extracts the nodes from it.
+	 * @return The thread, which is either an <code>ObjectConstructionThread</code> or a <code>SnapshotThread</code>.
+	 */
+	private QueueThread launch(){
+		if (typeCacheFileName != null){
+			try {
+				typeCache = new CandidateTypeCache(typeCacheFileName, _classPath);
+			} catch (IOException e) {
+				System.out.println("The type cache "+typeCacheFileName+" could not be read, so every type is looked at again");
+			}
+		}
+		if (snapshot){
+			oct = null;
+			st = new SnapshotVMLauncher(_classPath, _className, _args, snapshotMode, snapshotDelay, snapshotTrigger, stableSamples,
+					noOfConsumers, typeCache).getSnapshotThread();
+			return st;
+		}
+		st = null;
+		oct = new ExtractVMLauncher(_classPath,_className,_args, RingBuffer.UNLIMITED_SIZE, breakpointSuspendPolicy, noOfWorkers,
+				noOfConsumers, typeCache, (rpgListener == null) ? null : new ComponentTracker(trackingInterval, rpgListener))
+				.getObjectConstructionThread();
+		return oct;
+	}
+	
+	/**
+	 * Looks for RPGs among the nodes that were extracted from the program, which must have ended.
+	 * @return The children of the root of every RPG embedded in the program.
+	 */
+	private Set<Set<Integer>> findRPGs(){
+		List<ObjectNode> constructedNodes;
+		try {
+			constructedNodes = (st != null) ? st.getNodes() : oct.getNodes();
 		} catch (Exception e) {
-			// This REALLY shouldn't happen.
-			e.printStackTrace();
+			// can't happen because the thread is done
 			return null;
 		}
+		if (typeCache != null){
+			try {
+				typeCache.save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		TimeKeeper time = new TimeKeeper("components");
+		CompactHeapGraph heapGraph = new CompactHeapGraph(constructedNodes);
+		Set<PartialRPG> subgraphs = heapGraph.getConnectedComponents();
+		time.stop();
+		return getRootChildrenSets(subgraphs);
 	}
 
 	
 	/**
-	 * Executes the main class and gives back the last <tt>size</tt> constructed objects as nodes.
-	 * @param size The size of the ring buffer that is used for storing nodes.
-	 * @return A list of the last newly constructed ObjectReferences, converted to ObjectNodes.
+	 * Checks which of the possibly broken RPGs are actually RPGs and gets the children of their roots.
+	 * @param subgraphs The possibly broken RPGs.
+	 * @return The children of the root of every RPG.
 	 */
-	private List<ObjectNode> extractConstructedNodes(int size){
-		launcher = new ExtractVMLauncher(_classPath,_className,_args, size);
-		ObjectConstructionThread oct = launcher.getObjectConstructionThread();
-		
-		while (oct.isAlive()){}
-		try {
-			return oct.getNodes();
-		} catch (Exception e) {			
-			// can't happen because we specifically wait for oct to die
-			return null;
+	static Set<Set<Integer>> getRootChildrenSets(Set<PartialRPG> subgraphs){
+		Set<Set<Integer>> rootChildrenSets = new HashSet<Set<Integer>>();
+		for (PartialRPG rpg : subgraphs){
+			Set<Integer> rootChildren = rpg.checkForIntegrityAndGetRootChildren();
+			if (rootChildren != null){
+				rootChildrenSets.add(rootChildren);
+			} else {
+				System.out.println("Not an RPG");
+			}
 		}
+		return rootChildrenSets;
 	}
 }
@@ -0,0 +1,142 @@
+package extraction;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of an HPROF heap dump through a memory-mapped window that moves along with the position, so that files of any size can
+ * be read without loading them onto the heap. All values are big-endian, like in the file. Several instances may read the same file at
+ * the same time.
+ * @author Kaspar
+ *
+ */
+class HprofCursor {
+	private static final long WINDOW_SIZE = 64L << 20;
+	private final FileChannel channel;
+	private final long end;
+	private final int idSize;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long pos;
+
+	/**
+	 * Creates a new HprofCursor.
+	 * @param channel The channel of the heap dump.
+	 * @param start The position of the first byte to read.
+	 * @param end The position after the last byte to read.
+	 * @param idSize The size of identifiers in bytes, either 4 or 8.
+	 */
+	public HprofCursor(FileChannel channel, long start, long end, int idSize) {
+		this.channel = channel;
+		this.pos = start;
+		this.end = end;
+		this.idSize = idSize;
+	}
+
+	/**
+	 * Returns the current position in the file.
+	 * @return The position of the next byte to read.
+	 */
+	public long position(){
+		return pos;
+	}
+
+	/**
+	 * Moves to a position in the file. Nothing is read until the next read.
+	 * @param pos The position of the next byte to read.
+	 */
+	public void seek(long pos){
+		this.pos = pos;
+	}
+
+	/**
+	 * Skips some bytes. Nothing is read.
+	 * @param n The number of bytes to skip.
+	 */
+	public void skip(long n){
+		pos += n;
+	}
+
+	/**
+	 * Checks whether there is something left to read.
+	 * @return <tt>true</tt> if the position is before the end of the range, <tt>false</tt> otherwise.
+	 */
+	public boolean hasMore(){
+		return pos < end;
+	}
+
+	/**
+	 * Makes sure that the window contains a number of bytes from the current position on, moving it there if it does not.
+	 * @param n The number of bytes.
+	 * @throws IOException If the range ends before that or the file can not be mapped.
+	 */
+	private void ensure(int n) throws IOException{
+		if ((window != null) && (pos >= windowStart) && (pos + n <= windowStart + window.limit())){
+			return;
+		}
+		if (pos + n > end){
+			throw new EOFException("The heap dump ends in the middle of a record at "+pos);
+		}
+		long size = Math.max(n, Math.min(WINDOW_SIZE, end - pos));
+		window = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+		windowStart = pos;
+	}
+
+	public int readU1() throws IOException{
+		ensure(1);
+		int result = window.get((int) (pos - windowStart)) & 0xFF;
+		pos++;
+		return result;
+	}
+
+	public int readU2() throws IOException{
+		ensure(2);
+		int result = window.getShort((int) (pos - windowStart)) & 0xFFFF;
+		pos += 2;
+		return result;
+	}
+
+	public int readInt() throws IOException{
+		ensure(4);
+		int result = window.getInt((int) (pos - windowStart));
+		pos += 4;
+		return result;
+	}
+
+	/**
+	 * Reads an unsigned 4-byte value, like the lengths of records.
+	 * @return The value.
+	 * @throws IOException If the range ends or the file can not be mapped.
+	 */
+	public long readU4() throws IOException{
+		return readInt() & 0xFFFFFFFFL;
+	}
+
+	public long readLong() throws IOException{
+		ensure(8);
+		long result = window.getLong((int) (pos - windowStart));
+		pos += 8;
+		return result;
+	}
+
+	/**
+	 * Reads an identifier of an object, class or string.
+	 * @return The identifier, 0 being <tt>null</tt>.
+	 * @throws IOException If the range ends or the file can not be mapped.
+	 */
+	public long readId() throws IOException{
+		return (idSize == 4) ? readU4() : readLong();
+	}
+
+	public byte[] readBytes(int n) throws IOException{
+		ensure(n);
+		byte[] result = new byte[n];
+		for (int i = 0; i < n; i++){
+			result[i] = window.get((int) (pos - windowStart) + i);
+		}
+		pos += n;
+		return result;
+	}
+}
@@ -0,0 +1,503 @@
+package extraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+
+import util.TimeKeeper;
+import extraction.fixing.CompactHeapGraph;
+import extraction.fixing.PartialRPG;
+
+/**
+ * Extracts RPGs from an HPROF heap dump, such as one written by <code>jmap -dump:format=b,file=...</code>, instead of a running program.
+ * The file is read through memory-mapped windows and never loaded onto the heap, so the memory needed only depends on the number of
+ * objects that could be nodes.<br>
+ * Just like with <code>CandidateTypes.isValidType</code>, the nodes are the instances of classes with exactly two instance fields of their
+ * own type. A heap dump does not contain the declared types of fields, so they are taken from the class files on the class path; classes
+ * that are not on the class path, like those of the JDK, are never nodes. The heap dump segments are parsed concurrently, once for the
+ * classes and once for the instances, so a heap dump that consists of a single segment is parsed by a single thread.<br>
+ * A heap dump without <code>:live</code> also contains objects that are no longer reachable, but have not been collected yet.
+ * @author Kaspar
+ *
+ */
+public class HprofExtractor {
+	private static final String HEADER_PREFIX = "JAVA PROFILE 1.0.";
+	// Tags of records
+	private static final int UTF8 = 0x01;
+	private static final int LOAD_CLASS = 0x02;
+	private static final int HEAP_DUMP = 0x0C;
+	private static final int HEAP_DUMP_SEGMENT = 0x1C;
+	// Tags of heap dump sub-records
+	private static final int ROOT_UNKNOWN = 0xFF;
+	private static final int ROOT_JNI_GLOBAL = 0x01;
+	private static final int ROOT_JNI_LOCAL = 0x02;
+	private static final int ROOT_JAVA_FRAME = 0x03;
+	private static final int ROOT_NATIVE_STACK = 0x04;
+	private static final int ROOT_STICKY_CLASS = 0x05;
+	private static final int ROOT_THREAD_BLOCK = 0x06;
+	private static final int ROOT_MONITOR_USED = 0x07;
+	private static final int ROOT_THREAD_OBJECT = 0x08;
+	private static final int CLASS_DUMP = 0x20;
+	private static final int INSTANCE_DUMP = 0x21;
+	private static final int OBJ_ARRAY_DUMP = 0x22;
+	private static final int PRIM_ARRAY_DUMP = 0x23;
+	// Basic types
+	private static final int OBJECT = 2;
+
+	private final String _fileName;
+	private final String _classPath;
+	private final int noOfWorkers;
+	private int idSize;
+	// Maps the identifiers of strings to their position and length in the file
+	private HashMap<Long,long[]> stringIdToPosition;
+	private HashMap<Long,Long> classIdToNameId;
+	// The start and end of each heap dump segment
+	private List<long[]> segments;
+	private HashMap<Long,String> stringCache;
+	private HashMap<String,JavaClass> classFileCache;
+
+	/**
+	 * Constructs a new HprofExtractor.
+	 * @param fileName The name of the heap dump.
+	 * @param classPath The path from which the class files of the program can be loaded.
+	 * @param noOfWorkers The number of threads that parse heap dump segments.
+	 */
+	public HprofExtractor(String fileName, String classPath, int noOfWorkers) {
+		this._fileName = fileName;
+		this._classPath = classPath;
+		this.noOfWorkers = Math.max(1, noOfWorkers);
+	}
+
+	/**
+	 * Parses the heap dump, extracting the children of the root of every RPG.
+	 * @return The children of the root of every RPG in the heap dump.
+	 * @throws IOException If the heap dump can not be read or is not an HPROF file.
+	 */
+	public Set<Set<Integer>> run() throws IOException{
+		TimeKeeper time = new TimeKeeper("heap dump parsing");
+		stringIdToPosition = new HashMap<Long,long[]>();
+		classIdToNameId = new HashMap<Long,Long>();
+		segments = new ArrayList<long[]>();
+		stringCache = new HashMap<Long,String>();
+		classFileCache = new HashMap<String,JavaClass>();
+		Nodes nodes;
+		FileChannel channel = FileChannel.open(Paths.get(_fileName), StandardOpenOption.READ);
+		try {
+			readRecords(channel);
+			HashMap<Long,ClassDump> classDumps = new HashMap<Long,ClassDump>();
+			for (Segment segment : parseSegments(channel, null)){
+				for (ClassDump classDump : segment.classDumps){
+					classDumps.put(classDump.id, classDump);
+				}
+			}
+			HashMap<Long,int[]> validClassesToOffsets = findValidClasses(channel, classDumps);
+			nodes = new Nodes();
+			for (Segment segment : parseSegments(channel, validClassesToOffsets)){
+				nodes.addAll(segment.nodes);
+			}
+			System.out.println("Found "+nodes.size+" objects of "+validClassesToOffsets.size()+" candidate classes in "+segments.size()
+					+" heap dump segments");
+		} finally {
+			channel.close();
+		}
+		time.stop();
+		time = new TimeKeeper("components");
+		CompactHeapGraph heapGraph = new CompactHeapGraph(Arrays.copyOf(nodes.ids, nodes.size), Arrays.copyOf(nodes.firstChildren, nodes.size),
+				Arrays.copyOf(nodes.secondChildren, nodes.size));
+		Set<PartialRPG> subgraphs = heapGraph.getConnectedComponents();
+		time.stop();
+		return Extractor.getRootChildrenSets(subgraphs);
+	}
+
+	/**
+	 * Reads the header and the records of the heap dump, remembering the strings, the names of classes and the heap dump segments.
+	 * @param channel The channel of the heap dump.
+	 * @throws IOException If the heap dump can not be read or is not an HPROF file.
+	 */
+	private void readRecords(FileChannel channel) throws IOException{
+		HprofCursor in = new HprofCursor(channel, 0, channel.size(), 4);
+		StringBuffer header = new StringBuffer();
+		int c;
+		while ((c = in.readU1()) != 0){
+			header.append((char) c);
+		}
+		if (!header.toString().startsWith(HEADER_PREFIX)){
+			throw new IOException(_fileName+" is not an HPROF heap dump");
+		}
+		idSize = in.readInt();
+		// The time stamp
+		in.skip(8);
+		in = new HprofCursor(channel, in.position(), channel.size(), idSize);
+		while (in.hasMore()){
+			int tag = in.readU1();
+			// The time since the time stamp
+			in.skip(4);
+			long length = in.readU4();
+			long next = in.position() + length;
+			if (tag == UTF8){
+				long id = in.readId();
+				stringIdToPosition.put(id, new long[] {in.position(), next - in.position()});
+			} else if (tag == LOAD_CLASS){
+				// The serial number
+				in.skip(4);
+				long classId = in.readId();
+				// The stack trace serial number
+				in.skip(4);
+				classIdToNameId.put(classId, in.readId());
+			} else if ((tag == HEAP_DUMP) || (tag == HEAP_DUMP_SEGMENT)){
+				segments.add(new long[] {in.position(), next});
+			}
+			in.seek(next);
+		}
+	}
+
+	/**
+	 * Parses every heap dump segment concurrently.
+	 * @param channel The channel of the heap dump.
+	 * @param validClassesToOffsets <tt>null</tt> to collect the classes, otherwise the valid classes whose instances are collected,
+	 *   each mapped to the offsets of its two fields of its own type.
+	 * @return The results in the order of the segments.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private List<Segment> parseSegments(final FileChannel channel, final Map<Long,int[]> validClassesToOffsets) throws IOException{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(noOfWorkers, Math.max(1, segments.size())));
+		List<Future<Segment>> futures = new ArrayList<Future<Segment>>();
+		for (final long[] segment : segments){
+			futures.add(executor.submit(new Callable<Segment>() {
+				@Override
+				public Segment call() throws IOException {
+					return parseSegment(new HprofCursor(channel, segment[0], segment[1], idSize), validClassesToOffsets);
+				}
+			}));
+		}
+		executor.shutdown();
+		List<Segment> result = new ArrayList<Segment>();
+		try {
+			for (Future<Segment> future : futures){
+				result.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Parsing the heap dump was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Parsing the heap dump failed", e.getCause());
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the sub-records of a single heap dump segment.
+	 * @param in A cursor over the segment.
+	 * @param validClassesToOffsets <tt>null</tt> to collect the classes, otherwise the valid classes whose instances are collected.
+	 * @return The classes or the instances of the segment.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private Segment parseSegment(HprofCursor in, Map<Long,int[]> validClassesToOffsets) throws IOException{
+		Segment result = new Segment();
+		while (in.hasMore()){
+			int tag = in.readU1();
+			switch (tag){
+			case ROOT_UNKNOWN:
+			case ROOT_STICKY_CLASS:
+			case ROOT_MONITOR_USED:
+				in.skip(idSize);
+				break;
+			case ROOT_JNI_GLOBAL:
+				in.skip(2*idSize);
+				break;
+			case ROOT_NATIVE_STACK:
+			case ROOT_THREAD_BLOCK:
+				in.skip(idSize+4);
+				break;
+			case ROOT_JNI_LOCAL:
+			case ROOT_JAVA_FRAME:
+			case ROOT_THREAD_OBJECT:
+				in.skip(idSize+8);
+				break;
+			case CLASS_DUMP:
+				ClassDump classDump = readClassDump(in);
+				if (validClassesToOffsets == null){
+					result.classDumps.add(classDump);
+				}
+				break;
+			case INSTANCE_DUMP:
+				long id = in.readId();
+				in.skip(4);
+				long classId = in.readId();
+				long length = in.readU4();
+				long next = in.position() + length;
+				int[] offsets = (validClassesToOffsets == null) ? null : validClassesToOffsets.get(classId);
+				if (offsets != null){
+					long values = in.position();
+					in.seek(values + offsets[0]);
+					long firstChild = in.readId();
+					in.seek(values + offsets[1]);
+					long secondChild = in.readId();
+					result.nodes.add(id, firstChild, secondChild);
+				}
+				in.seek(next);
+				break;
+			case OBJ_ARRAY_DUMP:
+				in.skip(idSize+4);
+				long noOfElements = in.readU4();
+				in.skip(idSize + noOfElements*idSize);
+				break;
+			case PRIM_ARRAY_DUMP:
+				in.skip(idSize+4);
+				noOfElements = in.readU4();
+				int type = in.readU1();
+				in.skip(noOfElements*typeSize(type));
+				break;
+			default:
+				throw new IOException("Unknown heap dump sub-record "+tag+" at "+(in.position()-1));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a class dump sub-record after its tag.
+	 * @param in A cursor right after the tag.
+	 * @return The class and its instance fields.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private ClassDump readClassDump(HprofCursor in) throws IOException{
+		ClassDump result = new ClassDump();
+		result.id = in.readId();
+		in.skip(4);
+		result.superId = in.readId();
+		// The class loader, signers, protection domain and two reserved identifiers
+		in.skip(5*idSize);
+		// The instance size
+		in.skip(4);
+		int constantPoolSize = in.readU2();
+		for (int i = 0; i < constantPoolSize; i++){
+			in.skip(2);
+			in.skip(typeSize(in.readU1()));
+		}
+		int noOfStaticFields = in.readU2();
+		for (int i = 0; i < noOfStaticFields; i++){
+			in.skip(idSize);
+			in.skip(typeSize(in.readU1()));
+		}
+		int noOfInstanceFields = in.readU2();
+		result.fieldNameIds = new long[noOfInstanceFields];
+		result.fieldTypes = new int[noOfInstanceFields];
+		for (int i = 0; i < noOfInstanceFields; i++){
+			result.fieldNameIds[i] = in.readId();
+			result.fieldTypes[i] = in.readU1();
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the classes whose instances could be nodes, i.e. those with exactly two instance fields of their own type.
+	 * @param channel The channel of the heap dump.
+	 * @param classDumps Every class, mapped by its identifier.
+	 * @return The valid classes, each mapped to the offsets of its two fields of its own type within the values of an instance dump.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private HashMap<Long,int[]> findValidClasses(FileChannel channel, Map<Long,ClassDump> classDumps) throws IOException{
+		HashMap<Long,int[]> result = new HashMap<Long,int[]>();
+		for (ClassDump classDump : classDumps.values()){
+			String className = getClassName(channel, classDump.id);
+			if ((className == null) || (getClassFile(className) == null)){
+				continue;
+			}
+			String sameTypeSignature = "L"+className+";";
+			List<Integer> offsets = new ArrayList<Integer>();
+			int offset = 0;
+			// The values of an instance are those of the fields of its class, followed by those of its superclass and so on
+			ClassDump current = classDump;
+			while (current != null){
+				String currentName = getClassName(channel, current.id);
+				JavaClass currentFile = (currentName == null) ? null : getClassFile(currentName);
+				for (int i = 0; i < current.fieldNameIds.length; i++){
+					if ((current.fieldTypes[i] == OBJECT) && (currentFile != null)
+							&& isSameTypeField(currentFile, getString(channel, current.fieldNameIds[i]), sameTypeSignature)){
+						offsets.add(offset);
+					}
+					offset += typeSize(current.fieldTypes[i]);
+				}
+				current = classDumps.get(current.superId);
+			}
+			// My Watermark instances always have two fields of type Watermark
+			if (offsets.size() == 2){
+				result.put(classDump.id, new int[] {offsets.get(0), offsets.get(1)});
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether a class declares an instance field with a certain name and type.
+	 * @param clazz The class.
+	 * @param fieldName The name of the field.
+	 * @param signature The type signature, e.g. "Lexample/Watermark;".
+	 * @return <tt>true</tt> if it does, <tt>false</tt> otherwise.
+	 */
+	private static boolean isSameTypeField(JavaClass clazz, String fieldName, String signature){
+		for (Field field : clazz.getFields()){
+			if (!field.isStatic() && field.getName().equals(fieldName) && field.getSignature().equals(signature)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the name of a class.
+	 * @param channel The channel of the heap dump.
+	 * @param classId The identifier of the class.
+	 * @return The name with slashes, like "example/Watermark", or <tt>null</tt> if it is unknown.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private String getClassName(FileChannel channel, long classId) throws IOException{
+		Long nameId = classIdToNameId.get(classId);
+		if (nameId == null){
+			return null;
+		}
+		return getString(channel, nameId);
+	}
+
+	/**
+	 * Returns a string from the heap dump.
+	 * @param channel The channel of the heap dump.
+	 * @param id The identifier of the string.
+	 * @return The string or <tt>null</tt> if there is none with that identifier.
+	 * @throws IOException If the heap dump can not be read.
+	 */
+	private String getString(FileChannel channel, long id) throws IOException{
+		String result = stringCache.get(id);
+		if (result != null){
+			return result;
+		}
+		long[] position = stringIdToPosition.get(id);
+		if (position == null){
+			return null;
+		}
+		HprofCursor in = new HprofCursor(channel, position[0], position[0] + position[1], idSize);
+		result = new String(in.readBytes((int) position[1]), StandardCharsets.UTF_8);
+		stringCache.put(id, result);
+		return result;
+	}
+
+	/**
+	 * Parses the class file of a class on the class path.
+	 * @param className The name of the class with slashes.
+	 * @return The class or <tt>null</tt> if it is not on the class path, like array classes and those of the JDK.
+	 */
+	private JavaClass getClassFile(String className){
+		if (classFileCache.containsKey(className)){
+			return classFileCache.get(className);
+		}
+		JavaClass result = null;
+		File file = new File(_classPath, className+".class");
+		if (!className.startsWith("[") && file.isFile()){
+			try {
+				result = new ClassParser(file.getPath()).parse();
+			} catch (IOException e) {
+				// Then it can't be looked at
+			}
+		}
+		classFileCache.put(className, result);
+		return result;
+	}
+
+	/**
+	 * Returns the size of a value of a basic type in a heap dump.
+	 * @param type The basic type.
+	 * @return The size in bytes.
+	 * @throws IOException If the type is unknown.
+	 */
+	private int typeSize(int type) throws IOException{
+		switch (type){
+		case OBJECT:
+			return idSize;
+		// boolean and byte
+		case 4:
+		case 8:
+			return 1;
+		// char and short
+		case 5:
+		case 9:
+			return 2;
+		// float and int
+		case 6:
+		case 10:
+			return 4;
+		// double and long
+		case 7:
+		case 11:
+			return 8;
+		default:
+			throw new IOException("Unknown basic type "+type);
+		}
+	}
+
+	/**
+	 * A class from a heap dump with its instance fields.
+	 */
+	private static class ClassDump {
+		long id;
+		long superId;
+		long[] fieldNameIds;
+		int[] fieldTypes;
+	}
+
+	/**
+	 * The objects that could be nodes with their children, stored in arrays instead of objects, since there may be a lot of them.
+	 */
+	private static class Nodes {
+		long[] ids = new long[16];
+		long[] firstChildren = new long[16];
+		long[] secondChildren = new long[16];
+		int size = 0;
+
+		void add(long id, long firstChild, long secondChild){
+			if (size == ids.length){
+				ids = Arrays.copyOf(ids, 2*size);
+				firstChildren = Arrays.copyOf(firstChildren, 2*size);
+				secondChildren = Arrays.copyOf(secondChildren, 2*size);
+			}
+			ids[size] = id;
+			firstChildren[size] = firstChild;
+			secondChildren[size] = secondChild;
+			size++;
+		}
+
+		void addAll(Nodes other){
+			for (int i = 0; i < other.size; i++){
+				add(other.ids[i], other.firstChildren[i], other.secondChildren[i]);
+			}
+		}
+	}
+
+	/**
+	 * What was collected from a single heap dump segment.
+	 */
+	private static class Segment {
+		final List<ClassDump> classDumps = new ArrayList<ClassDump>();
+		final Nodes nodes = new Nodes();
+	}
+}
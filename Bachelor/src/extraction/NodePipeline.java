@@ -0,0 +1,117 @@
+package extraction;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.VMDisconnectedException;
+
+/**
+ * Hands the objects whose construction was just finished from the thread that processes the breakpoint to a pool of consumers. The
+ * consumers turn them into <code>ObjectNode</code>s and put them into a ring buffer while the target VM runs on, so that a breakpoint only
+ * costs as long as it takes to pin the object.<br>
+ * Every object must be pinned with <tt>disableCollection</tt> before it is submitted. The pin is released as soon as the object turns out
+ * not to be a node or is evicted from the ring buffer. With several consumers, nodes may enter the ring buffer slightly out of order.
+ * The children are only resolved in <tt>finish()</tt>, since the fields may still change until then, but by a <code>ChildResolver</code>
+ * with as many threads as there are consumers.
+ * @author Kaspar
+ *
+ */
+class NodePipeline {
+	private final CandidateTypes candidateTypes;
+	private final RingBuffer<ObjectNode> nodes;
+	private final ExecutorService consumers;
+	private final ChildResolver resolver;
+
+	/**
+	 * Creates a new NodePipeline.
+	 * @param candidateTypes The types of the target VM that could be nodes.
+	 * @param size The size of the ring buffer or <code>RingBuffer.UNLIMITED_SIZE</code>.
+	 * @param noOfConsumers The number of consumers.
+	 */
+	public NodePipeline(CandidateTypes candidateTypes, int size, int noOfConsumers) {
+		this.candidateTypes = candidateTypes;
+		nodes = new RingBuffer<ObjectNode>(size) {
+			@Override
+			protected void evicted(ObjectNode node) {
+				releasePin(node.or);
+			}
+		};
+		consumers = Executors.newFixedThreadPool(Math.max(1, noOfConsumers));
+		resolver = new ChildResolver(noOfConsumers);
+	}
+
+	/**
+	 * Hands a pinned object to the consumers.
+	 * @param or The object whose construction was just finished.
+	 */
+	public void submit(final ObjectReference or){
+		consumers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ObjectNode node = candidateTypes.checkIfValidRPGNode(or);
+					if (node == null){
+						releasePin(or);
+						return;
+					}
+					synchronized (nodes) {
+						nodes.add(node);
+					}
+				} catch (VMDisconnectedException e) {
+					// Then the object is gone anyway
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until every submitted object has been consumed and resolves the children of all nodes. Nothing may be submitted afterwards.
+	 * @return The nodes in the ring buffer.
+	 */
+	public RingBuffer<ObjectNode> finish(){
+		consumers.shutdown();
+		awaitTermination(consumers);
+		resolver.resolve(nodes);
+		return nodes;
+	}
+
+	/**
+	 * Waits until every submitted object has been consumed, but leaves the children of the nodes as they are, since the target VM that
+	 * they would be read from is gone. Nothing may be submitted afterwards.
+	 * @return The nodes in the ring buffer.
+	 */
+	public RingBuffer<ObjectNode> finishDisconnected(){
+		consumers.shutdown();
+		awaitTermination(consumers);
+		return nodes;
+	}
+
+	/**
+	 * Waits until every task of a pool that was shut down is done.
+	 * @param pool The pool.
+	 */
+	private static void awaitTermination(ExecutorService pool){
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)){
+				// Keep waiting, every task ends once the target VM is gone
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Allows an object to be garbage collected again.
+	 * @param or The object.
+	 */
+	private static void releasePin(ObjectReference or){
+		try {
+			or.enableCollection();
+		} catch (VMDisconnectedException | ObjectCollectedException e) {
+			// Nothing left to release
+		}
+	}
+}
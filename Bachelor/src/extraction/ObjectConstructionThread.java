@@ -2,22 +2,35 @@ package extraction;
 
 import java.util.List;
 
+import com.sun.jdi.Field;
 import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.Location;
 import com.sun.jdi.Method;
+import com.sun.jdi.ObjectCollectedException;
 import com.sun.jdi.ObjectReference;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.StackFrame;
+import com.sun.jdi.Value;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.event.BreakpointEvent;
 import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.event.ModificationWatchpointEvent;
 import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.ModificationWatchpointRequest;
 import util.QueueThread;
 
 public class ObjectConstructionThread extends QueueThread {
 	
 	private VirtualMachine vm;
-	private RingBuffer<ObjectNode> constructedNodes;
+	private NodePipeline pipeline;
+	// null until the pipeline has been finished, which happens once the target VM dies or disconnects
+	private RingBuffer<ObjectNode> constructedNodes = null;
+	private CandidateTypes candidateTypes = new CandidateTypes();
+	private ComponentTracker tracker = null;
+	// The properties of watchpoint requests that tell which type and which of its fields they are for
+	private static final String TYPE_PROPERTY = "type";
+	private static final String SLOT_PROPERTY = "slot";
 
 	/**
 	 * Creates a new ObjectConstructionThread that tracks construction of objects in a target VM with a limited ring buffer.
@@ -26,9 +39,21 @@ public class ObjectConstructionThread extends QueueThread {
 	 * @param size The size of the ring buffer.
 	 */
 	public ObjectConstructionThread(VirtualMachine vm, String[] excludes, int size) {
+		this(vm, excludes, size, 1);
+	}
+	
+	/**
+	 * Creates a new ObjectConstructionThread that tracks construction of objects in a target VM with a limited ring buffer. The constructed
+	 * objects are turned into nodes by several consumers while the target VM runs on, see <code>NodePipeline</code>.
+	 * @param vm The VM that this thread tracks.
+	 * @param excludes A list of exclusion strings for classes that are not to be traced.
+	 * @param size The size of the ring buffer.
+	 * @param noOfConsumers The number of consumers.
+	 */
+	public ObjectConstructionThread(VirtualMachine vm, String[] excludes, int size, int noOfConsumers) {
 		super(vm, excludes, "object extraction");
 		this.vm = vm;
-		constructedNodes = new RingBuffer<ObjectNode>(size);
+		pipeline = new NodePipeline(candidateTypes, size, noOfConsumers);
 	}
 	
 	/**
@@ -40,36 +65,81 @@ public class ObjectConstructionThread extends QueueThread {
 		this(vm,excludes,RingBuffer.UNLIMITED_SIZE);
 	}
 
+	/**
+	 * Sets a cache of the types that could be nodes, which is asked before the target VM, so that only known candidates get breakpoints
+	 * without further ado. This must be called before this thread is started.
+	 * @param typeCache The cache.
+	 */
+	public void setTypeCache(CandidateTypeCache typeCache){
+		if (isAlive()){
+			throw new IllegalStateException("The type cache can not be changed while the thread is running.");
+		}
+		candidateTypes.setCache(typeCache);
+	}
+
+	/**
+	 * Sets a tracker that is told about every edge between nodes while the program runs, so that RPGs can be found before it ends. The
+	 * edges are caught with watchpoints on the fields of every type that could be a node. This must be called before this thread is
+	 * started.
+	 * @param tracker The tracker.
+	 */
+	public void setComponentTracker(ComponentTracker tracker){
+		if (isAlive()){
+			throw new IllegalStateException("The component tracker can not be changed while the thread is running.");
+		}
+		if ((tracker != null) && !vm.canWatchFieldModification()){
+			throw new UnsupportedOperationException("The target VM can not watch the modification of fields.");
+		}
+		this.tracker = tracker;
+	}
+	
+	@Override
+	public void run() {
+		if (tracker != null){
+			tracker.start();
+		}
+		super.run();
+	}
+
 	@Override
 	public void processClassPrepareEvent(ClassPrepareEvent cPrE) {
 		ReferenceType type = cPrE.referenceType();
-		if (!ObjectNode.isValidType(type)){
+		if (!candidateTypes.isValidType(type)){
 			return;
 		}
+		if (tracker != null){
+			List<Field> sameTypeFields = candidateTypes.getSameTypeFields(type);
+			for (int slot = 0; slot < sameTypeFields.size(); slot++){
+				ModificationWatchpointRequest mWaR = erm.createModificationWatchpointRequest(sameTypeFields.get(slot));
+				mWaR.putProperty(TYPE_PROPERTY, type);
+				mWaR.putProperty(SLOT_PROPERTY, slot);
+				// The event already carries the object and the new value, so nothing needs to stand still
+				mWaR.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+				mWaR.enable();
+			}
+		}
 		List<Method> methods = type.methods();
 		for (Method method : methods){
 			if (method.isConstructor()){
 				byte[] bytes = method.bytecodes();
 				Location loc = method.locationOfCodeIndex(bytes.length-1);
 				BreakpointRequest bPoR = erm.createBreakpointRequest(loc);
+				bPoR.setSuspendPolicy(getBreakpointSuspendPolicy());
 				bPoR.enable();
 			}
 		}
 	}
 
 	@Override
-	public void processBreakpoint(BreakpointEvent bPoE) {
+	public void processBreakpoint(BreakpointEvent bPoE, long sequence) {
 		try {
 			StackFrame frame = bPoE.thread().frame(0);
 			try {
 				ObjectReference thiz = frame.thisObject();
-				// Don't even save objects that are not valid nodes.
-				// This might make it take longer, but requires less disabling of GC when edges are broken
-				ObjectNode node = ObjectNode.checkIfValidRPGNode(thiz);
-				if (node != null){
-					constructedNodes.add(node);
-					thiz.disableCollection();
-				}
+				// Only objects of subclasses are not valid nodes here, so pin everything while the thread still stands and let the
+				// consumers check the type and release the pin of those
+				thiz.disableCollection();
+				pipeline.submit(thiz);
 			} catch (com.sun.jdi.InternalException e2){
 				// I'll be damned if I can figure out why this is happening, but if thisObject can't be gotten, just ignore the shit out of this object
 			}
@@ -78,24 +148,61 @@ public class ObjectConstructionThread extends QueueThread {
 		}
 	}
 	
+	/**
+	 * Returns the constructed nodes. You may not call this method until <code>this.whenDone()</code> is completed, which is the case
+	 * once <code>this.isAlive()</code> is <code>false</code>.
+	 * @return The nodes in the ring buffer, which are never <tt>null</tt>.
+	 * @throws Exception If this thread is not done yet or failed.
+	 */
 	public RingBuffer<ObjectNode> getNodes() throws Exception{
-		if (this.isAlive()){
+		if (!whenDone().isDone()){
 			throw new Exception("The ring buffer is getting changed right now, so you may not retrieve the constructed objects "
-					+ "until this thread is no longer alive.");
+					+ "until this thread is done.");
+		}
+		if (constructedNodes == null){
+			throw new Exception("The thread failed before the constructed objects were collected.");
 		}
 		return constructedNodes;
 	}
+	
+	@Override
+	public void processModificationWatchpoint(ModificationWatchpointEvent mWaE) {
+		ReferenceType type = (ReferenceType) mWaE.request().getProperty(TYPE_PROPERTY);
+		int slot = (Integer) mWaE.request().getProperty(SLOT_PROPERTY);
+		try {
+			ObjectReference object = mWaE.object();
+			// Subclasses inherit the fields, but are never nodes
+			if ((object == null) || !object.referenceType().equals(type)){
+				return;
+			}
+			long childId = 0;
+			Value value = mWaE.valueToBe();
+			if ((value != null) && ((ObjectReference) value).referenceType().equals(type)){
+				childId = ((ObjectReference) value).uniqueID();
+			}
+			tracker.setChild(object.uniqueID(), slot, childId);
+		} catch (ObjectCollectedException e) {
+			// Then it was no node worth tracking
+		}
+	}
 
 	@Override
 	public void processDisconnected() {
-		// do absolutely nothing
+		if (tracker != null){
+			tracker.stop();
+		}
+		if (constructedNodes == null){
+			// The consumers must not outlive the target VM even if it never reported its death
+			constructedNodes = pipeline.finishDisconnected();
+		}
 	}
 
 	@Override
 	public void processDeath() {
-		for (ObjectNode node : constructedNodes){
-			node.updateChildren();
+		if (tracker != null){
+			tracker.stop();
 		}
+		constructedNodes = pipeline.finish();
 		quitNow = true;
 		// once the children have been set, the actual VM is not necessary anymore, so it just gets forcibly disconnected
 		vm.dispose();
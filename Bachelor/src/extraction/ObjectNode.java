@@ -1,13 +1,10 @@
 package extraction;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.sun.jdi.ClassNotLoadedException;
 import com.sun.jdi.Field;
 import com.sun.jdi.ObjectReference;
 import com.sun.jdi.ReferenceType;
@@ -15,8 +12,8 @@ import com.sun.jdi.Value;
 
 /**
  * Instances of this class describe the field structure of an ObjectReference in a way which is simple to convert to 
- * actual nodes in an RPG. They cannot be manually constructed, instead the static method <tt>checkIfValidRPGNode()</tt> is to be
- * used which checks if the provided ObjectReference can serve as a node in an RPG.
+ * actual nodes in an RPG. They cannot be manually constructed, instead the method <tt>CandidateTypes.checkIfValidRPGNode()</tt> is to
+ * be used which checks if the provided ObjectReference can serve as a node in an RPG.
  * @author Kaspar
  *
  */
@@ -27,22 +24,28 @@ public class ObjectNode {
 	 * The ObjectReference that is represented by this ObjectNode.
 	 */
 	public final ObjectReference or;
+	/**
+	 * The type of <tt>this.or</tt>, which is known to be valid, or <tt>null</tt> for dummy nodes.
+	 */
+	final ReferenceType type;
+	// The two fields of type that point to objects of the same type
+	private final List<Field> sameTypeFields;
 	private final List<ObjectReference> children;
 	
-	// The types that have exactly two fields pointing to objects of the same type, mapped to exactly those fields 
-	private static Map<ReferenceType,Set<Field>> validTypesToSameTypeFields = new HashMap<ReferenceType,Set<Field>>();
-	// To make checking much faster, save all the invalid types
-	private static Set<ReferenceType> invalidTypes = new HashSet<ReferenceType>();
-	private static int dummyCount = 0;
+	private static AtomicInteger dummyCount = new AtomicInteger();
 	private int dummyNumber;
 	private boolean isDummyNode = false;
 	
 	/**
 	 * Constructs a new ObjectNode. 
 	 * @param or The ObjectReference that is to be interpreted as a node in an RPG.
+	 * @param type The type of <tt>or</tt>.
+	 * @param sameTypeFields The two fields of <tt>type</tt> that point to objects of the same type.
 	 */
-	private ObjectNode(ObjectReference or) {
+	ObjectNode(ObjectReference or, ReferenceType type, List<Field> sameTypeFields) {
 		this.or = or;
+		this.type = type;
+		this.sameTypeFields = sameTypeFields;
 		children = new ArrayList<ObjectReference>();
 		dummyNumber = -1;
 	}
@@ -57,63 +60,6 @@ public class ObjectNode {
 		return children;
 	}
 	
-	/**
-	 * Checks if the provided ObjectReference could be the node of a reducible permutation graph. This check is very
-	 * superficial and only checks the Fields of the ObjectReference's reference type, not the values of those Fields. Use
-	 * <tt>updateChildren</tt> afterwards if the values are needed.
-	 * @param or The ObjectReference referencing an object in the target VM.
-	 * @return A new ObjectNode if the argument could be the node of an RPG; <tt>null</tt> otherwise. 
-	 */
-	public static ObjectNode checkIfValidRPGNode(ObjectReference or){
-		ObjectNode node = new ObjectNode(or);
-		ReferenceType type = or.referenceType();
-		if (isValidType(type)){
-			return node;
-		}
-		return null;
-	}
-	
-	/**
-	 * Tests if the type is valid for Watermark instances, i.e. has two same type fields. Calling this method on a type speeds up future calls.
-	 * @param type The ReferenceType
-	 * @return <tt>true</tt> if instances of this type could be Watermark instances, <tt>false</tt> otherwise.
-	 */
-	public static boolean isValidType(ReferenceType type){
-		if (invalidTypes.contains(type)){
-			return false;
-		}
-		// If we know that the type is already valid, just pass it on and be done with it.
-		if (validTypesToSameTypeFields.containsKey(type)){
-			return true;
-		}
-		Set<Field> sameTypeFields = new HashSet<Field>();
-		List<Field> fields = type.allFields();
-		int countOfSameTypeFields = 0;
-		for (Field f : fields){
-			// The outneighbor's type must be the same as this node's
-			try {
-				if (f.type().equals(type)){
-					sameTypeFields.add(f);
-					countOfSameTypeFields++;
-					// only up to 2 edges are allowed
-					if (countOfSameTypeFields > 2){							
-						break;
-					}
-				}
-			} catch (ClassNotLoadedException e) {
-				// We only care about the ones that are the same type as this one, so the relevant ones MUST be loaded
-			}
-
-		}
-		// My Watermark instances always have two fields of type Watermark
-		if (countOfSameTypeFields != 2){
-			invalidTypes.add(type);
-			return false;
-		}
-		validTypesToSameTypeFields.put(type, sameTypeFields);
-		return true;
-	}
-	
 //	/**
 //	 * Checks if the provided ObjectReference could be the node of a reducible permutation graph.
 //	 * @param or The ObjectReference referencing an object in the target VM.
@@ -157,13 +103,13 @@ public class ObjectNode {
 //	}
 	
 	/**
-	 * Updates the children.
+	 * Updates the children. Both fields are read with a single request to the target VM. Use <code>ChildResolver</code> for many nodes.
 	 */
 	public void updateChildren(){
 		children.clear();
-		Set<Field> sameTypeFields = validTypesToSameTypeFields.get(or.referenceType());
+		Map<Field,Value> values = or.getValues(sameTypeFields);
 		for (Field f : sameTypeFields){
-			Value value = or.getValue(f);
+			Value value = values.get(f);
 			if (value != null){
 				ObjectReference valueOR = (ObjectReference) value;
 				children.add(valueOR);
@@ -176,9 +122,9 @@ public class ObjectNode {
 	 * @return A dummy node.
 	 */
 	public static ObjectNode createDummyNode(){
-		ObjectNode dummy = new ObjectNode(null);
-		dummy.dummyNumber = dummyCount;
-		dummyCount++;
+		ObjectNode dummy = new ObjectNode(null, null, null);
+		// Dummy nodes may be created by concurrent extractions
+		dummy.dummyNumber = dummyCount.getAndIncrement();
 		dummy.isDummyNode = true;
 		return dummy;
 	}
@@ -0,0 +1,16 @@
+package extraction;
+
+import java.util.Set;
+
+/**
+ * Is told about every RPG that is found while the program still runs, see <code>ComponentTracker</code>.
+ * @author Kaspar
+ *
+ */
+public interface RPGListener {
+	/**
+	 * Called once for every RPG that is found. This is called on a thread of its own, so it should not take long.
+	 * @param rootChildren The children of the root of the RPG.
+	 */
+	public void rpgFound(Set<Integer> rootChildren);
+}
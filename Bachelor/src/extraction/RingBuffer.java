@@ -1,20 +1,25 @@
 package extraction;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.Arrays;
 
 /**
- * An implementation of a last-in-first-out ring buffer of fixed size. Adding elements
- * to anything but the head of this buffer is not supported.
+ * An implementation of a last-in-first-out ring buffer of fixed size, backed by an array that is used circularly. Elements can only be added
+ * to the head of this buffer, which is index 0. Once it is full, adding an element evicts the oldest one and passes it to <tt>evicted</tt>,
+ * which subclasses may override to release whatever the element holds on to.
  * @author Kaspar
  *
  * @param <E>
  */
-public class RingBuffer<E> extends LinkedList<E>{
-	private static final long serialVersionUID = 1L;
+public class RingBuffer<E> extends AbstractList<E>{
 	private final int _size;
-	
+	private Object[] elements;
+	// The index in elements of the head, i.e. of the newest element
+	private int head = 0;
+	private int count = 0;
+
 	public static final int UNLIMITED_SIZE = -1;
-	
+	private static final int INITIAL_CAPACITY = 16;
+
 	/**
 	 * Creates a new ring buffer with fixed size <tt>size</tt>. If a number smaller than 1 is given, it is unbounded.
 	 * @param size The size of this ring buffer.
@@ -22,106 +27,100 @@ public class RingBuffer<E> extends LinkedList<E>{
 	public RingBuffer(int size){
 		super();
 		_size = size;
+		elements = new Object[(size > 0) ? size : INITIAL_CAPACITY];
 	}
-	
+
 	/**
-	 * Creates an unbounded ring buffer. So, basically, it's just a LinkedList, but less powerful.
+	 * Creates an unbounded ring buffer, which grows whenever it is full.
 	 */
 	public RingBuffer(){
-		super();
-		_size = UNLIMITED_SIZE;
+		this(UNLIMITED_SIZE);
 	}
-	
+
 	/**
 	 * Inserts the specified element to the beginning of this buffer.
 	 * @param e The element to be added.
-	 * @return <tt>true</tt> (as specified by {@link Collection#add})
+	 * @return <tt>true</tt> (as specified by {@link java.util.Collection#add})
 	 */
 	@Override
 	public boolean add(E e){
 		addFirst(e);
 		return true;
 	}
-	
+
 	/**
-	 * Adding elements to anything but the head of the buffer is not supported, thus this operation just throws
-	 * a <tt>UnsupportedOperationException</tt>.
+	 * Inserts the specified element to the beginning of this buffer. If the buffer is full, its oldest element is evicted.
+	 * @param e The element to be added.
 	 */
-	@Override
-	public void add(int index, E e){
-		throw new UnsupportedOperationException();
+	public void addFirst(E e){
+		if (count == elements.length){
+			if (_size > 0){
+				// The oldest element is the one right before the head, so it's overwritten by the new head
+				head = (head - 1 + elements.length) % elements.length;
+				E oldest = elementAt(head);
+				elements[head] = e;
+				modCount++;
+				evicted(oldest);
+				return;
+			}
+			grow();
+		}
+		head = (head - 1 + elements.length) % elements.length;
+		elements[head] = e;
+		count++;
+		modCount++;
 	}
-	
+
 	/**
-	 * Adds all the elements of Collection c to this buffer in iteration order of c.
-	 * @return <tt>true</tt> if this buffer changed as a result of this operation.
+	 * Doubles the capacity of an unbounded buffer, unrolling it so that the head is at index 0 again.
 	 */
-	@Override
-	public boolean addAll(Collection<? extends E> c){
-		int hashCode = hashCode();
-		for (E e : c){
-			add(e);
+	private void grow(){
+		Object[] grown = Arrays.copyOf(elements, 2*elements.length);
+		for (int i = 0; i < count; i++){
+			grown[i] = elements[(head + i) % elements.length];
 		}
-		return (hashCode != hashCode());
+		elements = grown;
+		head = 0;
 	}
-	
+
 	/**
-	 * Adding elements to anything but the head of the buffer is not supported, thus this operation just throws
-	 * a <tt>UnsupportedOperationException</tt>.
+	 * Called after the oldest element has been evicted from a full buffer. This does nothing by default.
+	 * @param e The evicted element.
 	 */
-	@Override
-	public boolean addAll(int index, Collection<? extends E> c){
-		throw new UnsupportedOperationException();
+	protected void evicted(E e){
 	}
-	
+
 	/**
-	 * Inserts the specified element to the beginning of this buffer.
-	 * @param e The element to be added.
+	 * Returns an element of this buffer.
+	 * @param index The index, 0 being the newest element.
+	 * @return The element.
 	 */
 	@Override
-	public void addFirst(E e){
-		super.addFirst(e);
-		// If _size is <= 0, just add it, not removing anything.
-		if ((_size > 0) && (size() > _size)){
-			removeLast();
+	public E get(int index){
+		if ((index < 0) || (index >= count)){
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+count);
 		}
+		return elementAt((head + index) % elements.length);
 	}
-	
-	/**
-	 * Adding elements to anything but the head of the buffer is not supported, thus this operation just throws
-	 * a <tt>UnsupportedOperationException</tt>.
-	 */
-	@Override
-	public void addLast(E e){
-		throw new UnsupportedOperationException();
-	}
-	
-	/**
-	 * Inserts the specified element to the beginning of this buffer.
-	 * @param e The element to be added.
-	 */
-	@Override
-	public boolean offer(E e){
-		addFirst(e);
-		return true;
+
+	@SuppressWarnings("unchecked")
+	private E elementAt(int arrayIndex){
+		return (E) elements[arrayIndex];
 	}
-	
-	/**
-	 * Inserts the specified element to the beginning of this buffer.
-	 * @param e The element to be added.
-	 */
+
 	@Override
-	public boolean offerFirst(E e){
-		addFirst(e);
-		return true;
+	public int size(){
+		return count;
 	}
-	
+
 	/**
-	 * Adding elements to anything but the head of the buffer is not supported, thus this operation just throws
-	 * a <tt>UnsupportedOperationException</tt>.
+	 * Removes every element without evicting it.
 	 */
 	@Override
-	public boolean offerLast(E e){
-		throw new UnsupportedOperationException();
+	public void clear(){
+		Arrays.fill(elements, null);
+		head = 0;
+		count = 0;
+		modCount++;
 	}
 }
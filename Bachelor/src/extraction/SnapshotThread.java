@@ -0,0 +1,329 @@
+package extraction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import util.QueueThread;
+import util.TimeKeeper;
+import extraction.fixing.CompactHeapGraph;
+
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.BreakpointEvent;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+
+/**
+ * This <code>QueueThread</code> extracts the nodes of RPGs from a snapshot of the target VM instead of stopping at every constructor like
+ * <code>ObjectConstructionThread</code>. It only remembers the types that could be nodes when they are prepared, so the target VM runs at
+ * nearly full speed. Once the snapshot is taken, every live instance of those types is pulled with <tt>ReferenceType.instances</tt>
+ * and the values of its fields are read, so the cost only depends on the number of live candidates.<br>
+ * The snapshot is taken when the program ends, after a delay or when a trigger method is called, whichever comes first. In the latter
+ * two cases, the target VM is killed afterwards. The end of the program is caught in <code>java.lang.Shutdown</code>, since the instances
+ * can no longer be listed once the target VM is dying. Unlike with constructor breakpoints, objects that are no longer reachable when the
+ * snapshot is taken are not found, so the whole watermark must stay reachable, e.g. from its root.<br>
+ * For programs that never end, <tt>ON_INTERVAL</tt> samples the target VM instead: every interval, it is suspended only for as long as
+ * the instances are pulled and the RPGs are looked for while it runs again. Once enough samples in a row found the same RPGs, the
+ * last one is kept and the target VM is killed.
+ * @author Kaspar
+ *
+ */
+public class SnapshotThread extends QueueThread {
+	public static final int ON_DEATH = 0;
+	public static final int ON_TIMER = 1;
+	public static final int ON_TRIGGER = 2;
+	public static final int ON_INTERVAL = 3;
+	private static final String SHUTDOWN_CLASS_NAME = "java.lang.Shutdown";
+	// Called when the last non-daemon thread ends and by System.exit
+	private static final String[] SHUTDOWN_METHOD_NAMES = {"shutdown", "exit"};
+
+	private VirtualMachine vm;
+	private int snapshotMode;
+	private long delay;
+	private String triggerClassName = null;
+	private String triggerMethodName = null;
+	// The types whose instances could be nodes, in the order in which they were prepared
+	private List<ReferenceType> candidateTypes;
+	private List<ObjectNode> nodes;
+	private boolean snapshotTaken = false;
+	private int stableSamples = 2;
+	private ChildResolver resolver = new ChildResolver(1);
+	private CandidateTypes validTypes = new CandidateTypes();
+	private int noOfSamples = 0;
+	private int noOfStableSamples = 0;
+	private Set<ObjectNode> previousSample = null;
+	private Set<Set<Integer>> previousRootChildrenSets = null;
+
+	/**
+	 * Creates a new SnapshotThread that takes a snapshot of a target VM.
+	 * @param vm The VM that this thread observes. It must be able to list the instances of a type.
+	 * @param excludes A list of exclusion strings for classes that are not to be considered.
+	 * @param snapshotMode When the snapshot is taken, one of <tt>ON_DEATH</tt>, <tt>ON_TIMER</tt>, <tt>ON_TRIGGER</tt> or
+	 *   <tt>ON_INTERVAL</tt>.
+	 * @param delay The time in milliseconds after which the snapshot is taken for <tt>ON_TIMER</tt> or between samples for
+	 *   <tt>ON_INTERVAL</tt>.
+	 * @param fullTriggerMethodName The full name of the method whose first call takes the snapshot for <tt>ON_TRIGGER</tt>, e.g.
+	 *   "myPackage.Marker.snapshot".
+	 */
+	public SnapshotThread(VirtualMachine vm, String[] excludes, int snapshotMode, long delay, String fullTriggerMethodName) {
+		super(vm, excludes, "object extraction");
+		if (!vm.canGetInstanceInfo()){
+			throw new UnsupportedOperationException("The target VM can not list the instances of a type.");
+		}
+		this.vm = vm;
+		this.snapshotMode = snapshotMode;
+		this.delay = delay;
+		if (snapshotMode == ON_TRIGGER){
+			int i = fullTriggerMethodName.lastIndexOf('.');
+			triggerClassName = fullTriggerMethodName.substring(0, i);
+			triggerMethodName = fullTriggerMethodName.substring(i+1, fullTriggerMethodName.length());
+		}
+		candidateTypes = new ArrayList<ReferenceType>();
+		nodes = new ArrayList<ObjectNode>();
+		// The class is usually loaded already, otherwise wait for it despite the exclusion of java.*
+		List<ReferenceType> shutdownTypes = vm.classesByName(SHUTDOWN_CLASS_NAME);
+		if (shutdownTypes.isEmpty()){
+			ClassPrepareRequest cPrR = erm.createClassPrepareRequest();
+			cPrR.addClassFilter(SHUTDOWN_CLASS_NAME);
+			cPrR.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+			cPrR.enable();
+		} else {
+			requestBreakpoints(shutdownTypes.get(0), SHUTDOWN_METHOD_NAMES);
+		}
+	}
+	
+	/**
+	 * Requests breakpoints at the start of some methods of a type, which stop every thread of the target VM.
+	 * @param type The type.
+	 * @param methodNames The names of the methods.
+	 */
+	private void requestBreakpoints(ReferenceType type, String[] methodNames){
+		for (Method method : type.methods()){
+			for (String methodName : methodNames){
+				if (method.name().equals(methodName) && !method.isAbstract() && !method.isNative()){
+					BreakpointRequest bPoR = erm.createBreakpointRequest(method.location());
+					// The snapshot needs every thread to stand still
+					bPoR.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+					bPoR.enable();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets how many samples in a row must find the same RPGs for <tt>ON_INTERVAL</tt>. This must be called before this thread is started.
+	 * @param stableSamples The number of samples, at least 1.
+	 */
+	public void setStableSamples(int stableSamples){
+		if (isAlive()){
+			throw new IllegalStateException("The number of stable samples can not be changed while the thread is running.");
+		}
+		this.stableSamples = Math.max(1, stableSamples);
+	}
+	
+	/**
+	 * Sets how many requests for the children of the instances are sent to the target VM concurrently, see <code>ChildResolver</code>.
+	 * This must be called before this thread is started.
+	 * @param noOfThreads The number of requests.
+	 */
+	public void setResolverThreads(int noOfThreads){
+		if (isAlive()){
+			throw new IllegalStateException("The number of resolver threads can not be changed while the thread is running.");
+		}
+		resolver = new ChildResolver(noOfThreads);
+	}
+	
+	/**
+	 * Sets a cache of the types that could be nodes, which is asked before the target VM. This must be called before this thread is started.
+	 * @param typeCache The cache.
+	 */
+	public void setTypeCache(CandidateTypeCache typeCache){
+		if (isAlive()){
+			throw new IllegalStateException("The type cache can not be changed while the thread is running.");
+		}
+		validTypes.setCache(typeCache);
+	}
+	
+	@Override
+	public void run() {
+		Timer timer = null;
+		if (snapshotMode == ON_INTERVAL){
+			timer = new Timer("snapshot sampling", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						if (sample()){
+							cancel();
+							vm.exit(0);
+						}
+					} catch (VMDisconnectedException e) {
+						// The target VM died, so the snapshot was taken then
+						cancel();
+					}
+				}
+			}, delay, delay);
+		} else if (snapshotMode == ON_TIMER){
+			timer = new Timer("snapshot timer", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						vm.suspend();
+						takeSnapshot();
+						vm.exit(0);
+					} catch (VMDisconnectedException e) {
+						// The target VM died first, so the snapshot was taken then
+					}
+				}
+			}, delay);
+		}
+		super.run();
+		if (timer != null){
+			timer.cancel();
+		}
+	}
+
+	@Override
+	public void processClassPrepareEvent(ClassPrepareEvent cPrE) {
+		ReferenceType type = cPrE.referenceType();
+		if (type.name().equals(SHUTDOWN_CLASS_NAME)){
+			requestBreakpoints(type, SHUTDOWN_METHOD_NAMES);
+			return;
+		}
+		if ((triggerClassName != null) && type.name().equals(triggerClassName)){
+			requestBreakpoints(type, new String[] {triggerMethodName});
+		}
+		if (validTypes.isValidType(type)){
+			synchronized (candidateTypes) {
+				candidateTypes.add(type);
+			}
+		}
+	}
+
+	@Override
+	public void processBreakpoint(BreakpointEvent bPoE, long sequence) {
+		takeSnapshot();
+		// The program may end by itself, but not after the trigger
+		if (!bPoE.location().declaringType().name().equals(SHUTDOWN_CLASS_NAME)){
+			vm.exit(0);
+		}
+	}
+
+	/**
+	 * Pulls every live instance of the candidate types from the target VM, which must be suspended, and reads their children.
+	 * This only happens once.
+	 */
+	private synchronized void takeSnapshot(){
+		if (snapshotTaken){
+			return;
+		}
+		snapshotTaken = true;
+		TimeKeeper time = new TimeKeeper("snapshot");
+		nodes = pullInstances();
+		time.stop();
+		System.out.println("Snapshot of "+nodes.size()+" objects");
+	}
+	
+	/**
+	 * Takes a sample of the running target VM and looks for RPGs in it after resuming the target VM. If the sample has the same objects
+	 * and children as the previous one, the RPGs of the previous one are taken without looking again.
+	 * @return <tt>true</tt> if enough samples in a row found the same RPGs, so that sampling can stop, <tt>false</tt> otherwise.
+	 */
+	private synchronized boolean sample(){
+		if (snapshotTaken){
+			return true;
+		}
+		TimeKeeper time = new TimeKeeper("sample suspension");
+		vm.suspend();
+		List<ObjectNode> sample;
+		try {
+			sample = pullInstances();
+		} finally {
+			vm.resume();
+		}
+		time.stop();
+		noOfSamples++;
+		Set<ObjectNode> sampleSet = new HashSet<ObjectNode>(sample);
+		Set<Set<Integer>> rootChildrenSets = previousRootChildrenSets;
+		if (!sampleSet.equals(previousSample)){
+			try {
+				rootChildrenSets = Extractor.getRootChildrenSets(new CompactHeapGraph(sample).getConnectedComponents());
+			} catch (Exception e) {
+				// The objects changed while they were pulled, so this sample is useless
+				rootChildrenSets = null;
+			}
+		}
+		if ((rootChildrenSets != null) && !rootChildrenSets.isEmpty() && rootChildrenSets.equals(previousRootChildrenSets)){
+			noOfStableSamples++;
+		} else {
+			noOfStableSamples = (rootChildrenSets == null || rootChildrenSets.isEmpty()) ? 0 : 1;
+		}
+		System.out.println("Sample "+noOfSamples+" of "+sample.size()+" objects found "+((rootChildrenSets == null) ? 0 : rootChildrenSets.size())
+				+" RPGs, stable for "+noOfStableSamples+" samples");
+		previousSample = sampleSet;
+		previousRootChildrenSets = rootChildrenSets;
+		if (noOfStableSamples >= stableSamples){
+			snapshotTaken = true;
+			nodes = sample;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Pulls every live instance of the candidate types from the target VM, which must be suspended, and reads their children.
+	 * @return The instances as nodes.
+	 */
+	private List<ObjectNode> pullInstances(){
+		List<ReferenceType> types;
+		synchronized (candidateTypes) {
+			types = new ArrayList<ReferenceType>(candidateTypes);
+		}
+		List<ObjectNode> result = new ArrayList<ObjectNode>();
+		for (ReferenceType type : types){
+			for (ObjectReference or : type.instances(0)){
+				// Only instances of exactly this type are listed, so there is no need to ask for it
+				result.add(validTypes.ofValidType(or, type));
+			}
+		}
+		resolver.resolve(result);
+		return result;
+	}
+
+	/**
+	 * Returns the nodes from the snapshot. You may not call this method until <code>this.whenDone()</code> is completed, which is the
+	 * case once <code>this.isAlive()</code> is <code>false</code>.
+	 * @return Every live instance of a type that could be a node when the snapshot was taken.
+	 * @throws Exception If this thread is not done yet.
+	 */
+	public List<ObjectNode> getNodes() throws Exception{
+		if (!whenDone().isDone()){
+			throw new Exception("The snapshot may be taken right now, so you may not retrieve the objects "
+					+ "until this thread is done.");
+		}
+		return nodes;
+	}
+
+	@Override
+	public void processDisconnected() {
+		// The snapshot has already been taken, otherwise there is nothing left to take it from
+	}
+
+	@Override
+	public void processDeath() {
+		// Only if the program was halted without shutting down, which leaves nothing to list
+		takeSnapshot();
+		quitNow = true;
+		vm.dispose();
+	}
+}
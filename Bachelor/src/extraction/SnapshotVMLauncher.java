@@ -0,0 +1,98 @@
+package extraction;
+
+import com.sun.jdi.VirtualMachine;
+
+import util.VMLauncher;
+
+/**
+ * Instances of this class launch a VirtualMachine for a given main class and take a snapshot of the objects that could be nodes of an RPG,
+ * see <code>SnapshotThread</code>.
+ * @author Kaspar
+ *
+ */
+public class SnapshotVMLauncher extends VMLauncher {
+	
+	private SnapshotThread st;
+	private String[] excludes = {"java.*", "javax.*", "sun.*", "com.sun.*", "java.nio.*", "oracle.*", "org.objectweb.asm.*", "javax.swing.*",
+			"jdk.internal.org.*", "org.jpgrapht.graph.*", "org.jgrapht.*"};
+
+	/**
+	 * Creates a new <code>SnapshotVMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and
+	 * arguments <code>args</code>. Furthermore, a <code>SnapshotThread</code> is started which takes the snapshot.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param snapshotMode When the snapshot is taken, one of the constants in <code>SnapshotThread</code>.
+	 * @param delay The time in milliseconds after which the snapshot is taken for <code>SnapshotThread.ON_TIMER</code>.
+	 * @param fullTriggerMethodName The full name of the method that takes the snapshot for <code>SnapshotThread.ON_TRIGGER</code>.
+	 */
+	public SnapshotVMLauncher(String classPath, String className, String args, int snapshotMode, long delay, String fullTriggerMethodName) {
+		this(classPath, className, args, snapshotMode, delay, fullTriggerMethodName, 2);
+	}
+	
+	/**
+	 * Creates a new <code>SnapshotVMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and
+	 * arguments <code>args</code>. Furthermore, a <code>SnapshotThread</code> is started which takes the snapshot.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param snapshotMode When the snapshot is taken, one of the constants in <code>SnapshotThread</code>.
+	 * @param delay The time in milliseconds after which the snapshot is taken or between samples.
+	 * @param fullTriggerMethodName The full name of the method that takes the snapshot for <code>SnapshotThread.ON_TRIGGER</code>.
+	 * @param stableSamples The number of samples in a row that must find the same RPGs for <code>SnapshotThread.ON_INTERVAL</code>.
+	 */
+	public SnapshotVMLauncher(String classPath, String className, String args, int snapshotMode, long delay, String fullTriggerMethodName,
+			int stableSamples) {
+		this(classPath, className, args, snapshotMode, delay, fullTriggerMethodName, stableSamples, 1);
+	}
+	
+	/**
+	 * Creates a new <code>SnapshotVMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and
+	 * arguments <code>args</code>. Furthermore, a <code>SnapshotThread</code> is started which takes the snapshot.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param snapshotMode When the snapshot is taken, one of the constants in <code>SnapshotThread</code>.
+	 * @param delay The time in milliseconds after which the snapshot is taken or between samples.
+	 * @param fullTriggerMethodName The full name of the method that takes the snapshot for <code>SnapshotThread.ON_TRIGGER</code>.
+	 * @param stableSamples The number of samples in a row that must find the same RPGs for <code>SnapshotThread.ON_INTERVAL</code>.
+	 * @param resolverThreads The number of requests for children that are sent concurrently.
+	 */
+	public SnapshotVMLauncher(String classPath, String className, String args, int snapshotMode, long delay, String fullTriggerMethodName,
+			int stableSamples, int resolverThreads) {
+		this(classPath, className, args, snapshotMode, delay, fullTriggerMethodName, stableSamples, resolverThreads, null);
+	}
+	
+	/**
+	 * Creates a new <code>SnapshotVMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and
+	 * arguments <code>args</code>. Furthermore, a <code>SnapshotThread</code> is started which takes the snapshot.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param snapshotMode When the snapshot is taken, one of the constants in <code>SnapshotThread</code>.
+	 * @param delay The time in milliseconds after which the snapshot is taken or between samples.
+	 * @param fullTriggerMethodName The full name of the method that takes the snapshot for <code>SnapshotThread.ON_TRIGGER</code>.
+	 * @param stableSamples The number of samples in a row that must find the same RPGs for <code>SnapshotThread.ON_INTERVAL</code>.
+	 * @param resolverThreads The number of requests for children that are sent concurrently.
+	 * @param typeCache The cache of the types that could be nodes or <tt>null</tt> if there is none.
+	 */
+	public SnapshotVMLauncher(String classPath, String className, String args, int snapshotMode, long delay, String fullTriggerMethodName,
+			int stableSamples, int resolverThreads, CandidateTypeCache typeCache) {
+		super(classPath, className, args);
+		VirtualMachine vm = getVM();
+		st = new SnapshotThread(vm, excludes, snapshotMode, delay, fullTriggerMethodName);
+		st.setStableSamples(stableSamples);
+		st.setResolverThreads(resolverThreads);
+		st.setTypeCache(typeCache);
+		st.start();
+		vm.resume();
+	}
+	
+	/**
+	 * Returns the SnapshotThread which takes the snapshot.
+	 * @return the SnapshotThread
+	 */
+	public SnapshotThread getSnapshotThread(){
+		return st;
+	}
+}
@@ -0,0 +1,254 @@
+package extraction.fixing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+
+import com.sun.jdi.ObjectReference;
+
+import util.GraphStructureException;
+import util.LongIntMap;
+import extraction.ObjectNode;
+
+/**
+ * A compact counterpart of <code>HeapGraph</code> for heaps with millions of objects that could be nodes. The objects are only known by
+ * their unique IDs, which are mapped to dense indices, and since every node has at most two children, the successors are kept in two
+ * <tt>int</tt> arrays instead of a graph with an object per vertex and edge. The weakly connected components are found with a union-find
+ * structure and grouped like in a compressed sparse row matrix, and only the components that have the size of an RPG are copied into a
+ * <code>PartialRPG</code>.<br>
+ * Loops and multiple edges are left out, as are children that are not nodes themselves, e.g. instances of subclasses or objects that
+ * were not extracted.
+ * @author Kaspar
+ *
+ */
+public class CompactHeapGraph {
+	private static final int NO_CHILD = -1;
+	private final int noOfNodes;
+	private final int[] firstChildren;
+	private final int[] secondChildren;
+
+	/**
+	 * Creates a new CompactHeapGraph from nodes whose children have been resolved. Dummy nodes are not allowed.
+	 * @param nodes The nodes. If several of them are the same object, only the first one counts.
+	 */
+	public CompactHeapGraph(Collection<ObjectNode> nodes) {
+		long[] ids = new long[nodes.size()];
+		long[] firstChildIds = new long[nodes.size()];
+		long[] secondChildIds = new long[nodes.size()];
+		int i = 0;
+		for (ObjectNode node : nodes){
+			ids[i] = node.or.uniqueID();
+			List<ObjectReference> children = node.getChildren();
+			firstChildIds[i] = (children.size() > 0) ? children.get(0).uniqueID() : 0;
+			secondChildIds[i] = (children.size() > 1) ? children.get(1).uniqueID() : 0;
+			i++;
+		}
+		LongIntMap idToIndex = indexIds(ids);
+		noOfNodes = idToIndex.size();
+		firstChildren = new int[noOfNodes];
+		secondChildren = new int[noOfNodes];
+		setChildren(ids, firstChildIds, secondChildIds, idToIndex);
+	}
+
+	/**
+	 * Creates a new CompactHeapGraph. The i-th object has the unique ID <code>ids[i]</code> and the children <code>firstChildren[i]</code>
+	 * and <code>secondChildren[i]</code>, each 0 if there is none.
+	 * @param ids The unique IDs of the objects.
+	 * @param firstChildIds The unique IDs of the objects' first children.
+	 * @param secondChildIds The unique IDs of the objects' second children.
+	 */
+	public CompactHeapGraph(long[] ids, long[] firstChildIds, long[] secondChildIds) {
+		LongIntMap idToIndex = indexIds(ids);
+		noOfNodes = idToIndex.size();
+		firstChildren = new int[noOfNodes];
+		secondChildren = new int[noOfNodes];
+		setChildren(ids, firstChildIds, secondChildIds, idToIndex);
+	}
+
+	/**
+	 * Maps the unique IDs to dense indices in the order in which they first appear.
+	 * @param ids The unique IDs.
+	 * @return The map.
+	 */
+	private static LongIntMap indexIds(long[] ids){
+		LongIntMap idToIndex = new LongIntMap(ids.length);
+		for (long id : ids){
+			if (idToIndex.get(id) == LongIntMap.NO_VALUE){
+				idToIndex.put(id, idToIndex.size());
+			}
+		}
+		return idToIndex;
+	}
+
+	/**
+	 * Sets the children of every node from their unique IDs.
+	 * @param ids The unique IDs of the objects.
+	 * @param firstChildIds The unique IDs of the objects' first children.
+	 * @param secondChildIds The unique IDs of the objects' second children.
+	 * @param idToIndex The indices of the unique IDs.
+	 */
+	private void setChildren(long[] ids, long[] firstChildIds, long[] secondChildIds, LongIntMap idToIndex){
+		Arrays.fill(firstChildren, NO_CHILD);
+		Arrays.fill(secondChildren, NO_CHILD);
+		boolean[] done = new boolean[noOfNodes];
+		for (int i = 0; i < ids.length; i++){
+			int node = idToIndex.get(ids[i]);
+			if (done[node]){
+				continue;
+			}
+			done[node] = true;
+			int first = childIndex(firstChildIds[i], node, idToIndex);
+			int second = childIndex(secondChildIds[i], node, idToIndex);
+			if (first == second){
+				second = NO_CHILD;
+			}
+			if (first == NO_CHILD){
+				first = second;
+				second = NO_CHILD;
+			}
+			firstChildren[node] = first;
+			secondChildren[node] = second;
+		}
+	}
+
+	/**
+	 * Returns the index of a child.
+	 * @param childId The unique ID of the child or 0 if there is none.
+	 * @param node The index of the parent.
+	 * @param idToIndex The indices of the unique IDs.
+	 * @return The index of the child or <tt>NO_CHILD</tt> if there is none, it is no node or it would be a loop.
+	 */
+	private static int childIndex(long childId, int node, LongIntMap idToIndex){
+		if (childId == 0){
+			return NO_CHILD;
+		}
+		int child = idToIndex.get(childId);
+		if ((child == LongIntMap.NO_VALUE) || (child == node)){
+			return NO_CHILD;
+		}
+		return child;
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return The number of distinct objects.
+	 */
+	public int size(){
+		return noOfNodes;
+	}
+
+	/**
+	 * Splits this graph into its weakly connected components and keeps those that could be RPGs, even broken ones.
+	 * @return The components that could be RPGs.
+	 */
+	public Set<PartialRPG> getConnectedComponents(){
+		int[] parent = new int[noOfNodes];
+		for (int node = 0; node < noOfNodes; node++){
+			parent[node] = node;
+		}
+		for (int node = 0; node < noOfNodes; node++){
+			if (firstChildren[node] != NO_CHILD){
+				union(parent, node, firstChildren[node]);
+			}
+			if (secondChildren[node] != NO_CHILD){
+				union(parent, node, secondChildren[node]);
+			}
+		}
+		// Count the nodes and edges of every component, indexed by its root
+		int[] componentSize = new int[noOfNodes];
+		int[] componentEdges = new int[noOfNodes];
+		for (int node = 0; node < noOfNodes; node++){
+			int root = find(parent, node);
+			parent[node] = root;
+			componentSize[root]++;
+			componentEdges[root] += ((firstChildren[node] != NO_CHILD) ? 1 : 0) + ((secondChildren[node] != NO_CHILD) ? 1 : 0);
+		}
+		// Group the nodes by component, the nodes of the component with root r are at offsets[r] to offsets[r]+componentSize[r]-1
+		int[] offsets = new int[noOfNodes];
+		int offset = 0;
+		for (int root = 0; root < noOfNodes; root++){
+			offsets[root] = offset;
+			offset += componentSize[root];
+		}
+		int[] members = new int[noOfNodes];
+		int[] filled = new int[noOfNodes];
+		for (int node = 0; node < noOfNodes; node++){
+			int root = parent[node];
+			members[offsets[root] + filled[root]] = node;
+			filled[root]++;
+		}
+		Set<PartialRPG> result = new HashSet<PartialRPG>();
+		for (int root = 0; root < noOfNodes; root++){
+			int n = componentSize[root];
+			int m = componentEdges[root];
+			// The same bounds as in PartialRPG, checked before anything is copied
+			if ((n < 4) || (m < 2*n-4) || (m > 2*n-2)){
+				continue;
+			}
+			try {
+				result.add(new PartialRPG(getComponent(members, offsets[root], n)));
+			} catch (GraphStructureException e) {
+				// If what we provide is not even a broken RPG, just ignore it.
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copies a component into a graph.
+	 * @param members The nodes grouped by component.
+	 * @param offset The position of the component's first node in <code>members</code>.
+	 * @param size The number of nodes of the component.
+	 * @return The component.
+	 */
+	private SimpleDirectedGraph<Integer,DefaultEdge> getComponent(int[] members, int offset, int size){
+		SimpleDirectedGraph<Integer,DefaultEdge> component = new SimpleDirectedGraph<Integer,DefaultEdge>(DefaultEdge.class);
+		for (int i = offset; i < offset + size; i++){
+			component.addVertex(members[i]);
+		}
+		for (int i = offset; i < offset + size; i++){
+			int node = members[i];
+			if (firstChildren[node] != NO_CHILD){
+				component.addEdge(node, firstChildren[node]);
+			}
+			if (secondChildren[node] != NO_CHILD){
+				component.addEdge(node, secondChildren[node]);
+			}
+		}
+		return component;
+	}
+
+	/**
+	 * Finds the root of the component of a node, halving the path to it on the way.
+	 * @param parent The parents in the union-find structure.
+	 * @param node The index of the node.
+	 * @return The index of the root.
+	 */
+	private static int find(int[] parent, int node){
+		while (parent[node] != node){
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Merges the components of two nodes.
+	 * @param parent The parents in the union-find structure.
+	 * @param a The index of one node.
+	 * @param b The index of the other node.
+	 */
+	private static void union(int[] parent, int a, int b){
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA != rootB){
+			// With path halving, this is fast enough without keeping ranks
+			parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+		}
+	}
+}
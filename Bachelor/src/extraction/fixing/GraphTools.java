@@ -12,6 +12,8 @@ import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DirectedSubgraph;
 import org.jgrapht.traverse.DepthFirstIterator;
 
+import util.GraphStructureException;
+
 public class GraphTools {
 
 	private GraphTools() {}
@@ -39,6 +41,25 @@ public class GraphTools {
 		return result;
 	}
 	
+	/**
+	 * Splits a graph into its weakly connected components and keeps those that could be RPGs, even broken ones.
+	 * @param graph The graph.
+	 * @return The components that could be RPGs.
+	 */
+	public static <V> Set<PartialRPG> getPartialRPGs(DirectedGraph<V,DefaultEdge> graph){
+		Set<PartialRPG> result = new HashSet<PartialRPG>();
+		Set<DirectedGraph<V,DefaultEdge>> subgraphs = getConnectedComponents(graph);
+		for (DirectedGraph<V,DefaultEdge> subgraph : subgraphs){
+			try {
+				PartialRPG partialRPG = new PartialRPG(subgraph);
+				result.add(partialRPG);
+			} catch (GraphStructureException e) {
+				// If what we provide is not even a broken RPG, just ignore it.
+			}
+		}
+		return result;
+	}
+	
 	public static <V> HashMap<V,Integer> renameNodes(List<V> hamiltonPath){
 		HashMap<V,Integer> result = new HashMap<V,Integer>();
 		// 2n+3 nodes, the highest one is 2n+2
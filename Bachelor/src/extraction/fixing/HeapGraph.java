@@ -1,13 +1,10 @@
 package extraction.fixing;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Set;
 
-import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.SimpleDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
-import util.GraphStructureException;
 
 import com.sun.jdi.ObjectReference;
 
@@ -47,17 +44,7 @@ public class HeapGraph extends
 	}
 	
 	public Set<PartialRPG> getConnectedComponents(){
-		Set<PartialRPG> result = new HashSet<PartialRPG>();
-		Set<DirectedGraph<ObjectNode,DefaultEdge>> subgraphs = GraphTools.getConnectedComponents(this);
-		for (DirectedGraph<ObjectNode,DefaultEdge> subgraph : subgraphs){
-			try {
-				PartialRPG partialRPG = new PartialRPG(subgraph);
-				result.add(partialRPG);
-			} catch (GraphStructureException e) {
-				// If what we provide is not even a broken RPG, just ignore it.
-			}
-		}
-		return result;
+		return GraphTools.getPartialRPGs(this);
 	}
 
 }
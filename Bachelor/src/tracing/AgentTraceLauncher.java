@@ -0,0 +1,118 @@
+package tracing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import util.InToOutThread;
+
+/**
+ * Runs a program with <code>MarkAgent</code> instead of under a debugger and reads the trace points from its log. Since the target VM
+ * is never suspended, the program runs at close to its normal speed. The agent jar only consists of a manifest; the agent's classes
+ * are found on the class path that the target VM inherits, just like with <code>TraceVMLauncher</code>.
+ * @author Kaspar
+ *
+ */
+public class AgentTraceLauncher {
+	
+	private final Process process;
+	private final File logFile;
+	private final Thread errThread;
+	private final Thread outThread;
+	private MarkLogReader reader = null;
+	private LinkedHashSet<TracePoint> tracePoints;
+
+	/**
+	 * Creates a new <code>AgentTraceLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code>
+	 * and arguments <code>args</code> with the agent tracing calls to a mark method.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param markMethodName The full name of the mark method. This needs to contain the package as well as the class, so
+	 *  for example, "mark" would not be correct, but "myPackage.Marker.mark" would be.
+	 * @throws IOException If the agent jar or the log file can not be created or the VM can not be launched.
+	 */
+	public AgentTraceLauncher(String classPath, String className, String args, String markMethodName) throws IOException {
+		File agentJar = createAgentJar();
+		logFile = File.createTempFile("marks", ".log");
+		logFile.deleteOnExit();
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.add("-javaagent:"+agentJar.getAbsolutePath()+"="+markMethodName+","+logFile.getAbsolutePath());
+		command.add("-cp");
+		command.add(classPath+File.pathSeparator+System.getProperty("java.class.path"));
+		command.add(className);
+		if (!args.trim().isEmpty()){
+			for (String arg : args.trim().split("\\s+")){
+				command.add(arg);
+			}
+		}
+		process = new ProcessBuilder(command).start();
+		errThread = new InToOutThread(process.getErrorStream(), System.err);
+		outThread = new InToOutThread(process.getInputStream(), System.out);
+		errThread.start();
+		outThread.start();
+	}
+	
+	/**
+	 * Waits until the target VM has terminated and reads the trace points from its log.
+	 * @return The trace points in the order in which they were first hit, without duplicates and with their indices set.
+	 * @throws IOException If the log can not be read.
+	 * @throws InterruptedException If this thread is interrupted while waiting.
+	 */
+	public LinkedHashSet<TracePoint> getTracePoints() throws IOException, InterruptedException{
+		readLog();
+		return tracePoints;
+	}
+	
+	/**
+	 * Waits until the target VM has terminated and returns every trace point in its log, including the duplicates.
+	 * @return The trace points in the order of their first hit, with their hits set.
+	 * @throws IOException If the log can not be read.
+	 * @throws InterruptedException If this thread is interrupted while waiting.
+	 */
+	public List<TracePoint> getAllTracePoints() throws IOException, InterruptedException{
+		readLog();
+		return reader.getAllTracePoints();
+	}
+	
+	/**
+	 * Waits until the target VM has terminated and reads its log, unless that has already been done.
+	 * @throws IOException If the log can not be read.
+	 * @throws InterruptedException If this thread is interrupted while waiting.
+	 */
+	private void readLog() throws IOException, InterruptedException{
+		if (reader != null){
+			return;
+		}
+		process.waitFor();
+		errThread.join();
+		outThread.join();
+		MarkLogReader logReader = new MarkLogReader(logFile.getPath());
+		tracePoints = logReader.read();
+		reader = logReader;
+		logFile.delete();
+	}
+	
+	/**
+	 * Creates a temporary jar file whose manifest names <code>MarkAgent</code> as the agent class.
+	 * @return The jar file.
+	 * @throws IOException If the file can not be written.
+	 */
+	private static File createAgentJar() throws IOException{
+		File jar = File.createTempFile("markagent", ".jar");
+		jar.deleteOnExit();
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(new Attributes.Name("Premain-Class"), MarkAgent.class.getName());
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		out.close();
+		return jar;
+	}
+}
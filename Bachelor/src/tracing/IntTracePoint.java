@@ -1,8 +1,5 @@
 package tracing;
 
-import com.sun.jdi.IntegerValue;
-import com.sun.jdi.Location;
-
 /**
  * An implementation of <code>TracePoint</code> for argument values of type <code>int</code>.
  * @author Kaspar
@@ -10,19 +7,30 @@ import com.sun.jdi.Location;
  */
 public class IntTracePoint extends TracePoint {
 	
-	private Location loc;
-	private IntegerValue val;
+	private int value;
+
+	/**
+	 * Creates a new instance.
+	 * @param methodSig The signature of the method containing the call as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param codeIndex The code index of the call to the mark method.
+	 * @param value The argument value.
+	 */
+	public IntTracePoint(String methodSig, long codeIndex, int value) {
+		super(methodSig, codeIndex);
+		this.value = value;
+	}
 
 	/**
-	 * Creates a new instance at code location <code>loc</code> with the argument value being a <code>int</code> that is mirrored
-	 * as <code>IntegerValue</code>.
-	 * @param loc the code location
-	 * @param val the mirrored <code>int</code> value.
+	 * Returns the argument of the mark call.
+	 * @return The <code>int</code> value.
 	 */
-	public IntTracePoint(Location loc, IntegerValue val) {
-		super(loc, val);
-		this.loc = loc;
-		this.val = val;
+	public int getValue(){
+		return value;
+	}
+
+	@Override
+	protected String valueToString(){
+		return Integer.toString(value);
 	}
 
 	/* (non-Javadoc)
@@ -32,8 +40,9 @@ public class IntTracePoint extends TracePoint {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((loc == null) ? 0 : loc.hashCode());
-		result = prime * result + ((val == null) ? 0 : val.hashCode());
+		result = prime * result + getMethodSig().hashCode();
+		result = prime * result + (int) (getCodeIndex() ^ (getCodeIndex() >>> 32));
+		result = prime * result + value;
 		return result;
 	}
 
@@ -41,11 +50,10 @@ public class IntTracePoint extends TracePoint {
 	/**
 	 * Compares the specified Object with this IntTracePoint for equality.
 	 * @param obj The object with which to compare.
-	 * @return <code>true</code> if the Object is an IntTracePoint, if it refers to the same code location and if the IntegerValue that it references
-	 *   refers to an <code>int</code> value that is the same as this IntTracePoint's, <code>false</code> otherwise.
+	 * @return <code>true</code> if the Object is an IntTracePoint, if it refers to the same code location and if its <code>int</code> value
+	 *   is the same as this IntTracePoint's, <code>false</code> otherwise.
 	 */
 	public boolean equals(Object obj) {
-		// This works because equals on IntegerValue is defined as equality of the mirrored value
 		if (this == obj)
 			return true;
 		if (obj == null)
@@ -53,15 +61,11 @@ public class IntTracePoint extends TracePoint {
 		if (getClass() != obj.getClass())
 			return false;
 		IntTracePoint other = (IntTracePoint) obj;
-		if (loc == null) {
-			if (other.loc != null)
-				return false;
-		} else if (!loc.equals(other.loc))
+		if (!getMethodSig().equals(other.getMethodSig()))
+			return false;
+		if (getCodeIndex() != other.getCodeIndex())
 			return false;
-		if (val == null) {
-			if (other.val != null)
-				return false;
-		} else if (!val.equals(other.val))
+		if (value != other.value)
 			return false;
 		return true;
 	}
@@ -0,0 +1,247 @@
+package tracing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A <code>java.lang.instrument</code> agent that traces calls to a mark method without a debugger. Each class that calls the mark method is
+ * rewritten while it is loaded so that every call first passes its argument and the number of its call site to <code>MarkLog</code>.
+ * The call sites are logged with the code index that the call has in the original class, so the trace points that <code>MarkLogReader</code>
+ * creates are the same as those a <code>MarkTraceThread</code> would find.<br>
+ * The agent's arguments are the full name of the mark method and the name of the log file, separated by a comma. Use
+ * <code>AgentTraceLauncher</code> to start a program with this agent.
+ * @author Kaspar
+ *
+ */
+public class MarkAgent implements ClassFileTransformer {
+	
+	private static final String[] EXCLUDES = {"java/", "javax/", "sun/", "com/sun/", "jdk/", "oracle/", "org/objectweb/asm/",
+			"org/apache/bcel/"};
+	// Only the agent's own classes, so that host classes in a package named tracing are still traced, just like under the debugger
+	private static final String[] AGENT_CLASSES = {"tracing/MarkAgent", "tracing/MarkLog"};
+	private final String markClassName;
+	private final String markInternalName;
+	private final String markMethodName;
+	private final byte[] markInternalNameBytes;
+	
+	/**
+	 * Creates a new transformer for a mark method.
+	 * @param fullMarkMethodName The full name of the mark method, e.g. "myPackage.Marker.mark".
+	 */
+	public MarkAgent(String fullMarkMethodName) {
+		int i = fullMarkMethodName.lastIndexOf('.');
+		markClassName = fullMarkMethodName.substring(0, i);
+		markInternalName = markClassName.replace('.', '/');
+		markMethodName = fullMarkMethodName.substring(i+1);
+		markInternalNameBytes = markInternalName.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Called by the VM before the main method. Opens the log and registers the transformer.
+	 * @param agentArgs The full name of the mark method and the name of the log file, separated by a comma.
+	 * @param inst The instrumentation of this VM.
+	 * @throws IOException If the log file can not be opened.
+	 */
+	public static void premain(String agentArgs, Instrumentation inst) throws IOException{
+		int i = agentArgs.indexOf(',');
+		MarkLog.open(agentArgs.substring(i+1));
+		inst.addTransformer(new MarkAgent(agentArgs.substring(0, i)));
+	}
+	
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+			byte[] classfileBuffer) {
+		if ((loader == null) || (className == null) || isExcluded(className)){
+			return null;
+		}
+		// A class that calls the mark method needs a Methodref to it, so its constant pool contains the mark class' name
+		if (!contains(classfileBuffer, markInternalNameBytes)){
+			return null;
+		}
+		try {
+			HashMap<String,int[]> methodToSites = getSites(className, classfileBuffer);
+			if (methodToSites.isEmpty()){
+				return null;
+			}
+			return instrument(classfileBuffer, methodToSites);
+		} catch (Throwable e) {
+			// An exception in here would just be swallowed by the VM and the class would be loaded untraced
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Finds the calls to the mark method in a class and logs them as call sites.
+	 * @param className The internal name of the class.
+	 * @param bytecode The class' bytecode.
+	 * @return Maps the name and descriptor of each method that calls the mark method to the numbers of its call sites, in the order
+	 *   in which they appear in the code. Calls whose argument is neither <code>int</code> nor <code>String</code> have -1 instead.
+	 * @throws IOException If the class can not be parsed.
+	 */
+	private HashMap<String,int[]> getSites(String className, byte[] bytecode) throws IOException{
+		JavaClass clazz = new ClassParser(new ByteArrayInputStream(bytecode), className).parse();
+		ConstantPoolGen cpg = new ConstantPoolGen(clazz.getConstantPool());
+		HashMap<String,int[]> result = new HashMap<String,int[]>();
+		for (Method method : clazz.getMethods()){
+			if (method.getCode() == null){
+				continue;
+			}
+			List<Integer> sites = new ArrayList<Integer>();
+			InstructionList il = new InstructionList(method.getCode().getCode());
+			for (InstructionHandle handle : il.getInstructionHandles()){
+				if (!(handle.getInstruction() instanceof InvokeInstruction)){
+					continue;
+				}
+				InvokeInstruction invoke = (InvokeInstruction) handle.getInstruction();
+				if (!embedding.Tools.isMarkCall(invoke, cpg, markClassName, markMethodName)){
+					continue;
+				}
+				byte argument = getArgument(invoke.getSignature(cpg));
+				if (argument < 0){
+					System.err.println("Argument to "+markClassName+"."+markMethodName+invoke.getSignature(cpg)+" is not of type int or "
+							+ "java.lang.String, so it is not traced");
+					sites.add(-1);
+				} else {
+					String methodSig = className+"."+method.getName()+":"+method.getSignature();
+					sites.add(MarkLog.addSite(methodSig, handle.getPosition(), argument));
+				}
+			}
+			if (!sites.isEmpty()){
+				int[] sitesA = new int[sites.size()];
+				for (int i = 0; i < sitesA.length; i++){
+					sitesA[i] = sites.get(i);
+				}
+				result.put(method.getName()+method.getSignature(), sitesA);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Inserts a call to <code>MarkLog.hit</code> before every call to the mark method that is a call site. The argument is duplicated for
+	 * that, so the mark call itself stays as it is.
+	 * @param bytecode The class' bytecode.
+	 * @param methodToSites The call sites as returned by <tt>getSites</tt>.
+	 * @return The instrumented bytecode.
+	 */
+	private byte[] instrument(byte[] bytecode, final HashMap<String,int[]> methodToSites){
+		ClassReader cr = new ClassReader(bytecode);
+		// Nothing but the stack size changes, so the existing stack map frames stay valid
+		ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS);
+		cr.accept(new ClassVisitor(Opcodes.ASM5, cw){
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+				MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+				final int[] sites = methodToSites.get(name+desc);
+				if (sites == null){
+					return mv;
+				}
+				return new MethodVisitor(Opcodes.ASM5, mv){
+					private int noOfCalls = 0;
+					
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+						if (owner.equals(markInternalName) && name.equals(markMethodName)){
+							int site = sites[noOfCalls];
+							noOfCalls++;
+							if (site >= 0){
+								visitHit(site, getArgument(desc));
+							}
+						}
+						super.visitMethodInsn(opcode, owner, name, desc, itf);
+					}
+					
+					private void visitHit(int site, byte argument){
+						String hitDesc;
+						if (argument == MarkLog.ARGUMENT_NONE){
+							hitDesc = "(I)V";
+						} else {
+							super.visitInsn(Opcodes.DUP);
+							hitDesc = (argument == MarkLog.ARGUMENT_INT) ? "(II)V" : "(Ljava/lang/String;I)V";
+						}
+						super.visitLdcInsn(site);
+						super.visitMethodInsn(Opcodes.INVOKESTATIC, "tracing/MarkLog", "hit", hitDesc, false);
+					}
+				};
+			}
+		}, 0);
+		return cw.toByteArray();
+	}
+	
+	/**
+	 * Returns the type of argument of a mark method.
+	 * @param desc The descriptor of the mark method.
+	 * @return One of the <tt>ARGUMENT_</tt> constants in <code>MarkLog</code> or -1 if the argument is not supported.
+	 */
+	private static byte getArgument(String desc){
+		String args = desc.substring(1, desc.indexOf(')'));
+		if (args.isEmpty()){
+			return MarkLog.ARGUMENT_NONE;
+		} else if (args.equals("I")){
+			return MarkLog.ARGUMENT_INT;
+		} else if (args.equals("Ljava/lang/String;")){
+			return MarkLog.ARGUMENT_STRING;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Checks if a class is part of the JDK or the tracing itself.
+	 * @param className The internal name of the class.
+	 * @return <code>true</code> if the class must not be instrumented, <code>false</code> otherwise.
+	 */
+	private static boolean isExcluded(String className){
+		for (String exclude : EXCLUDES){
+			if (className.startsWith(exclude)){
+				return true;
+			}
+		}
+		for (String agentClass : AGENT_CLASSES){
+			// including the anonymous classes, e.g. tracing/MarkAgent$1
+			if (className.equals(agentClass) || className.startsWith(agentClass+"$")){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if an array contains a sequence of bytes.
+	 * @param array The array.
+	 * @param sequence The sequence.
+	 * @return <code>true</code> if <code>sequence</code> appears in <code>array</code>, <code>false</code> otherwise.
+	 */
+	private static boolean contains(byte[] array, byte[] sequence){
+		outer:
+		for (int i = 0; i <= array.length - sequence.length; i++){
+			for (int j = 0; j < sequence.length; j++){
+				if (array[i+j] != sequence[j]){
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+}
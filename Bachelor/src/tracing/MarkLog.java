@@ -0,0 +1,128 @@
+package tracing;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The log that <code>MarkAgent</code> writes to inside the traced VM. Instrumented classes call one of the <tt>hit</tt> methods right before
+ * each call to the mark method, which appends a record to a memory-mapped file, so that no debugger has to stop the VM.<br>
+ * Every record starts with its type, which is only written once the rest of the record is complete. Since the mapped file is filled with
+ * zeroes, a log whose VM died in the middle of a record simply ends before that record. The format is read by <code>MarkLogReader</code>.
+ * @author Kaspar
+ *
+ */
+public final class MarkLog {
+	static final byte END = 0;
+	static final byte SITE = 1;
+	static final byte HIT = 2;
+	static final byte ARGUMENT_NONE = 0;
+	static final byte ARGUMENT_INT = 1;
+	static final byte ARGUMENT_STRING = 2;
+	
+	private static final int CHUNK_SIZE = 1 << 22;
+	private static FileChannel channel = null;
+	private static MappedByteBuffer buf = null;
+	// The position of buf in the file
+	private static long base = 0;
+	private static int noOfSites = 0;
+	
+	private MarkLog() {
+	}
+	
+	/**
+	 * Opens the log file, overwriting it if it exists. This must be called before anything is logged.
+	 * @param fileName The name of the log file.
+	 * @throws IOException If the file can not be opened.
+	 */
+	static synchronized void open(String fileName) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		base = 0;
+		buf = channel.map(FileChannel.MapMode.READ_WRITE, base, CHUNK_SIZE);
+	}
+	
+	/**
+	 * Logs a call site of the mark method. This is done while the class containing it is transformed, so before the site can be hit.
+	 * @param methodSig The signature of the method containing the call as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param codeIndex The code index of the call in the original method.
+	 * @param argument The type of argument that the called mark method takes, one of the <tt>ARGUMENT_</tt> constants.
+	 * @return The number identifying the site in hits.
+	 */
+	static synchronized int addSite(String methodSig, int codeIndex, byte argument){
+		byte[] sig = methodSig.getBytes(StandardCharsets.UTF_8);
+		int site = noOfSites;
+		int start = reserve(13 + sig.length);
+		buf.putInt(site);
+		buf.put(argument);
+		buf.putInt(codeIndex);
+		buf.putInt(sig.length);
+		buf.put(sig);
+		buf.put(start, SITE);
+		noOfSites++;
+		return site;
+	}
+	
+	/**
+	 * Logs a hit of a site whose mark method has no argument.
+	 * @param site The number of the site.
+	 */
+	public static synchronized void hit(int site){
+		int start = reserve(5);
+		buf.putInt(site);
+		buf.put(start, HIT);
+	}
+	
+	/**
+	 * Logs a hit of a site whose mark method has an <code>int</code> argument.
+	 * @param value The argument.
+	 * @param site The number of the site.
+	 */
+	public static synchronized void hit(int value, int site){
+		int start = reserve(9);
+		buf.putInt(site);
+		buf.putInt(value);
+		buf.put(start, HIT);
+	}
+	
+	/**
+	 * Logs a hit of a site whose mark method has a <code>String</code> argument.
+	 * @param value The argument, may be <tt>null</tt>.
+	 * @param site The number of the site.
+	 */
+	public static synchronized void hit(String value, int site){
+		byte[] bytes = (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+		int start = reserve(9 + ((bytes == null) ? 0 : bytes.length));
+		buf.putInt(site);
+		if (bytes == null){
+			buf.putInt(-1);
+		} else {
+			buf.putInt(bytes.length);
+			buf.put(bytes);
+		}
+		buf.put(start, HIT);
+	}
+	
+	/**
+	 * Makes sure that a record of a certain size fits into the mapped part of the file, mapping the next part if it does not. The type of
+	 * the record is left as <tt>END</tt> for now.
+	 * @param size The size of the record including its type.
+	 * @return The position of the record in <code>buf</code>.
+	 */
+	private static int reserve(int size){
+		if (buf.remaining() < size){
+			base += buf.position();
+			try {
+				buf = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.max(CHUNK_SIZE, size));
+			} catch (IOException e) {
+				throw new IllegalStateException("The mark log can not be extended", e);
+			}
+		}
+		int start = buf.position();
+		buf.put(END);
+		return start;
+	}
+}
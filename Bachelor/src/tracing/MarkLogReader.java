@@ -0,0 +1,140 @@
+package tracing;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reads a log written by <code>MarkLog</code> and turns it into trace points. Duplicates are handled just like in <code>MarkTraceThread</code>:
+ * a trace point that is hit more than once is removed and the remaining ones are enumerated in the order in which they were first hit.
+ * @author Kaspar
+ *
+ */
+public class MarkLogReader {
+	
+	private final String fileName;
+	private final List<String> siteMethodSigs;
+	private final List<Integer> siteCodeIndices;
+	private final List<Byte> siteArguments;
+	private List<TracePoint> allTracePoints = null;
+	private long noOfHits = 0;
+
+	/**
+	 * Creates a new reader.
+	 * @param fileName The name of the log file.
+	 */
+	public MarkLogReader(String fileName) {
+		this.fileName = fileName;
+		siteMethodSigs = new ArrayList<String>();
+		siteCodeIndices = new ArrayList<Integer>();
+		siteArguments = new ArrayList<Byte>();
+	}
+	
+	/**
+	 * Reads the log.
+	 * @return The trace points in the order in which they were first hit, without duplicates and with their indices set.
+	 * @throws IOException If the log can not be read.
+	 */
+	public LinkedHashSet<TracePoint> read() throws IOException{
+		// Maps each trace point to its first instance, which counts the hits
+		LinkedHashMap<TracePoint,TracePoint> firstHits = new LinkedHashMap<TracePoint,TracePoint>();
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE){
+				throw new IOException("The mark log "+fileName+" is larger than 2 GB");
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			while (buf.hasRemaining()){
+				byte type = buf.get();
+				if (type == MarkLog.END){
+					break;
+				} else if (type == MarkLog.SITE){
+					readSite(buf);
+				} else if (type == MarkLog.HIT){
+					TracePoint tracePoint = readHit(buf);
+					noOfHits++;
+					TracePoint first = firstHits.get(tracePoint);
+					if (first == null){
+						firstHits.put(tracePoint, tracePoint);
+					} else {
+						first.setHits(first.getHits()+1);
+					}
+				} else {
+					throw new IOException("Unknown record type "+type+" in mark log "+fileName);
+				}
+			}
+		} finally {
+			file.close();
+		}
+		allTracePoints = new ArrayList<TracePoint>(firstHits.keySet());
+		return TracePoint.removeDuplicates(allTracePoints);
+	}
+	
+	/**
+	 * Returns every trace point in the log, including the duplicates. <tt>read()</tt> must have been called before this method.
+	 * @return The trace points in the order of their first hit, with their hits set.
+	 */
+	public List<TracePoint> getAllTracePoints(){
+		return allTracePoints;
+	}
+	
+	/**
+	 * Returns the number of calls to the mark method that were logged. <tt>read()</tt> must have been called before this method.
+	 * @return The number of hits, including duplicates.
+	 */
+	public long getNoOfHits(){
+		return noOfHits;
+	}
+	
+	/**
+	 * Reads a call site record. The site numbers are consecutive, so the site is simply appended.
+	 * @param buf The buffer positioned right after the type of the record.
+	 */
+	private void readSite(MappedByteBuffer buf){
+		buf.getInt();
+		byte argument = buf.get();
+		int codeIndex = buf.getInt();
+		String methodSig = readString(buf, buf.getInt());
+		siteMethodSigs.add(methodSig);
+		siteCodeIndices.add(codeIndex);
+		siteArguments.add(argument);
+	}
+	
+	/**
+	 * Reads a hit record.
+	 * @param buf The buffer positioned right after the type of the record.
+	 * @return The trace point that was hit.
+	 */
+	private TracePoint readHit(MappedByteBuffer buf){
+		int site = buf.getInt();
+		String methodSig = siteMethodSigs.get(site);
+		long codeIndex = siteCodeIndices.get(site);
+		byte argument = siteArguments.get(site);
+		if (argument == MarkLog.ARGUMENT_INT){
+			return new IntTracePoint(methodSig, codeIndex, buf.getInt());
+		} else if (argument == MarkLog.ARGUMENT_STRING){
+			int length = buf.getInt();
+			return new StringTracePoint(methodSig, codeIndex, (length < 0) ? null : readString(buf, length));
+		}
+		return new NoArgTracePoint(methodSig, codeIndex);
+	}
+	
+	/**
+	 * Reads a UTF-8 encoded <code>String</code>.
+	 * @param buf The buffer positioned at the start of the <code>String</code>.
+	 * @param length The length of the <code>String</code> in bytes.
+	 * @return The <code>String</code>.
+	 */
+	private static String readString(MappedByteBuffer buf, int length){
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,9 +1,16 @@
 package tracing;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import util.QueueThread;
 import util.UnsupportedArgumentException;
@@ -14,6 +21,7 @@ import com.sun.jdi.Method;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.StackFrame;
 import com.sun.jdi.StringReference;
+import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.Value;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.event.BreakpointEvent;
@@ -22,16 +30,35 @@ import com.sun.jdi.request.BreakpointRequest;
 
 /**
  * This <code>QueueThread</code> specifically waits for calls to a mark method in the target VM and stores
- * the location and arguments of those calls.
+ * the location and arguments of those calls. Breakpoints may be processed concurrently; the trace points are still ordered by when
+ * their breakpoints arrived in the event queue, so the result is the same as if they had been processed one after the other.<br>
+ * The trace points do not reference the target VM, so it is disposed as soon as it starts dying.<br>
+ * With <tt>setTarget</tt>, the target VM is killed before it finishes on its own once enough trace points have been hit exactly once.
+ * A trace point that is hit a second time is a duplicate and dropped, so the target must still be met after a confirmation window of
+ * further hits. A trace point that would only have been hit again after that window is kept, since the rest of the execution is never seen.
  * @author Kaspar
  *
  */
 public class MarkTraceThread extends QueueThread {
 	
+	private VirtualMachine vm;
 	// We use LinkedHashSet because we do not want duplicate TracePoints, but still want an order
 	// I declare it as such because the iteration order being the insertion order is actually important
 	private LinkedHashSet<TracePoint> tracePoints;
-	private Set<TracePoint> toBeDeleted;
+	private List<TracePoint> allTracePoints;
+	// Maps each trace point to the sequence of its first hit
+	private Map<TracePoint,Long> firstHits;
+	private Map<TracePoint,AtomicInteger> hitCounts;
+	private boolean finished = false;
+	// The number of trace points that were hit exactly once so far and the number of hits of any trace point
+	private AtomicInteger uniqueTracePoints = new AtomicInteger();
+	private AtomicLong totalHits = new AtomicLong();
+	private int targetCount = 0;
+	private long confirmationHits = 0;
+	private long timeout = 0;
+	// The total hits at which the target was last reached or -1 if it currently isn't
+	private long targetReachedAt = -1;
+	private volatile boolean stopped = false;
 	private String markClassName;
 	private String markMethodName;
 	
@@ -46,11 +73,48 @@ public class MarkTraceThread extends QueueThread {
 	 */
 	public MarkTraceThread(VirtualMachine vm, String[] excludes, String fullMarkMethodName) {
 		super(vm, excludes, "tracing");
+		this.vm = vm;
 		int i = fullMarkMethodName.lastIndexOf('.');
 		markClassName = fullMarkMethodName.substring(0, i);
 		markMethodName = fullMarkMethodName.substring(i+1, fullMarkMethodName.length());
 		tracePoints = new LinkedHashSet<TracePoint>();
-		toBeDeleted = new HashSet<TracePoint>();
+		allTracePoints = new ArrayList<TracePoint>();
+		firstHits = new ConcurrentHashMap<TracePoint,Long>();
+		hitCounts = new ConcurrentHashMap<TracePoint,AtomicInteger>();
+	}
+	
+	/**
+	 * Sets when the target VM is killed before it finishes on its own. This must be called before this thread is started.
+	 * @param targetCount The number of trace points that must be hit exactly once. If this is 0, the target VM is not killed for that.
+	 * @param confirmationHits The number of further hits of any trace point that must pass after reaching <code>targetCount</code> while
+	 *   it is still reached, so that trace points which are hit again shortly after are recognized as duplicates.
+	 * @param timeout The time in milliseconds after which the target VM is killed in any case. If this is 0, there is no timeout.
+	 */
+	public void setTarget(int targetCount, long confirmationHits, long timeout){
+		if (isAlive()){
+			throw new IllegalStateException("The target can not be changed while the thread is running.");
+		}
+		this.targetCount = targetCount;
+		this.confirmationHits = confirmationHits;
+		this.timeout = timeout;
+	}
+	
+	@Override
+	public void run() {
+		Timer timer = null;
+		if (timeout > 0){
+			timer = new Timer("tracing timeout", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					stopTarget();
+				}
+			}, timeout);
+		}
+		super.run();
+		if (timer != null){
+			timer.cancel();
+		}
 	}
 	
 	@Override
@@ -64,13 +128,18 @@ public class MarkTraceThread extends QueueThread {
 		for (Method method : methods){
 			if (method.name().equals(markMethodName)){				
 				BreakpointRequest bPoR = erm.createBreakpointRequest(method.location());
+				bPoR.setSuspendPolicy(getBreakpointSuspendPolicy());
 				bPoR.enable();
 			}
 		}
 	}
 	
 	@Override
-	public void processBreakpoint(BreakpointEvent bPoE){
+	public void processBreakpoint(BreakpointEvent bPoE, long sequence){
+		if (stopped){
+			// Hits after the decision to stop are not part of the trace
+			return;
+		}
 		try {
 			StackFrame thisFrame = bPoE.thread().frame(0);
 			StackFrame callerFrame = bPoE.thread().frame(1);			
@@ -82,39 +151,121 @@ public class MarkTraceThread extends QueueThread {
 			} else if (values.size() > 1){
 				throw new UnsupportedArgumentException("Too many arguments");
 			}
+			// The trace points are created without the Location and Value, so that they stay valid once the target VM is gone
+			String methodSig = embedding.Tools.methodSig(loc);
+			long codeIndex = loc.codeIndex();
 			TracePoint tracePoint;
 			if (val == null){
-				tracePoint = new NoArgTracePoint(loc);
+				tracePoint = new NoArgTracePoint(methodSig, codeIndex);
 			} else if (val instanceof IntegerValue){
-				tracePoint = new IntTracePoint(loc,(IntegerValue) val);
+				tracePoint = new IntTracePoint(methodSig, codeIndex, ((IntegerValue) val).value());
 			} else if (val instanceof StringReference){
-				tracePoint = new StringTracePoint(loc,(StringReference) val);
+				tracePoint = new StringTracePoint(methodSig, codeIndex, ((StringReference) val).value());
 			} else {
 				throw new UnsupportedArgumentException("Argument is not of type int or java.lang.String");
 			}
-			// For some unfathomable reason, the Methods don't get stored otherwise
-			loc.method();
-//			System.out.println("---Entry "+loc.method().name()+"---");	
-//			System.out.println("---Line: "+loc.codeIndex()+"---");
-//			System.out.println(Arrays.toString(values.toArray()));
-			if (tracePoints.contains(tracePoint)){
-				toBeDeleted.add(tracePoint);
-			} else {
-				tracePoints.add(tracePoint);
-			}				
+			AtomicInteger count = hitCounts.putIfAbsent(tracePoint, new AtomicInteger(1));
+			if (count == null){
+				uniqueTracePoints.incrementAndGet();
+			} else if (count.incrementAndGet() == 2){
+				uniqueTracePoints.decrementAndGet();
+			}
+			// Breakpoints of different threads may be processed out of order, so keep the lowest sequence
+			Long previous = firstHits.putIfAbsent(tracePoint, sequence);
+			while ((previous != null) && (sequence < previous) && !firstHits.replace(tracePoint, previous, sequence)){
+				previous = firstHits.get(tracePoint);
+			}
+			checkTarget(totalHits.incrementAndGet());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Stops the target VM if the target has been reached for the whole confirmation window.
+	 * @param hits The total number of hits so far.
+	 */
+	private synchronized void checkTarget(long hits){
+		if (targetCount <= 0){
+			return;
+		}
+		if (uniqueTracePoints.get() < targetCount){
+			// A duplicate took the count below the target again, so the window starts over once it is reached
+			targetReachedAt = -1;
+			return;
+		}
+		if (targetReachedAt < 0){
+			targetReachedAt = hits;
+		}
+		if (hits - targetReachedAt >= confirmationHits){
+			stopTarget();
+		}
+	}
+	
+	/**
+	 * Kills the target VM, which keeps the trace points hit so far. This only happens once.
+	 */
+	private synchronized void stopTarget(){
+		if (stopped){
+			return;
+		}
+		stopped = true;
+		try {
+			vm.exit(0);
+		} catch (VMDisconnectedException e) {
+			// The target VM finished on its own in the meantime
+		}
+	}
+	
+	/**
+	 * Checks whether the target VM was killed because the target was reached or because of the timeout.
+	 * @return <tt>true</tt> if the target VM was killed, <tt>false</tt> if it finished on its own.
+	 */
+	public boolean isStopped(){
+		return stopped;
+	}
 
 	@Override
 	/**
-	 * Called if the target VM is disconnected. If this happens, duplicates are removed from <code>tracePoints</code> and they are enumerated
-	 * in the correct order.
+	 * Called if the target VM is disconnected. If this happens and the VM did not die before, the trace points are put into
+	 * <code>tracePoints</code> in the order of their first hit, duplicates are removed and they are enumerated in the correct order.
 	 */
 	public void processDisconnected() {
-		removeDuplicates();
-		setIndices();
+		finish();
+	}
+	
+	/**
+	 * Called if the VM is dying. The trace points are ordered just like in <tt>processDisconnected()</tt> and the VM is disposed, since
+	 * nothing references it anymore.
+	 */
+	@Override
+	public void processDeath() {
+		finish();
+		quitNow = true;
+		vm.dispose();
+	}
+	
+	/**
+	 * Orders the trace points by their first hit, sets their hits and removes the duplicates. This only happens once.
+	 */
+	private void finish(){
+		if (finished){
+			return;
+		}
+		finished = true;
+		List<Map.Entry<TracePoint,Long>> entries = new ArrayList<Map.Entry<TracePoint,Long>>(firstHits.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<TracePoint,Long>>() {
+			@Override
+			public int compare(Map.Entry<TracePoint,Long> e1, Map.Entry<TracePoint,Long> e2) {
+				return e1.getValue().compareTo(e2.getValue());
+			}
+		});
+		for (Map.Entry<TracePoint,Long> entry : entries){
+			TracePoint trace = entry.getKey();
+			trace.setHits(hitCounts.get(trace).get());
+			allTracePoints.add(trace);
+		}
+		tracePoints = TracePoint.removeDuplicates(allTracePoints);
 	}
 	
 	/**
@@ -133,29 +284,16 @@ public class MarkTraceThread extends QueueThread {
 	}
 	
 	/**
-	 * For each <code>TracePoint</code> in <code>tracePoints</code> that was reached multiple times during the course of this thread's
-	 * lifetime, this <code>TracePoint</code> is removed from <code>tracePoints</code>.
-	 */
-	private void removeDuplicates(){
-		tracePoints.removeAll(toBeDeleted);
-	}
-	
-	/**
-	 * Sets the correct indices for each TracePoint in the order in which they appear in tracePoints.
+	 * Returns every trace point that was hit, including the duplicates, with their hits set. You may not call this method until
+	 * <code>this.isAlive()</code> is <code>false</code>.
+	 * @return The trace points in the order of their first hit.
+	 * @throws Exception If this thread is still alive.
 	 */
-	private void setIndices(){
-		int index = 0;
-		for (TracePoint trace : tracePoints){
-			trace.setIndex(index);
-			index++;
+	public List<TracePoint> getAllTracePoints() throws Exception{
+		if (this.isAlive()){
+			throw new Exception("The list is getting changed right now, so you may not retrieve the TracePoints "
+					+ "until this thread is no longer alive.");
 		}
-	}
-
-	/**
-	 * Called if the VM is dying. In this case, absolutely nothing happens.
-	 */
-	@Override
-	public void processDeath() {
-		// do absolutely nothing
+		return allTracePoints;
 	}
 }
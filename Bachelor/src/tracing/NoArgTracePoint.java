@@ -1,22 +1,19 @@
 package tracing;
 
-import com.sun.jdi.Location;
-
 /**
  * An implementation of <code>TracePoint</code> for a call to a mark method without arguments. 
  * @author Kaspar
  *
  */
 public class NoArgTracePoint extends TracePoint {
-	
-	Location loc;
 
 	/**
 	 * Creates a new NoArgTracePoint.
-	 * @param loc The code location that is hit during tracing. 
+	 * @param methodSig The signature of the method containing the call as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param codeIndex The code index of the call to the mark method.
 	 */
-	public NoArgTracePoint(Location loc) {
-		super(loc, null);
+	public NoArgTracePoint(String methodSig, long codeIndex) {
+		super(methodSig, codeIndex);
 	}
 
 	/* (non-Javadoc)
@@ -26,7 +23,8 @@ public class NoArgTracePoint extends TracePoint {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((loc == null) ? 0 : loc.hashCode());
+		result = prime * result + getMethodSig().hashCode();
+		result = prime * result + (int) (getCodeIndex() ^ (getCodeIndex() >>> 32));
 		return result;
 	}
 
@@ -44,10 +42,9 @@ public class NoArgTracePoint extends TracePoint {
 		if (getClass() != obj.getClass())
 			return false;
 		NoArgTracePoint other = (NoArgTracePoint) obj;
-		if (loc == null) {
-			if (other.loc != null)
-				return false;
-		} else if (!loc.equals(other.loc))
+		if (!getMethodSig().equals(other.getMethodSig()))
+			return false;
+		if (getCodeIndex() != other.getCodeIndex())
 			return false;
 		return true;
 	}
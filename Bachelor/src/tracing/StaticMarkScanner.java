@@ -0,0 +1,254 @@
+package tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.BranchHandle;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.LoadInstruction;
+import org.apache.bcel.generic.LocalVariableInstruction;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.StoreInstruction;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Finds trace points in the class files on a class path without running the program. Every call to the mark method whose argument is a
+ * literal becomes a trace point. An argument also counts as literal if it is loaded from a local variable that is assigned exactly once in
+ * its method, namely with a literal.<br>
+ * Calls inside a loop are left out, since they would most likely be hit several times, which would make them duplicates in a traced run.
+ * Neither the order in which the calls are executed nor whether they are reached at all can be seen in the bytecode, though. The trace points are
+ * enumerated in the order of the class files' paths, the methods in each class and the code indices, so they should only be used on their
+ * own if that is the order of execution. Otherwise, they are better intersected with the trace points of a traced run.
+ * @author Kaspar
+ *
+ */
+public class StaticMarkScanner {
+	
+	private final String classPath;
+	private final String markClassName;
+	private final String markMethodName;
+	private final List<String> unresolvedSites;
+	private final List<String> loopSites;
+
+	/**
+	 * Creates a new scanner.
+	 * @param classPath The path under which all class files are scanned.
+	 * @param fullMarkMethodName The fully qualified name of the mark method(s), i.e. [packagename].[ClassName].[methodName].
+	 */
+	public StaticMarkScanner(String classPath, String fullMarkMethodName) {
+		this.classPath = classPath;
+		int i = fullMarkMethodName.lastIndexOf('.');
+		markClassName = fullMarkMethodName.substring(0, i);
+		markMethodName = fullMarkMethodName.substring(i+1, fullMarkMethodName.length());
+		unresolvedSites = new ArrayList<String>();
+		loopSites = new ArrayList<String>();
+	}
+	
+	/**
+	 * Scans all class files on the class path.
+	 * @return The trace points that were found, with their indices set.
+	 * @throws IOException If a class file can not be parsed.
+	 */
+	public LinkedHashSet<TracePoint> scan() throws IOException{
+		unresolvedSites.clear();
+		loopSites.clear();
+		List<File> classFiles = new ArrayList<File>();
+		embedding.Tools.collectClassFiles(new File(classPath), classFiles);
+		LinkedHashSet<TracePoint> result = new LinkedHashSet<TracePoint>();
+		for (File file : classFiles){
+			JavaClass clazz = new ClassParser(file.getPath()).parse();
+			ConstantPoolGen cp = new ConstantPoolGen(clazz.getConstantPool());
+			for (Method method : clazz.getMethods()){
+				if (method.getCode() == null){
+					continue;
+				}
+				MethodGen mg = new MethodGen(method, clazz.getClassName(), cp);
+				scanMethod(embedding.Tools.methodSig(clazz, method), mg, cp, result);
+				mg.getInstructionList().dispose();
+			}
+		}
+		int index = 0;
+		for (TracePoint trace : result){
+			trace.setIndex(index);
+			// They were not hit at all, just found
+			trace.setHits(0);
+			index++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the mark calls of the last scan whose argument could not be resolved to a literal.
+	 * @return Each call as the signature of its method and its code index, separated by "|".
+	 */
+	public List<String> getUnresolvedSites(){
+		return unresolvedSites;
+	}
+	
+	/**
+	 * Returns the mark calls of the last scan that were left out because they are inside a loop.
+	 * @return Each call as the signature of its method and its code index, separated by "|".
+	 */
+	public List<String> getLoopSites(){
+		return loopSites;
+	}
+	
+	/**
+	 * Finds the trace points in a single method.
+	 * @param methodSig The signature of the method as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param mg The method.
+	 * @param cp The constant pool of the class containing the method.
+	 * @param result The set that the trace points are added to.
+	 */
+	private void scanMethod(String methodSig, MethodGen mg, ConstantPoolGen cp, LinkedHashSet<TracePoint> result){
+		InstructionList il = mg.getInstructionList();
+		il.setPositions();
+		Map<Integer,Object> constantLocals = null;
+		for (InstructionHandle handle : il.getInstructionHandles()){
+			Instruction ins = handle.getInstruction();
+			if (!(ins instanceof InvokeInstruction)){
+				continue;
+			}
+			InvokeInstruction invoke = (InvokeInstruction) ins;
+			if (!embedding.Tools.isMarkCall(invoke, cp, markClassName, markMethodName)){
+				continue;
+			}
+			int codeIndex = handle.getPosition();
+			String site = methodSig+"|"+codeIndex;
+			if (isInLoop(handle, il)){
+				loopSites.add(site);
+				continue;
+			}
+			Type[] argTypes = invoke.getArgumentTypes(cp);
+			if (argTypes.length == 0){
+				result.add(new NoArgTracePoint(methodSig, codeIndex));
+				continue;
+			}
+			if (constantLocals == null){
+				constantLocals = getConstantLocals(mg, cp);
+			}
+			Object value = (argTypes.length == 1) ? getConstantArgument(handle, cp, constantLocals) : null;
+			if (argTypes[0].equals(Type.INT) && (value instanceof Integer)){
+				result.add(new IntTracePoint(methodSig, codeIndex, (Integer) value));
+			} else if (argTypes[0].equals(Type.STRING) && (value instanceof String)){
+				result.add(new StringTracePoint(methodSig, codeIndex, (String) value));
+			} else {
+				unresolvedSites.add(site);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the literal that is passed to a mark call.
+	 * @param handle The mark call.
+	 * @param cp The constant pool of the class containing the method.
+	 * @param constantLocals The local variables that always hold the same literal, see <tt>getConstantLocals</tt>.
+	 * @return The literal as <code>Integer</code> or <code>String</code> or <tt>null</tt> if the argument is no literal.
+	 */
+	private static Object getConstantArgument(InstructionHandle handle, ConstantPoolGen cp, Map<Integer,Object> constantLocals){
+		InstructionHandle prev = handle.getPrev();
+		if ((prev == null) || embedding.Tools.isBranchTarget(handle)){
+			return null;
+		}
+		Instruction ins = prev.getInstruction();
+		if (ins instanceof LoadInstruction){
+			return constantLocals.get(((LoadInstruction) ins).getIndex());
+		}
+		return getConstant(ins, cp);
+	}
+	
+	/**
+	 * Finds the local variables of a method that are assigned exactly once, namely with a literal. Since the verifier makes sure that
+	 * a local variable is assigned before it is loaded, every load of such a variable yields that literal. The arguments of the method are
+	 * assigned by the caller, so they are never included.
+	 * @param mg The method.
+	 * @param cp The constant pool of the class containing the method.
+	 * @return Maps the index of each such local variable to its literal.
+	 */
+	private static Map<Integer,Object> getConstantLocals(MethodGen mg, ConstantPoolGen cp){
+		int firstLocal = mg.isStatic() ? 0 : 1;
+		for (Type type : mg.getArgumentTypes()){
+			firstLocal += type.getSize();
+		}
+		HashMap<Integer,Integer> stores = new HashMap<Integer,Integer>();
+		HashMap<Integer,Object> result = new HashMap<Integer,Object>();
+		for (InstructionHandle handle : mg.getInstructionList().getInstructionHandles()){
+			Instruction ins = handle.getInstruction();
+			if (!(ins instanceof StoreInstruction) && !(ins instanceof IINC)){
+				continue;
+			}
+			int index = ((LocalVariableInstruction) ins).getIndex();
+			Integer count = stores.get(index);
+			stores.put(index, (count == null) ? 1 : count+1);
+			InstructionHandle prev = handle.getPrev();
+			if ((ins instanceof StoreInstruction) && (prev != null) && !embedding.Tools.isBranchTarget(handle)){
+				Object value = getConstant(prev.getInstruction(), cp);
+				if (value != null){
+					result.put(index, value);
+				}
+			}
+		}
+		for (Integer index : stores.keySet()){
+			if ((index < firstLocal) || (stores.get(index) > 1)){
+				result.remove(index);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the literal that an instruction pushes on the stack.
+	 * @param ins The instruction.
+	 * @param cp The constant pool of the class containing the instruction.
+	 * @return The <code>int</code> or <code>String</code> literal or <tt>null</tt> if <code>ins</code> pushes neither.
+	 */
+	private static Object getConstant(Instruction ins, ConstantPoolGen cp){
+		Object value = null;
+		if (ins instanceof ConstantPushInstruction){
+			value = ((ConstantPushInstruction) ins).getValue();
+		} else if (ins instanceof LDC){
+			value = ((LDC) ins).getValue(cp);
+		}
+		if ((value instanceof Integer) || (value instanceof String)){
+			return value;
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks whether an instruction lies between a backward jump and its target, in which case it is part of a loop.
+	 * @param handle The instruction handle.
+	 * @param il The instruction list containing <code>handle</code> with its positions set.
+	 * @return <tt>true</tt> if <code>handle</code> is inside a loop, <tt>false</tt> otherwise.
+	 */
+	private static boolean isInLoop(InstructionHandle handle, InstructionList il){
+		int position = handle.getPosition();
+		for (InstructionHandle other : il.getInstructionHandles()){
+			if (!(other instanceof BranchHandle)){
+				continue;
+			}
+			BranchInstruction branch = (BranchInstruction) other.getInstruction();
+			int target = branch.getTarget().getPosition();
+			if ((target <= position) && (position <= other.getPosition())){
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,8 +1,5 @@
 package tracing;
 
-import com.sun.jdi.Location;
-import com.sun.jdi.StringReference;
-
 /**
  * An implementation of <code>TracePoint</code> for argument values of type <code>java.lang.String</code>.
  * @author Kaspar
@@ -10,17 +7,30 @@ import com.sun.jdi.StringReference;
  */
 public class StringTracePoint extends TracePoint {
 	
-	private Location loc;
 	private String stringValue;
 
 	/**
-	 * Creates a new instance at code location <code>loc</code> with the argument value being a String that is mirrored as <code>StringReference</code>.
-	 * @param loc the code location
-	 * @param val the mirrored String value
+	 * Creates a new instance.
+	 * @param methodSig The signature of the method containing the call as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param codeIndex The code index of the call to the mark method.
+	 * @param value The argument value.
+	 */
+	public StringTracePoint(String methodSig, long codeIndex, String value) {
+		super(methodSig, codeIndex);
+		stringValue = value;
+	}
+
+	/**
+	 * Returns the argument of the mark call.
+	 * @return The <code>String</code> value.
 	 */
-	public StringTracePoint(Location loc, StringReference val) {
-		super(loc, val);
-		stringValue = val.value();
+	public String getValue(){
+		return stringValue;
+	}
+
+	@Override
+	protected String valueToString(){
+		return "\""+stringValue+"\"";
 	}
 
 	/* (non-Javadoc)
@@ -30,7 +40,8 @@ public class StringTracePoint extends TracePoint {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((loc == null) ? 0 : loc.hashCode());
+		result = prime * result + getMethodSig().hashCode();
+		result = prime * result + (int) (getCodeIndex() ^ (getCodeIndex() >>> 32));
 		result = prime * result
 				+ ((stringValue == null) ? 0 : stringValue.hashCode());
 		return result;
@@ -40,8 +51,8 @@ public class StringTracePoint extends TracePoint {
 	/**
 	 * Compares the specified Object with this StringTracePoint for equality.
 	 * @param obj The object with which to compare.
-	 * @return <code>true</code> if the Object is a StringTracePoint, if it refers to the same code location and if the StringReference that it
-	 *   references refers to a <code>String</code> that is the same as this StringTracePoint's, <code>false</code> otherwise.
+	 * @return <code>true</code> if the Object is a StringTracePoint, if it refers to the same code location and if its <code>String</code>
+	 *   is the same as this StringTracePoint's, <code>false</code> otherwise.
 	 */
 	public boolean equals(Object obj) {
 		// This works because I specifically compare the mirrored Strings
@@ -52,10 +63,9 @@ public class StringTracePoint extends TracePoint {
 		if (getClass() != obj.getClass())
 			return false;
 		StringTracePoint other = (StringTracePoint) obj;
-		if (loc == null) {
-			if (other.loc != null)
-				return false;
-		} else if (!loc.equals(other.loc))
+		if (!getMethodSig().equals(other.getMethodSig()))
+			return false;
+		if (getCodeIndex() != other.getCodeIndex())
 			return false;
 		if (stringValue == null) {
 			if (other.stringValue != null)
@@ -0,0 +1,139 @@
+package tracing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Saves trace points to a file and loads them again, so that a program only needs to be traced once and can then be watermarked as often
+ * as needed. Every trace point that was hit is saved, including the duplicates, in the order of their first hit and with their hits.<br>
+ * The file starts with a header and the name of the mark method, followed by a table of the signatures of all methods containing trace
+ * points and then the trace points themselves, each as the type of its argument, the index of its method in the table, its code index,
+ * its argument and its hits.
+ * @author Kaspar
+ *
+ */
+public class TraceFile {
+	private static final int MAGIC = 0x54524345;
+	private static final short VERSION = 1;
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private TraceFile() {}
+	
+	/**
+	 * Saves trace points to a file.
+	 * @param fileName The name of the file.
+	 * @param markMethodName The full name of the mark method that the trace points belong to.
+	 * @param tracePoints The trace points with their hits set.
+	 * @throws IOException If the file can not be written.
+	 */
+	public static void write(String fileName, String markMethodName, List<TracePoint> tracePoints) throws IOException{
+		HashMap<String,Integer> methodToIndex = new HashMap<String,Integer>();
+		List<String> methods = new ArrayList<String>();
+		for (TracePoint trace : tracePoints){
+			if (!methodToIndex.containsKey(trace.getMethodSig())){
+				methodToIndex.put(trace.getMethodSig(), methods.size());
+				methods.add(trace.getMethodSig());
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeUTF(markMethodName);
+			out.writeInt(methods.size());
+			for (String method : methods){
+				out.writeUTF(method);
+			}
+			out.writeInt(tracePoints.size());
+			for (TracePoint trace : tracePoints){
+				if (trace instanceof IntTracePoint){
+					out.writeByte(MarkLog.ARGUMENT_INT);
+				} else if (trace instanceof StringTracePoint){
+					out.writeByte(MarkLog.ARGUMENT_STRING);
+				} else {
+					out.writeByte(MarkLog.ARGUMENT_NONE);
+				}
+				out.writeInt(methodToIndex.get(trace.getMethodSig()));
+				out.writeInt((int) trace.getCodeIndex());
+				if (trace instanceof IntTracePoint){
+					out.writeInt(((IntTracePoint) trace).getValue());
+				} else if (trace instanceof StringTracePoint){
+					String value = ((StringTracePoint) trace).getValue();
+					if (value == null){
+						out.writeInt(-1);
+					} else {
+						// writeUTF only takes up to 64 KB, which a mark argument might exceed
+						byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+						out.writeInt(bytes.length);
+						out.write(bytes);
+					}
+				}
+				out.writeInt(trace.getHits());
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Loads trace points from a file.
+	 * @param fileName The name of the file.
+	 * @param markMethodName The full name of the mark method that the trace points must belong to.
+	 * @return The trace points in the order in which they were saved, with their hits set.
+	 * @throws IOException If the file can not be read, is no trace file or belongs to a different mark method.
+	 */
+	public static List<TracePoint> read(String fileName, String markMethodName) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readShort() != VERSION)){
+				throw new IOException(fileName+" is not a trace file of version "+VERSION);
+			}
+			String recordedMarkMethodName = in.readUTF();
+			if (!recordedMarkMethodName.equals(markMethodName)){
+				throw new IOException(fileName+" was recorded for the mark method "+recordedMarkMethodName+", not "+markMethodName);
+			}
+			String[] methods = new String[in.readInt()];
+			for (int i = 0; i < methods.length; i++){
+				methods[i] = in.readUTF();
+			}
+			int noOfTracePoints = in.readInt();
+			List<TracePoint> result = new ArrayList<TracePoint>(noOfTracePoints);
+			for (int i = 0; i < noOfTracePoints; i++){
+				byte argument = in.readByte();
+				String methodSig = methods[in.readInt()];
+				long codeIndex = in.readInt();
+				TracePoint trace;
+				if (argument == MarkLog.ARGUMENT_INT){
+					trace = new IntTracePoint(methodSig, codeIndex, in.readInt());
+				} else if (argument == MarkLog.ARGUMENT_STRING){
+					int length = in.readInt();
+					String value = null;
+					if (length >= 0){
+						byte[] bytes = new byte[length];
+						in.readFully(bytes);
+						value = new String(bytes, StandardCharsets.UTF_8);
+					}
+					trace = new StringTracePoint(methodSig, codeIndex, value);
+				} else {
+					trace = new NoArgTracePoint(methodSig, codeIndex);
+				}
+				trace.setHits(in.readInt());
+				result.add(trace);
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+}
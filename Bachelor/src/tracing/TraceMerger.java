@@ -0,0 +1,69 @@
+package tracing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges the trace points of several traced runs of the same program with different arguments. A trace point that is hit more than once
+ * in any run is never kept, just like a duplicate in a single run. Of the rest, <tt>UNION</tt> keeps every trace point that was hit in
+ * any run, <tt>INTERSECTION</tt> only those hit in every run and <tt>WEIGHTED</tt> weighs each trace point by the number of runs that hit
+ * it and keeps those hit in more than half of them.<br>
+ * The order of the merged trace points only depends on the order of the runs, not on when they finished: first come the trace points
+ * of the first run in the order of their first hit, then those of the second run that are not yet included and so on. So the first
+ * run should be the one with the arguments that the watermarked program is usually run with.
+ * @author Kaspar
+ *
+ */
+public class TraceMerger {
+	public static final int UNION = 0;
+	public static final int INTERSECTION = 1;
+	public static final int WEIGHTED = 2;
+	
+	/**
+	 * No creation of instances necessary or desirable.
+	 */
+	private TraceMerger() {}
+	
+	/**
+	 * Merges the trace points of several runs.
+	 * @param runs Every trace point of each run, including the duplicates, in the order of their first hit and with their hits set.
+	 * @param policy One of <tt>UNION</tt>, <tt>INTERSECTION</tt> or <tt>WEIGHTED</tt>.
+	 * @return The merged trace points in a deterministic order. Each is hit exactly once per run that reaches it, so their hits
+	 *   are set to 1.
+	 */
+	public static List<TracePoint> merge(List<List<TracePoint>> runs, int policy){
+		LinkedHashSet<TracePoint> ordered = new LinkedHashSet<TracePoint>();
+		Set<TracePoint> duplicates = new HashSet<TracePoint>();
+		HashMap<TracePoint,Integer> weights = new HashMap<TracePoint,Integer>();
+		for (List<TracePoint> run : runs){
+			for (TracePoint trace : run){
+				ordered.add(trace);
+				if (trace.getHits() > 1){
+					duplicates.add(trace);
+				}
+				Integer weight = weights.get(trace);
+				weights.put(trace, (weight == null) ? 1 : weight+1);
+			}
+		}
+		List<TracePoint> result = new ArrayList<TracePoint>();
+		for (TracePoint trace : ordered){
+			if (duplicates.contains(trace)){
+				continue;
+			}
+			int weight = weights.get(trace);
+			if ((policy == INTERSECTION) && (weight < runs.size())){
+				continue;
+			}
+			if ((policy == WEIGHTED) && (2 * weight <= runs.size())){
+				continue;
+			}
+			trace.setHits(1);
+			result.add(trace);
+		}
+		return result;
+	}
+}
@@ -1,29 +1,32 @@
 package tracing;
 
-import com.sun.jdi.Location;
-import com.sun.jdi.Value;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 
 /**
  * This class is an implementation of the idea of "trace points" in "Dynamic Graph-Based Software Fingerprinting" by Collberg, Thomborson and
- * Townsend. They contain a <code>Location</code> which describes a location in a class' code where a mark method was called and a <code>Value</code>
- * which is the argument of that method call.
+ * Townsend. They describe a location in a class' code where a mark method was called by the signature of the method and the code index of
+ * the call, and the subclasses add the argument of that method call. They do not reference the target VM, so they can be kept after it is
+ * gone and trace points from a debugger, a <code>MarkLogReader</code> or a <code>TraceFile</code> are equal if they describe the same call.
+ * They also count how often they were hit.
  * @author Kaspar
  *
  */
 public abstract class TracePoint implements Comparable<TracePoint>{
 	
-	private final Location loc;
-	private final Value val;
+	private final String methodSig;
+	private final long codeIndex;
 	private int index;
+	private int hits = 1;
 
 	/**
-	 * Creates a new instance with the code location <code>Location</code> and the argument value <code>Value</code>.
-	 * @param loc the code location
-	 * @param val the argument value. If this is <code>null</code>, it means that no argument is passed.
+	 * Creates a new instance.
+	 * @param methodSig The signature of the method containing the call as returned by <code>embedding.Tools.methodSig</code>.
+	 * @param codeIndex The code index of the call to the mark method.
 	 */
-	public TracePoint(Location loc,Value val) {
-		this.loc = loc;
-		this.val = val;
+	public TracePoint(String methodSig, long codeIndex) {
+		this.methodSig = methodSig;
+		this.codeIndex = codeIndex;
 	}
 	
 	@Override
@@ -32,35 +35,38 @@ public abstract class TracePoint implements Comparable<TracePoint>{
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString(){
-		String valToString = "NONE";
-		if (!(val == null)){
-			valToString = val.toString();
-		}
-		String signature = embedding.Tools.methodSig(loc);
-		String result = index+":("+signature+"|"+loc.codeIndex()+"|"+valToString+")";
+		String result = index+":("+methodSig+"|"+codeIndex+"|"+valueToString()+")";
 		return result.toString();
 	}
 	
+	/**
+	 * Returns the argument of the mark call as it is shown by <code>toString()</code>.
+	 * @return The argument or "NONE" if there is none.
+	 */
+	protected String valueToString(){
+		return "NONE";
+	}
+	
 	public int compareTo(TracePoint t){
-		return (int) (t.loc.codeIndex() - loc.codeIndex());
+		return (int) (t.codeIndex - codeIndex);
 	}
 
 	/**
-	 * Returns the code location of this instance.
-	 * @return the <code>Location</code> that is referenced in this instance.
+	 * Returns the signature of the method that the mark method was called in.
+	 * @return The signature in the format of <code>embedding.Tools.methodSig</code>.
 	 */
-	public Location getLoc() {
-		return loc;
+	public String getMethodSig() {
+		return methodSig;
 	}
 
 	/**
-	 * Returns the value of this instance.
-	 * @return the <code>Value</code> that is referenced in this instance.
+	 * Returns the code index of the mark call in its method.
+	 * @return The code index.
 	 */
-	public Value getVal() {
-		return val;
+	public long getCodeIndex() {
+		return codeIndex;
 	}
-	
+
 	/**
 	 * Sets the index field.
 	 * @param index the index
@@ -76,6 +82,38 @@ public abstract class TracePoint implements Comparable<TracePoint>{
 	public int getIndex(){
 		return index;
 	}
+	
+	/**
+	 * Sets how often this trace point was hit.
+	 * @param hits The number of hits or 0 if it was not found by running the program.
+	 */
+	public void setHits(int hits){
+		this.hits = hits;
+	}
+	
+	/**
+	 * Returns how often this trace point was hit. This is not part of equality.
+	 * @return The number of hits or 0 if it was not found by running the program.
+	 */
+	public int getHits(){
+		return hits;
+	}
+	
+	/**
+	 * Removes every trace point that was hit more than once and enumerates the rest, keeping their order.
+	 * @param tracePoints The trace points with their hits set, e.g. in the order of their first hit.
+	 * @return The trace points that were hit at most once, in the same order and with their indices set.
+	 */
+	public static LinkedHashSet<TracePoint> removeDuplicates(Collection<TracePoint> tracePoints){
+		LinkedHashSet<TracePoint> result = new LinkedHashSet<TracePoint>();
+		for (TracePoint trace : tracePoints){
+			if (trace.hits <= 1){
+				trace.setIndex(result.size());
+				result.add(trace);
+			}
+		}
+		return result;
+	}
 
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
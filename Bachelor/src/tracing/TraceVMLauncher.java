@@ -1,6 +1,7 @@
 package tracing;
 
 import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.request.EventRequest;
 
 public class TraceVMLauncher extends util.VMLauncher{
 	
@@ -21,9 +22,45 @@ public class TraceVMLauncher extends util.VMLauncher{
 	 *  containing a method mark.
 	 */
 	public TraceVMLauncher(String classPath, String className, String args, String markMethodName) {
+		this(classPath, className, args, markMethodName, EventRequest.SUSPEND_ALL, 1);
+	}
+	
+	/**
+	 * Creates a new <code>VMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and arguments
+	 * <code>args</code>. Furthermore, a <code>MarkTraceThread</code> is started which tracks calls to a mark method with the specified
+	 * event dispatch, see <code>QueueThread.setEventDispatch</code>.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param markMethodName The full name of the mark method.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints.
+	 * @param noOfWorkers The number of threads that process breakpoints.
+	 */
+	public TraceVMLauncher(String classPath, String className, String args, String markMethodName, int breakpointSuspendPolicy, int noOfWorkers) {
+		this(classPath, className, args, markMethodName, breakpointSuspendPolicy, noOfWorkers, 0, 0, 0);
+	}
+	
+	/**
+	 * Creates a new <code>VMLauncher</code> which immediately launches the Java Virtual Machine for class <code>className</code> and arguments
+	 * <code>args</code>. Furthermore, a <code>MarkTraceThread</code> is started which tracks calls to a mark method with the specified
+	 * event dispatch and kills the Java Virtual Machine once enough trace points are found, see <code>MarkTraceThread.setTarget</code>.
+	 * @param classPath The classpath by which the class may be executed.
+	 * @param className The fully qualified name of the to be executed class.
+	 * @param args The arguments to the class' main method.
+	 * @param markMethodName The full name of the mark method.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints.
+	 * @param noOfWorkers The number of threads that process breakpoints.
+	 * @param targetCount The number of trace points that must be hit exactly once or 0 to run to completion.
+	 * @param confirmationHits The number of further hits for which the target must stay reached.
+	 * @param timeout The time in milliseconds after which tracing stops in any case or 0 for no timeout.
+	 */
+	public TraceVMLauncher(String classPath, String className, String args, String markMethodName, int breakpointSuspendPolicy, int noOfWorkers,
+			int targetCount, long confirmationHits, long timeout) {
 		super(classPath, className, args);
 		VirtualMachine vm = getVM();
 		mtt = new MarkTraceThread(vm, excludes, markMethodName);
+		mtt.setEventDispatch(breakpointSuspendPolicy, noOfWorkers);
+		mtt.setTarget(targetCount, confirmationHits, timeout);
 		mtt.start();
 		vm.resume();
 	}
@@ -7,10 +7,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import extraction.SnapshotThread;
+import tracing.TraceMerger;
+
 public class ConfigParser {
 	public static final int NO_EDGE = 0;
 	public static final int LIST_EDGE = 1;
 	public static final int TREE_EDGE = -1;
+	public static final int NO_SCAN = 0;
+	public static final int SCAN_ONLY = 1;
+	public static final int SCAN_CONFIRM = 2;
+	public static final int NO_SNAPSHOT = -1;
 	private int n = -1;
 	
 	private Properties prop;
@@ -86,6 +93,186 @@ public class ConfigParser {
 		return prop.getProperty("markMethod");
 	}
 	
+	public boolean stripMarkCalls(){
+		return prop.getProperty("stripMarkCalls").equalsIgnoreCase("yes");
+	}
+	
+	public boolean threadSafeWatermark(){
+		return prop.getProperty("threadSafeWatermark").equalsIgnoreCase("yes");
+	}
+	
+	public boolean reachableWatermark(){
+		return prop.getProperty("reachableWatermark").equalsIgnoreCase("yes");
+	}
+	
+	public boolean tableDrivenWatermark(){
+		return prop.getProperty("tableDrivenWatermark").equalsIgnoreCase("yes");
+	}
+	
+	public boolean deferredWatermark(){
+		return prop.getProperty("deferredWatermark").equalsIgnoreCase("yes");
+	}
+	
+	public boolean agentTracing(){
+		return prop.getProperty("agentTracing").equalsIgnoreCase("yes");
+	}
+	
+	public int staticTracePoints(){
+		String staticTracePoints = prop.getProperty("staticTracePoints").trim();
+		if (staticTracePoints.equalsIgnoreCase("yes")){
+			return SCAN_ONLY;
+		} else if (staticTracePoints.equalsIgnoreCase("confirm")){
+			return SCAN_CONFIRM;
+		}
+		return NO_SCAN;
+	}
+	
+	public boolean suspendEventThread(){
+		return prop.getProperty("suspendEventThread").equalsIgnoreCase("yes");
+	}
+	
+	public int debuggerWorkers(){
+		try {
+			return Math.max(1, Integer.parseInt(prop.getProperty("debuggerWorkers").trim()));
+		} catch (NumberFormatException e){
+			return 1;
+		}
+	}
+	
+	public int extractionConsumers(){
+		try {
+			return Math.max(1, Integer.parseInt(prop.getProperty("extractionConsumers").trim()));
+		} catch (NumberFormatException e){
+			return 1;
+		}
+	}
+	
+	public String typeCache(){
+		String typeCache = prop.getProperty("typeCache").trim();
+		if (typeCache.isEmpty()){
+			return null;
+		}
+		return typeCache;
+	}
+	
+	public long componentTracking(){
+		try {
+			return Math.max(0, Long.parseLong(prop.getProperty("componentTracking").trim()));
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public int snapshotExtraction(){
+		String snapshotExtraction = prop.getProperty("snapshotExtraction").trim();
+		if (snapshotExtraction.equalsIgnoreCase("death")){
+			return SnapshotThread.ON_DEATH;
+		} else if (snapshotExtraction.equalsIgnoreCase("timer")){
+			return SnapshotThread.ON_TIMER;
+		} else if (snapshotExtraction.equalsIgnoreCase("trigger")){
+			return SnapshotThread.ON_TRIGGER;
+		} else if (snapshotExtraction.equalsIgnoreCase("sampling")){
+			return SnapshotThread.ON_INTERVAL;
+		}
+		return NO_SNAPSHOT;
+	}
+	
+	public long snapshotDelay(){
+		try {
+			return Math.max(0, Long.parseLong(prop.getProperty("snapshotDelay").trim()));
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public int snapshotStableSamples(){
+		try {
+			return Math.max(1, Integer.parseInt(prop.getProperty("snapshotStableSamples").trim()));
+		} catch (NumberFormatException e){
+			return 2;
+		}
+	}
+	
+	public String snapshotTrigger(){
+		return prop.getProperty("snapshotTrigger").trim();
+	}
+	
+	public int bytecodeBudget(){
+		try {
+			return Integer.parseInt(prop.getProperty("bytecodeBudget").trim());
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public int traceTarget(){
+		try {
+			return Math.max(0, Integer.parseInt(prop.getProperty("traceTarget").trim()));
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public long traceConfirmation(){
+		try {
+			return Math.max(0, Long.parseLong(prop.getProperty("traceConfirmation").trim()));
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public long traceTimeout(){
+		try {
+			return Math.max(0, Long.parseLong(prop.getProperty("traceTimeout").trim()));
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	public List<String> additionalArguments(){
+		List<String> result = new ArrayList<String>();
+		for (String arguments : prop.getProperty("additionalArguments").split(";")){
+			if (!arguments.trim().isEmpty()){
+				result.add(arguments.trim());
+			}
+		}
+		return result;
+	}
+	
+	public int traceMerge(){
+		String traceMerge = prop.getProperty("traceMerge").trim();
+		if (traceMerge.equalsIgnoreCase("union")){
+			return TraceMerger.UNION;
+		} else if (traceMerge.equalsIgnoreCase("weighted")){
+			return TraceMerger.WEIGHTED;
+		}
+		return TraceMerger.INTERSECTION;
+	}
+	
+	public String traceFile(){
+		String traceFile = prop.getProperty("traceFile").trim();
+		if (traceFile.isEmpty()){
+			return null;
+		}
+		return traceFile;
+	}
+	
+	public String heapDump(){
+		String heapDump = prop.getProperty("heapDump").trim();
+		if (heapDump.isEmpty()){
+			return null;
+		}
+		return heapDump;
+	}
+	
+	public String impactReport(){
+		String impactReport = prop.getProperty("impactReport").trim();
+		if (impactReport.isEmpty()){
+			return null;
+		}
+		return impactReport;
+	}
+	
 	public int deleteEdgeType(){
 		String deleteEdgeType = prop.getProperty("deleteEdgeType");
 		if (deleteEdgeType.equalsIgnoreCase("tree")){
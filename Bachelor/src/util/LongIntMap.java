@@ -0,0 +1,125 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A map from <tt>long</tt> keys to non-negative <tt>int</tt> values which stores both in arrays instead of boxing them, e.g. for mapping
+ * the unique IDs of objects to consecutive indices. It uses open addressing with linear probing and grows once it is half full.
+ * Entries can not be removed. This class is not thread-safe.
+ * @author Kaspar
+ *
+ */
+public class LongIntMap {
+	/**
+	 * The value returned for keys that are not in the map.
+	 */
+	public static final int NO_VALUE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+	private long[] keys;
+	// NO_VALUE marks a free slot
+	private int[] values;
+	private int size = 0;
+
+	/**
+	 * Creates a new, empty LongIntMap.
+	 */
+	public LongIntMap() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates a new, empty LongIntMap that does not need to grow until it holds a certain number of entries.
+	 * @param expectedSize The number of entries.
+	 */
+	public LongIntMap(int expectedSize) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < 2*expectedSize){
+			capacity *= 2;
+		}
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+	}
+
+	/**
+	 * Returns the value of a key.
+	 * @param key The key.
+	 * @return The value or <tt>NO_VALUE</tt> if the key is not in the map.
+	 */
+	public int get(long key){
+		int i = slot(key, keys.length);
+		while (values[i] != NO_VALUE){
+			if (keys[i] == key){
+				return values[i];
+			}
+			i = (i + 1) & (keys.length - 1);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Maps a key to a value, replacing the old value if there is one.
+	 * @param key The key.
+	 * @param value The value, which must not be negative.
+	 */
+	public void put(long key, int value){
+		if (value < 0){
+			throw new IllegalArgumentException("Only non-negative values can be stored, not "+value);
+		}
+		if (2*(size + 1) > keys.length){
+			grow();
+		}
+		int i = slot(key, keys.length);
+		while (values[i] != NO_VALUE){
+			if (keys[i] == key){
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & (keys.length - 1);
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	/**
+	 * Returns the number of keys in this map.
+	 * @return The number of keys.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Doubles the capacity and inserts every entry again.
+	 */
+	private void grow(){
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[2*oldKeys.length];
+		values = new int[2*oldValues.length];
+		Arrays.fill(values, NO_VALUE);
+		for (int j = 0; j < oldKeys.length; j++){
+			if (oldValues[j] != NO_VALUE){
+				int i = slot(oldKeys[j], keys.length);
+				while (values[i] != NO_VALUE){
+					i = (i + 1) & (keys.length - 1);
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot at which the search for a key starts.
+	 * @param key The key.
+	 * @param capacity The number of slots, a power of 2.
+	 * @return The slot.
+	 */
+	private static int slot(long key, int capacity){
+		// Unique IDs are mostly consecutive, so spread them over the whole table
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (capacity - 1);
+	}
+}
@@ -1,5 +1,10 @@
 package util;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+
 import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.event.VMDeathEvent;
 import com.sun.jdi.VirtualMachine;
@@ -9,11 +14,17 @@ import com.sun.jdi.event.Event;
 import com.sun.jdi.event.EventIterator;
 import com.sun.jdi.event.EventQueue;
 import com.sun.jdi.event.EventSet;
+import com.sun.jdi.event.ModificationWatchpointEvent;
 import com.sun.jdi.request.*;
 
 /**
  * This class provides the implementation of a thread which works its way through a <code>VirtualMachine</code>'s
- * events and waits for <code>MethodEntryEvent</code>s and <code>MethodExitEvent</code>s which it then processes.
+ * events and waits for <code>MethodEntryEvent</code>s and <code>MethodExitEvent</code>s which it then processes.<br>
+ * By default, every event is processed on this thread and breakpoints suspend the whole target VM. With <tt>setEventDispatch</tt>,
+ * breakpoints may only suspend the thread that hit them and their event sets are handed to a pool of workers, so that breakpoints hit
+ * by different threads of the target VM are processed concurrently. A thread of the target VM stays suspended until its event set is
+ * processed, so its own breakpoints are still processed in order. Every other event is processed on this thread once all
+ * breakpoints that came before it are done.
  * @author Kaspar
  *
  */
@@ -22,6 +33,12 @@ public abstract class QueueThread extends Thread {
 	private VirtualMachine vm;
 	protected EventRequestManager erm;
 	private String name;
+	private int breakpointSuspendPolicy = EventRequest.SUSPEND_ALL;
+	private int noOfWorkers = 1;
+	private ExecutorService workers = null;
+	// This thread is always registered, every event set that is being processed by a worker registers as well
+	private Phaser dispatched = new Phaser(1);
+	private final CompletableFuture<Void> done = new CompletableFuture<Void>();
 	
 	public boolean quitNow = false;
 	
@@ -48,17 +65,71 @@ public abstract class QueueThread extends Thread {
 		deathR.enable();
 	}
 	
+	/**
+	 * Sets how breakpoints are handled. This must be called before this thread is started and before any breakpoint is requested.
+	 * @param breakpointSuspendPolicy The suspend policy for breakpoints, either <code>EventRequest.SUSPEND_ALL</code> or
+	 *   <code>EventRequest.SUSPEND_EVENT_THREAD</code>.
+	 * @param noOfWorkers The number of threads that process breakpoints. If this is 1, they are processed on this thread.
+	 */
+	public void setEventDispatch(int breakpointSuspendPolicy, int noOfWorkers){
+		if (isAlive()){
+			throw new IllegalStateException("The event dispatch can not be changed while the thread is running.");
+		}
+		this.breakpointSuspendPolicy = breakpointSuspendPolicy;
+		this.noOfWorkers = noOfWorkers;
+	}
+	
+	/**
+	 * Returns the suspend policy that subclasses must set on their breakpoint requests.
+	 * @return The suspend policy as set by <tt>setEventDispatch</tt>.
+	 */
+	protected int getBreakpointSuspendPolicy(){
+		return breakpointSuspendPolicy;
+	}
+	
+	/**
+	 * Returns a future that is completed once this thread has processed the last event, so that others can wait for it without blocking a
+	 * thread of their own. Everything that this thread found is final by then, even though it may still be alive for a moment.
+	 * @return The future, which is completed exceptionally if this thread fails.
+	 */
+	public CompletableFuture<Void> whenDone(){
+		return done;
+	}
+	
 	@Override
 	/**
 	 * Runs this thread, waiting for events of class <code>MethodEntryEvent</code> or <code>MethodExitEvent</code>s.
 	 */
 	public void run() {
+		try {
+			processEvents();
+		} catch (RuntimeException | Error e) {
+			done.completeExceptionally(e);
+			throw e;
+		}
+		done.complete(null);
+	}
+	
+	/**
+	 * Processes the events until the target VM dies or disconnects.
+	 */
+	private void processEvents(){
 		TimeKeeper time = new TimeKeeper(name);
 		EventQueue queue = vm.eventQueue();
+		if (noOfWorkers > 1){
+			workers = Executors.newFixedThreadPool(noOfWorkers);
+		}
+		// The position of each event set in the queue, so that the order of breakpoints can be restored after concurrent processing
+		long sequence = 0;
 		everything:
 		while(true){
 			try {
 				EventSet eventSet = queue.remove();
+				if ((workers != null) && isBreakpointSet(eventSet)){
+					dispatch(eventSet, sequence);
+					sequence++;
+					continue;
+				}
 				EventIterator it = eventSet.eventIterator();
 				while (it.hasNext()){
 					if (quitNow){
@@ -66,26 +137,82 @@ public abstract class QueueThread extends Thread {
 					}
 					Event nextEvent = it.nextEvent();
 					if (nextEvent instanceof VMDeathEvent){
+						awaitDispatched();
 						processDeath();
 					} else if (nextEvent instanceof ClassPrepareEvent){
 						ClassPrepareEvent cPrE = (ClassPrepareEvent) nextEvent;
 						processClassPrepareEvent(cPrE);
 					} else if (nextEvent instanceof BreakpointEvent){
 						BreakpointEvent bPoE = (BreakpointEvent) nextEvent;
-						processBreakpoint(bPoE);
+						processBreakpoint(bPoE, sequence);
+					} else if (nextEvent instanceof ModificationWatchpointEvent){
+						ModificationWatchpointEvent mWaE = (ModificationWatchpointEvent) nextEvent;
+						processModificationWatchpoint(mWaE);
 					}
 				}
+				sequence++;
 				eventSet.resume();
 			} catch (InterruptedException e) {
 				// Ignore
 			} catch (VMDisconnectedException e){
+				awaitDispatched();
 				processDisconnected();
 				break;
 			}
 		}
+		if (workers != null){
+			workers.shutdown();
+		}
 		time.stop();
 	}
 	
+	/**
+	 * Checks whether an event set only consists of breakpoints.
+	 * @param eventSet The event set.
+	 * @return <tt>true</tt> if every event in <code>eventSet</code> is a <code>BreakpointEvent</code>, <tt>false</tt> otherwise.
+	 */
+	private static boolean isBreakpointSet(EventSet eventSet){
+		for (Event event : eventSet){
+			if (!(event instanceof BreakpointEvent)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Hands an event set of breakpoints to the workers, which resume it once they are done.
+	 * @param eventSet The event set.
+	 * @param sequence The position of the event set in the queue.
+	 */
+	private void dispatch(final EventSet eventSet, final long sequence){
+		dispatched.register();
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (Event event : eventSet){
+						processBreakpoint((BreakpointEvent) event, sequence);
+					}
+					eventSet.resume();
+				} catch (VMDisconnectedException e) {
+					// The queue notices this as well
+				} finally {
+					dispatched.arriveAndDeregister();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Waits until the workers have processed every event set that was dispatched so far.
+	 */
+	private void awaitDispatched(){
+		if (workers != null){
+			dispatched.arriveAndAwaitAdvance();
+		}
+	}
+	
 	/**
 	 * Called if the target VM disconnects.
 	 */
@@ -98,10 +225,20 @@ public abstract class QueueThread extends Thread {
 	public abstract void processClassPrepareEvent(ClassPrepareEvent cPrE);
 	
 	/**
-	 * Gets executed each time a breakpoint is reached.
+	 * Gets executed each time a breakpoint is reached. If there are several workers, this is called concurrently for breakpoints
+	 * hit by different threads of the target VM.
 	 * @param bPoE The BreakpointEvent
+	 * @param sequence The position of the breakpoint's event set in the event queue. Breakpoints with a lower sequence were hit earlier.
 	 */
-	public abstract void processBreakpoint(BreakpointEvent bPoE);
+	public abstract void processBreakpoint(BreakpointEvent bPoE, long sequence);
+	
+	/**
+	 * Gets executed each time a watched field is modified. Only subclasses that request watchpoints need to override this, so it does
+	 * nothing by default.
+	 * @param mWaE The ModificationWatchpointEvent
+	 */
+	public void processModificationWatchpoint(ModificationWatchpointEvent mWaE){
+	}
 	
 	/**
 	 * Called if the target VM is dying. Most importantly, the VM is not yet disconnected at this point.
@@ -36,7 +36,10 @@ public class TimeKeeper {
 		long endTimeNano = System.nanoTime();
 		double timeTakenNano = ((double)(endTimeNano-startTimeNano-paused)) / (double)1000000;
 		String s = "=== "+name+" TOOK "+timeTakenNano+" MS ===";
-		nameToS.put(name, timeTakenNano);
+		// Several traced runs may finish at once
+		synchronized (nameToS) {
+			nameToS.put(name, timeTakenNano);
+		}
 		System.out.println(s);
 	}
 	
@@ -1,5 +1,6 @@
 package util;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -66,7 +67,7 @@ public class VMLauncher {
 		// Make target VM inherit the classpath
 		Connector.Argument optionArg = arguments.get("options");
 		String thisClasspath = System.getProperty("java.class.path");
-        optionArg.setValue("-cp "+classPath+";"+thisClasspath);
+        optionArg.setValue("-cp "+classPath+File.pathSeparator+thisClasspath);
                 
         return arguments;
 	}